@@ -0,0 +1,28 @@
+package com.illumio.flowlog.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner is the entry point of benchmarks.jar. It accepts the usual JMH command line
+ * and always adds the gc profiler, so every result reports the allocation rate next to ops/s.
+ */
+public class BenchmarkRunner {
+
+  /**
+   * Runs the benchmarks selected on the command line.
+   *
+   * @param args JMH command line options, for example a benchmark name regex
+   * @throws Exception if the options are invalid or a benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
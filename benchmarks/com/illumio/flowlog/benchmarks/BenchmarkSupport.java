@@ -0,0 +1,133 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.exceptions.MissingFileException;
+import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * BenchmarkSupport loads the reference files once per JVM and generates synthetic flow logs.
+ *
+ * <p>
+ * Benchmarks are run from the repository root so the files under Resources are found, another
+ * directory can be given with {@code -Dflowlog.resources=path}. Generated flow logs are cached in
+ * {@code java.io.tmpdir} so the multi-GB input is only written once.
+ * </p>
+ */
+final class BenchmarkSupport {
+
+  /** Ports of the sample lookup table, so that part of the generated records is tagged. */
+  private static final int[] TAGGED_PORTS = {23, 25, 22, 443, 110, 993, 143, 3389, 1024, 49156,
+      49157, 49158};
+  private static final int[] PROTOCOLS = {6, 6, 6, 17, 17, 1};
+
+  private static ProtocolNumberLoader protocolNumberLoader;
+  private static LookupTableLoader lookupTableLoader;
+
+  private BenchmarkSupport() {
+  }
+
+  /**
+   * @return a CountingOrchestrate over the sample protocol numbers and lookup table
+   */
+  static synchronized CountingOrchestrate newOrchestrate()
+      throws MissingMandatoryFileException, MissingFileException {
+    if (protocolNumberLoader == null) {
+      Path resources = Paths.get(System.getProperty("flowlog.resources", "Resources"));
+      ErrorLogger.getInstance(Paths.get(System.getProperty("java.io.tmpdir"),
+          "flowlog-benchmark-errors.txt").toString());
+      protocolNumberLoader = ProtocolNumberLoader.getInstance(
+          resources.resolve("protocol-numbers-1.csv").toString());
+      lookupTableLoader = LookupTableLoader.getInstance(
+          resources.resolve("lookup_table.txt").toString(), protocolNumberLoader);
+    }
+    return new CountingOrchestrate(lookupTableLoader, protocolNumberLoader);
+  }
+
+  /**
+   * @return the lookup table used by {@link #newOrchestrate()}
+   */
+  static LookupTableLoader lookupTable() throws MissingMandatoryFileException, MissingFileException {
+    newOrchestrate();
+    return lookupTableLoader;
+  }
+
+  /**
+   * Generates version 2 flow log records.
+   *
+   * @param lines the number of records
+   * @param distinctPorts random destination ports are drawn from this many values
+   * @param seed the random seed, equal seeds give equal records
+   * @return the records, each terminated by a line feed
+   */
+  static byte[] generate(int lines, int distinctPorts, long seed) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(lines * 110);
+    try {
+      write(out, lines, distinctPorts, new Random(seed));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns a generated flow log of at least the given size, writing it on first use.
+   *
+   * @param megabytes the size of the flow log
+   * @return the path of the flow log
+   * @throws IOException if the file can not be written
+   */
+  static synchronized Path generatedFile(int megabytes) throws IOException {
+    Path path = Paths.get(System.getProperty("java.io.tmpdir"), "flowlog-benchmark-" + megabytes + "mb.log");
+    long size = megabytes * 1024L * 1024L;
+    if (Files.exists(path) && Files.size(path) >= size) {
+      return path;
+    }
+    Random random = new Random(42);
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20)) {
+      long written = 0;
+      while (written < size) {
+        written += write(out, 10000, 65536, random);
+      }
+    }
+    return path;
+  }
+
+  private static long write(OutputStream out, int lines, int distinctPorts, Random random)
+      throws IOException {
+    long written = 0;
+    StringBuilder line = new StringBuilder(128);
+    for (int i = 0; i < lines; i++) {
+      int dstPort = random.nextBoolean() ? TAGGED_PORTS[random.nextInt(TAGGED_PORTS.length)]
+          : random.nextInt(distinctPorts);
+      long start = 1620140000L + random.nextInt(3600);
+      line.setLength(0);
+      line.append("2 123456789012 eni-").append(Integer.toHexString(random.nextInt(1 << 24)))
+          .append(" 10.0.").append(random.nextInt(256)).append('.').append(random.nextInt(256))
+          .append(" 198.51.100.").append(random.nextInt(256))
+          .append(' ').append(1024 + random.nextInt(64512))
+          .append(' ').append(dstPort)
+          .append(' ').append(PROTOCOLS[random.nextInt(PROTOCOLS.length)])
+          .append(' ').append(1 + random.nextInt(100))
+          .append(' ').append(40 + random.nextInt(100000))
+          .append(' ').append(start)
+          .append(' ').append(start + random.nextInt(120))
+          .append(random.nextInt(10) == 0 ? " REJECT OK\n" : " ACCEPT OK\n");
+      byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+      out.write(bytes);
+      written += bytes.length;
+    }
+    return written;
+  }
+}
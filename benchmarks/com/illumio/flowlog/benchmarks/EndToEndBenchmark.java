@@ -0,0 +1,69 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.processor.FlowLogProcessor;
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole run, parsing a generated multi-GB flow log and writing the output, for each
+ * parser mode and thread count. The input is generated once and cached in the temp directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class EndToEndBenchmark {
+
+  @Param({"2048"})
+  public int sizeMb;
+
+  @Param({"lines", "mapped"})
+  public String parser;
+
+  @Param({"1", "0"})
+  public String threads;
+
+  private Path flowLog;
+  private Path output;
+  private CustomProperties properties;
+
+  @Setup
+  public void setUp() throws Throwable {
+    flowLog = BenchmarkSupport.generatedFile(sizeMb);
+    output = Files.createTempFile("flowlog-end-to-end", ".txt");
+    properties = new CustomProperties();
+    properties.setProperty(Constants.FLOW_LOG_PARSER, parser);
+    properties.setProperty(Constants.FLOW_LOG_THREADS, threads);
+    properties.setProperty(Constants.FLOW_LOG_FOLLOW, "false");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(output);
+  }
+
+  @Benchmark
+  public void processAndGenerateOutput() throws Throwable {
+    CountingOrchestrate countingOrchestrate = BenchmarkSupport.newOrchestrate();
+    new FlowLogProcessor(flowLog.toString(), countingOrchestrate, properties)
+        .generateOutput(output.toString());
+  }
+}
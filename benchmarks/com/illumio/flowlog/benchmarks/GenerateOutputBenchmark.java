@@ -0,0 +1,58 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.processor.FlowLogProcessor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FlowLogProcessor#generateOutput(String)} for a few and for many distinct
+ * port/protocol keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerateOutputBenchmark {
+
+  @Param({"1000", "65536"})
+  public int distinctPorts;
+
+  private Path flowLog;
+  private Path output;
+  private FlowLogProcessor flowLogProcessor;
+
+  @Setup
+  public void setUp() throws Throwable {
+    flowLog = Files.createTempFile("flowlog-output-benchmark", ".log");
+    output = Files.createTempFile("flowlog-output-benchmark", ".txt");
+    Files.write(flowLog, BenchmarkSupport.generate(500000, distinctPorts, 5));
+    flowLogProcessor = new FlowLogProcessor(flowLog.toString(), BenchmarkSupport.newOrchestrate());
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(flowLog);
+    Files.deleteIfExists(output);
+  }
+
+  @Benchmark
+  public void generateOutput() throws MissingMandatoryFileException {
+    flowLogProcessor.generateOutput(output.toString());
+  }
+}
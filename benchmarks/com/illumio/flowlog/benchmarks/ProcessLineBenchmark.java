@@ -0,0 +1,59 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CountingOrchestrate#processLine(int, int)}, the tagging and port/protocol
+ * counting of one already parsed record, for small and large key spaces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessLineBenchmark {
+
+  private static final int RECORDS = 4096;
+
+  @Param({"64", "65536"})
+  public int distinctPorts;
+
+  private int[] ports;
+  private int[] protocols;
+  private int next;
+  private CountingOrchestrate countingOrchestrate;
+
+  @Setup
+  public void setUp() throws Throwable {
+    Random random = new Random(7);
+    ports = new int[RECORDS];
+    protocols = new int[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      ports[i] = random.nextInt(distinctPorts);
+      protocols[i] = random.nextBoolean() ? 6 : 17;
+    }
+    countingOrchestrate = BenchmarkSupport.newOrchestrate();
+  }
+
+  @Benchmark
+  public void processLine() throws InvalidProtocolNumberException {
+    int i = next;
+    next = (i + 1) & (RECORDS - 1);
+    countingOrchestrate.processLine(ports[i], protocols[i]);
+  }
+}
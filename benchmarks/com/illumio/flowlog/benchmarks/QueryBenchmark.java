@@ -0,0 +1,84 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.query.CountsIndex;
+import com.illumio.flowlog.query.PairSelection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the queries of a {@link CountsIndex} over every port with a number of protocols,
+ * about two million port/protocol pairs with all of them, and building the index itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+  private static final int PORTS = 65536;
+
+  @Param({"4", "32"})
+  public int protocols;
+
+  private CountingOrchestrate counts;
+  private CountsIndex index;
+  private int port;
+
+  @Setup
+  public void setUp() throws Throwable {
+    counts = BenchmarkSupport.newOrchestrate();
+    for (int protocol = 0; protocol < protocols; protocol++) {
+      for (int port = 0; port < PORTS; port++) {
+        //counts vary, so the orders by count are not the orders by key
+        for (int record = 0; record <= (port * 31 + protocol) % 7; record++) {
+          counts.processLine(port, protocol);
+        }
+      }
+    }
+    index = CountsIndex.build(counts);
+  }
+
+  @Benchmark
+  public long pairCount() {
+    port = (port + 7919) & (PORTS - 1);
+    return index.getCount(port, 6);
+  }
+
+  @Benchmark
+  public long tagCount() {
+    return index.getTagCount("sv_P1");
+  }
+
+  @Benchmark
+  public long topOfProtocol() {
+    PairSelection top = index.topOfProtocol(1, 10);
+    return top.getCount(0) + top.getPort(top.size() - 1);
+  }
+
+  @Benchmark
+  public long topUntagged() {
+    PairSelection top = index.topOfTag("Untagged", 10);
+    return top.getCount(0) + top.getPort(top.size() - 1);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5)
+  public CountsIndex build() {
+    return CountsIndex.build(counts);
+  }
+}
@@ -0,0 +1,84 @@
+package com.illumio.flowlog.benchmarks;
+
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving the tag of a port and protocol, for pairs that are in the lookup table
+ * and pairs that are not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagLookupBenchmark {
+
+  private static final int PAIRS = 1024;
+  private static final int[] PROTOCOLS = {1, 6, 17};
+
+  @Param({"hit", "miss"})
+  public String lookup;
+
+  private LookupTableLoader lookupTableLoader;
+  private int[] ports;
+  private int[] protocols;
+  private String[] protocolNames;
+  private int next;
+
+  @Setup
+  public void setUp() throws Throwable {
+    lookupTableLoader = BenchmarkSupport.lookupTable();
+    boolean hit = "hit".equals(lookup);
+    int[] candidatePorts = new int[PAIRS];
+    int[] candidateProtocols = new int[PAIRS];
+    int found = 0;
+    for (int protocol : PROTOCOLS) {
+      for (int port = 0; port < 65536 && found < PAIRS; port++) {
+        boolean tagged = lookupTableLoader.getTagId(port, protocol) != LookupTableLoader.UNTAGGED_ID;
+        if (tagged == hit) {
+          candidatePorts[found] = port;
+          candidateProtocols[found] = protocol;
+          found++;
+        }
+      }
+    }
+    Random random = new Random(3);
+    ports = new int[PAIRS];
+    protocols = new int[PAIRS];
+    protocolNames = new String[PAIRS];
+    for (int i = 0; i < PAIRS; i++) {
+      int pick = random.nextInt(found);
+      ports[i] = candidatePorts[pick];
+      protocols[i] = candidateProtocols[pick];
+      protocolNames[i] = protocols[i] == 1 ? "icmp" : protocols[i] == 6 ? "tcp" : "udp";
+    }
+  }
+
+  @Benchmark
+  public int tagId() {
+    int i = next;
+    next = (i + 1) & (PAIRS - 1);
+    return lookupTableLoader.getTagId(ports[i], protocols[i]);
+  }
+
+  @Benchmark
+  public String tagByName() {
+    int i = next;
+    next = (i + 1) & (PAIRS - 1);
+    return lookupTableLoader.getTag(ports[i], protocolNames[i]);
+  }
+}
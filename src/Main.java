@@ -1,14 +1,22 @@
 
+import com.illumio.flowlog.aggregation.AggregationSpec;
+import com.illumio.flowlog.coordinator.ShardCoordinator;
 import com.illumio.flowlog.exceptions.MissingFileException;
 import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.format.FlowLogFormat;
 import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
 import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.OutputFormat;
+import com.illumio.flowlog.output.RowOrder;
 import com.illumio.flowlog.processor.FlowLogProcessor;
+import com.illumio.flowlog.server.IngestServer;
 import com.illumio.flowlog.setup.CustomProperties;
 import com.illumio.flowlog.utilities.Constants;
 import com.illumio.flowlog.fileloaders.LookupTableLoader;
 import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
-import java.util.Properties;
+import com.illumio.flowlog.window.TimeWindows;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 /**
@@ -21,35 +29,142 @@ public class Main {
   static Logger logger = Logger.getLogger(Main.class.getName());
 
   /** A Properties object holding the configuration settings for the application. */
-  static Properties properties;
+  static CustomProperties properties;
   /**
    * The main method initializes and executes the flow log processing workflow.
    * It loads properties, creates required components, and orchestrates the log processing.
    *
-   * @param args Command-line arguments (not used in this application).
+   * @param args Command-line arguments: --server keeps counting flow logs sent over HTTP, worker
+   *     processes of the coordinator get --worker flowLog start end partial errorLog.
    * @throws MissingMandatoryFileException Thrown if a required mandatory file like flow file is missing
    * and programme is stopped.
    */
   public static void main(String[] args) throws MissingMandatoryFileException {
     logger.info("Loading Properties from properties file");
     properties = new CustomProperties();
+    if (args.length > 0 && ShardCoordinator.WORKER_ARGUMENT.equals(args[0])) {
+      runWorker(args);
+      return;
+    }
+    logger.info("Registering pipeline metrics with JMX");
+    PipelineMetrics metrics = PipelineMetrics.getInstance();
+    metrics.register();
     logger.info("Setting up Global Error Logging");
-    ErrorLogger errorLogger = ErrorLogger.getInstance(properties.getProperty(Constants.ERROR_FILE_PATH));
+    ErrorLogger errorLogger = ErrorLogger.getInstance(properties.getProperty(Constants.ERROR_FILE_PATH), properties);
+    logger.info("Compiling flow log format");
+    FlowLogFormat.getInstance(properties);
     logger.info("Loading protocol numbers and name information");
     ProtocolNumberLoader protocolNumberLoader = ProtocolNumberLoader.getInstance(properties.getProperty(Constants.PROTOCOL_NUMBER_PATH));
     LookupTableLoader lookupTableLoader = null;
     try {
       logger.info("Loading Lookup Table");
-      lookupTableLoader = LookupTableLoader.getInstance(properties.getProperty(Constants.LOOKUP_TABLE_PATH));
+      lookupTableLoader = LookupTableLoader.getInstance(properties.getProperty(Constants.LOOKUP_TABLE_PATH),
+          properties.getProperty(Constants.LOOKUP_TABLE_INDEX_PATH, ""), protocolNumberLoader);
+      int reloadSeconds = properties.getInt(Constants.LOOKUP_TABLE_RELOAD_SECONDS, 0);
+      if (reloadSeconds > 0) {
+        lookupTableLoader.startReloading(reloadSeconds);
+      }
     } catch (MissingFileException e) {
       errorLogger.logError("Missing Lookup table, can calculate counts of port protocol combinations");
     }
     logger.info("Setting up orchestrator");
-    CountingOrchestrate countingOrchestrate = new CountingOrchestrate(lookupTableLoader,protocolNumberLoader);
+    CountingOrchestrate countingOrchestrate = new CountingOrchestrate(lookupTableLoader,protocolNumberLoader,
+        AggregationSpec.fromProperties(properties));
+    countingOrchestrate.setTimeWindows(
+        TimeWindows.fromProperties(properties, lookupTableLoader, protocolNumberLoader));
+    metrics.setDistinctKeys(countingOrchestrate::getDistinctKeys);
+    if (args.length > 0 && IngestServer.SERVER_ARGUMENT.equals(args[0])) {
+      runServer(countingOrchestrate, lookupTableLoader, errorLogger);
+      return;
+    }
     logger.info("Calling flow log processor");
-    FlowLogProcessor flowLogProcessor = new FlowLogProcessor(properties.getProperty(Constants.FLOW_LOG_PATH),countingOrchestrate);
+    FlowLogProcessor flowLogProcessor = new FlowLogProcessor(properties.getProperty(Constants.FLOW_LOG_PATH),countingOrchestrate,properties);
     logger.info("Requesting for output");
     flowLogProcessor.generateOutput(properties.getProperty(Constants.OUTPUT_FILE_PATH));
+    String partialPath = properties.getProperty(Constants.PARTIAL_OUTPUT_PATH, "").trim();
+    if (!partialPath.isEmpty()) {
+      logger.info("Writing partial aggregate");
+      flowLogProcessor.generatePartial(partialPath);
+    }
+    if (lookupTableLoader != null) {
+      lookupTableLoader.stopReloading();
+      logger.info("Records counted per lookup table version: "
+          + countingOrchestrate.getRecordsByLookupVersion());
+    }
+    logger.info("Flushing error log");
+    errorLogger.close();
+    logger.info(metrics.summary());
+  }
+
+  /**
+   * Starts the ingestion server with the loaders and orchestrator kept resident. The server runs
+   * until the JVM shuts down, the counts are then written to the output file like a batch run.
+   *
+   * @param countingOrchestrate the orchestrator counting every ingested record
+   * @param lookupTableLoader the lookup table, reloaded by its own thread if configured
+   * @param errorLogger the error log, flushed on shutdown
+   * @throws MissingMandatoryFileException Thrown if the server port can not be bound.
+   */
+  static void runServer(CountingOrchestrate countingOrchestrate, LookupTableLoader lookupTableLoader,
+      ErrorLogger errorLogger) throws MissingMandatoryFileException {
+    String outputPath = properties.getProperty(Constants.OUTPUT_FILE_PATH);
+    IngestServer server = new IngestServer(countingOrchestrate, OutputFormat.fromProperties(properties),
+        RowOrder.fromProperties(properties));
+    try {
+      server.start(properties.getInt(Constants.SERVER_PORT, 8470));
+    } catch (IOException e) {
+      errorLogger.logError("Not able to start the ingestion server: " + e.getMessage());
+      throw new MissingMandatoryFileException("Can not bind server port: " + e.getMessage());
+    }
+    errorLogger.closeOnlyExplicitly();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.stop(10);
+      if (countingOrchestrate.getTimeWindows() != null) {
+        countingOrchestrate.getTimeWindows().close();
+      }
+      try {
+        server.writeOutput(outputPath);
+      } catch (MissingMandatoryFileException e) {
+        logger.warning("Not able to write output to " + outputPath);
+      }
+      if (lookupTableLoader != null) {
+        lookupTableLoader.stopReloading();
+        logger.info("Records counted per lookup table version: "
+            + countingOrchestrate.getRecordsByLookupVersion());
+      }
+      errorLogger.close();
+      logger.info(PipelineMetrics.getInstance().summary());
+    }, "flow-log-server-shutdown"));
+  }
+
+  /**
+   * Counts one shard of a flow log and writes its counts as a partial aggregate, for a
+   * coordinator running in another process.
+   *
+   * @param args --worker flowLog start end partial errorLog
+   * @throws MissingMandatoryFileException Thrown if the shard can not be read or the partial
+   * can not be written.
+   */
+  static void runWorker(String[] args) throws MissingMandatoryFileException {
+    if (args.length != 6) {
+      throw new MissingMandatoryFileException("Usage: Main --worker <flowLog> <start> <end> <partial> <errorLog>");
+    }
+    ErrorLogger errorLogger = ErrorLogger.getInstance(args[5], properties);
+    FlowLogFormat.getInstance(properties);
+    ProtocolNumberLoader protocolNumberLoader = ProtocolNumberLoader.getInstance(properties.getProperty(Constants.PROTOCOL_NUMBER_PATH));
+    LookupTableLoader lookupTableLoader = null;
+    try {
+      lookupTableLoader = LookupTableLoader.getInstance(properties.getProperty(Constants.LOOKUP_TABLE_PATH),
+          properties.getProperty(Constants.LOOKUP_TABLE_INDEX_PATH, ""), protocolNumberLoader);
+    } catch (MissingFileException e) {
+      errorLogger.logError("Missing Lookup table, can calculate counts of port protocol combinations");
+    }
+    CountingOrchestrate countingOrchestrate = new CountingOrchestrate(lookupTableLoader,protocolNumberLoader,
+        AggregationSpec.fromProperties(properties));
+    FlowLogProcessor flowLogProcessor = new FlowLogProcessor(args[1], Long.parseLong(args[2]),
+        Long.parseLong(args[3]), countingOrchestrate);
+    flowLogProcessor.generatePartial(args[4]);
+    errorLogger.close();
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+import com.illumio.flowlog.aggregation.AggregationSpec;
+import com.illumio.flowlog.exceptions.MissingFileException;
+import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.OutputFormat;
+import com.illumio.flowlog.output.OutputWriter;
+import com.illumio.flowlog.output.PartialAggregateFile;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.processor.FlowLogScheduler;
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The Merge class is the entry point for combining partial aggregate files, written by runs with
+ * partial.output.path set, into the output file.
+ * Loaders and output path come from the same properties file as {@link Main}.
+ */
+
+public class Merge {
+
+  static Logger logger = Logger.getLogger(Merge.class.getName());
+
+  /**
+   * Merges the partial aggregates one at a time into a single set of counts and writes the
+   * output file.
+   *
+   * @param args the partial aggregate files, directories or glob patterns.
+   * @throws MissingMandatoryFileException Thrown if a partial is missing or damaged, or the output
+   * can not be written.
+   */
+  public static void main(String[] args) throws MissingMandatoryFileException {
+    if (args.length == 0) {
+      throw new MissingMandatoryFileException("Usage: java Merge <partial>...");
+    }
+    logger.info("Loading Properties from properties file");
+    CustomProperties properties = new CustomProperties();
+    ErrorLogger errorLogger = ErrorLogger.getInstance(properties.getProperty(Constants.ERROR_FILE_PATH), properties);
+    ProtocolNumberLoader protocolNumberLoader = ProtocolNumberLoader.getInstance(properties.getProperty(Constants.PROTOCOL_NUMBER_PATH));
+    LookupTableLoader lookupTableLoader = null;
+    try {
+      lookupTableLoader = LookupTableLoader.getInstance(properties.getProperty(Constants.LOOKUP_TABLE_PATH),
+          properties.getProperty(Constants.LOOKUP_TABLE_INDEX_PATH, ""), protocolNumberLoader);
+    } catch (MissingFileException e) {
+      errorLogger.logError("Missing Lookup table, merging only port protocol combinations");
+    }
+    CountingOrchestrate countingOrchestrate = new CountingOrchestrate(lookupTableLoader, protocolNumberLoader,
+        AggregationSpec.fromProperties(properties));
+    List<Path> partials;
+    try {
+      partials = FlowLogScheduler.resolve(Arrays.asList(args));
+    } catch (IOException e) {
+      throw new MissingMandatoryFileException("Can not read partials: " + e.getMessage());
+    }
+    for (Path partial : partials) {
+      try {
+        PartialAggregateFile.mergeInto(partial, countingOrchestrate);
+        logger.info("Merged partial aggregate " + partial);
+      } catch (IOException e) {
+        errorLogger.logError("Not able to merge partial aggregate " + partial + ": " + e.getMessage());
+        errorLogger.close();
+        throw new MissingMandatoryFileException("Can not merge partial " + partial);
+      }
+    }
+    logger.info("Merged " + partials.size() + " partial aggregates");
+    new OutputWriter(countingOrchestrate, OutputFormat.fromProperties(properties),
+        RowOrder.fromProperties(properties)).write(properties.getProperty(Constants.OUTPUT_FILE_PATH));
+    errorLogger.close();
+  }
+}
@@ -0,0 +1,146 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.utilities.HyperLogLog;
+
+/**
+ * Aggregate lists the values computed per group of an aggregation: the number of records, sums
+ * of packets and bytes, the earliest and latest start and end timestamps, and the estimated
+ * number of distinct source addresses.
+ *
+ * <p>
+ * The distinct count is a {@link HyperLogLog} sketch taking {@link #width(int)} longs of the
+ * group instead of one; the {@link Aggregation} adds records to it and estimates it on output.
+ * </p>
+ */
+public enum Aggregate {
+  COUNT("count", 0),
+  SUM_PACKETS("sum_packets", Field.PACKETS.bit()),
+  SUM_BYTES("sum_bytes", Field.BYTES.bit()),
+  MIN_START("min_start", Field.START.bit()),
+  MAX_START("max_start", Field.START.bit()),
+  MIN_END("min_end", Field.END.bit()),
+  MAX_END("max_end", Field.END.bit()),
+  DISTINCT_SRCADDR("distinct_srcaddr", Field.SRCADDR.bit());
+
+  private final String configName;
+  private final int fieldMask;
+
+  Aggregate(String configName, int fieldMask) {
+    this.configName = configName;
+    this.fieldMask = fieldMask;
+  }
+
+  /**
+   * @param name the name used in the properties
+   * @return the aggregate with that name
+   * @throws IllegalArgumentException if there is no such aggregate
+   */
+  public static Aggregate fromConfigName(String name) {
+    for (Aggregate aggregate : values()) {
+      if (aggregate.configName.equals(name)) {
+        return aggregate;
+      }
+    }
+    throw new IllegalArgumentException("Unknown aggregate " + name);
+  }
+
+  /**
+   * @return the name used in the properties and output header
+   */
+  public String getConfigName() {
+    return configName;
+  }
+
+  /**
+   * @return the bits of the fields the aggregate reads
+   */
+  public int fieldMask() {
+    return fieldMask;
+  }
+
+  /**
+   * @return whether the aggregate is a sketch of several longs rather than a single value
+   */
+  public boolean isSketch() {
+    return this == DISTINCT_SRCADDR;
+  }
+
+  /**
+   * @param precision the precision of the sketches of the aggregation
+   * @return the number of longs the aggregate takes per group
+   */
+  public int width(int precision) {
+    return isSketch() ? HyperLogLog.words(precision) : 1;
+  }
+
+  /**
+   * @return the value of a group before its first record, for a sketch each of its longs
+   */
+  public long initial() {
+    switch (this) {
+      case MIN_START:
+      case MIN_END:
+        return Long.MAX_VALUE;
+      case MAX_START:
+      case MAX_END:
+        return Long.MIN_VALUE;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @param current the value of the group so far
+   * @param record the record added to the group
+   * @return the value of the group including the record
+   * @throws IllegalStateException for a sketch, which is updated through {@link HyperLogLog}
+   */
+  public long update(long current, FlowRecord record) {
+    switch (this) {
+      case COUNT:
+        return current + 1;
+      case SUM_PACKETS:
+        return current + record.get(Field.PACKETS);
+      case SUM_BYTES:
+        return current + record.get(Field.BYTES);
+      case MIN_START:
+        return Math.min(current, record.get(Field.START));
+      case MAX_START:
+        return Math.max(current, record.get(Field.START));
+      case MIN_END:
+        return Math.min(current, record.get(Field.END));
+      case MAX_END:
+        return Math.max(current, record.get(Field.END));
+      default:
+        throw new IllegalStateException(this + " is a sketch");
+    }
+  }
+
+  /**
+   * @param record a record holding the field of a sketch
+   * @return the value the sketch counts the distinct occurrences of
+   */
+  public long sketchValue(FlowRecord record) {
+    return record.get(Field.SRCADDR);
+  }
+
+  /**
+   * @param left the value of a group in one part of the flow logs, for a sketch one of its longs
+   * @param right the value of the same group in another part
+   * @return the value of the group over both parts
+   */
+  public long combine(long left, long right) {
+    switch (this) {
+      case MIN_START:
+      case MIN_END:
+        return Math.min(left, right);
+      case MAX_START:
+      case MAX_END:
+        return Math.max(left, right);
+      case DISTINCT_SRCADDR:
+        return HyperLogLog.combine(left, right);
+      default:
+        return left + right;
+    }
+  }
+}
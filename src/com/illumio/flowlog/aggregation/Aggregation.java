@@ -0,0 +1,365 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.output.RowSink;
+import com.illumio.flowlog.trackers.interfaces.RecordTracker;
+import com.illumio.flowlog.trackers.interfaces.Tracker;
+import com.illumio.flowlog.utilities.HyperLogLog;
+import com.illumio.flowlog.utilities.IndexSort;
+import com.illumio.flowlog.utilities.LongAggregateMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregation groups flow log records by the dimensions of an {@link AggregationSpec} and computes
+ * its aggregates per group, in the same single pass over the flow logs as every other aggregation.
+ *
+ * <p>
+ * The dimension values of a record are packed into one primitive long key, each dimension taking
+ * its fixed number of bits, and the aggregates of a group are stored next to each other in a
+ * {@link LongAggregateMap}. Keys of at most 16 bits, such as a tag id, index a dense table
+ * directly. A distinct count takes the longs of its {@link HyperLogLog} sketch instead of one.
+ * Adding a record does not allocate. Records lacking a field the aggregation needs are skipped.
+ * Names of tags and protocols are only resolved when the groups are retrieved.
+ * </p>
+ */
+public class Aggregation implements RecordTracker {
+
+  private static final int EXPECTED_KEYS = 1024;
+  private static final int MAX_KEY_BITS = 63;
+  private static final int MAX_DENSE_BITS = 16;
+
+  private final AggregationSpec spec;
+  private final KeyLayout keyLayout;
+  private final Aggregate[] aggregates;
+  private final int[] offsets;
+  //index of the count aggregate, -1 if it is not computed
+  private final int countAggregate;
+  private final Aggregate[] words;
+  private final int precision;
+  private final int fieldMask;
+  private final LongAggregateMap groups;
+  private final FlowRecord portProtocolRecord = new FlowRecord();
+
+  /**
+   * Constructs an Aggregation.
+   *
+   * @param spec the declaration of the aggregation
+   * @param lookupTableLoader the lookup table, only needed when grouping by tag
+   * @param protocolNumberLoader the protocol names used in the output
+   * @throws IllegalArgumentException if grouping by tag without a lookup table or if the keys do
+   *     not fit in 63 bits
+   */
+  public Aggregation(AggregationSpec spec, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader) {
+    this.spec = spec;
+    this.keyLayout = new KeyLayout(spec, lookupTableLoader, protocolNumberLoader, MAX_KEY_BITS);
+    this.aggregates = spec.getAggregates().toArray(new Aggregate[0]);
+    this.precision = spec.getPrecision();
+    this.offsets = new int[aggregates.length];
+    List<Aggregate> wordList = new ArrayList<>();
+    int mask = keyLayout.fieldMask();
+    for (int i = 0; i < aggregates.length; i++) {
+      offsets[i] = wordList.size();
+      for (int word = 0; word < aggregates[i].width(precision); word++) {
+        wordList.add(aggregates[i]);
+      }
+      mask |= aggregates[i].fieldMask();
+    }
+    this.words = wordList.toArray(new Aggregate[0]);
+    this.countAggregate = spec.getAggregates().indexOf(Aggregate.COUNT);
+    this.fieldMask = mask;
+    long[] initialValues = new long[words.length];
+    for (int word = 0; word < words.length; word++) {
+      initialValues[word] = words[word].initial();
+    }
+    this.groups = keyLayout.keyBits() <= MAX_DENSE_BITS
+        ? LongAggregateMap.dense(Math.min(1 << keyLayout.keyBits(), EXPECTED_KEYS), initialValues)
+        : LongAggregateMap.hashed(EXPECTED_KEYS, initialValues);
+  }
+
+  /**
+   * @return the declaration of this aggregation
+   */
+  @Override
+  public AggregationSpec getSpec() {
+    return spec;
+  }
+
+  /**
+   * @return the bits of the fields a record needs to be added, see {@link Field#bit()}
+   */
+  @Override
+  public int fieldMask() {
+    return fieldMask;
+  }
+
+  /**
+   * Adds a record with only destination port and protocol.
+   *
+   * @param port the destination port
+   * @param protocol the protocol number
+   * @throws InvalidProtocolNumberException if the protocol number is not between 0 and 255
+   */
+  public void add(Integer port, Integer protocol) throws InvalidProtocolNumberException {
+    add(port.intValue(), protocol.intValue());
+  }
+
+  /**
+   * Adds a record with only destination port and protocol, without boxing.
+   *
+   * @param port the destination port
+   * @param protocol the protocol number
+   * @throws InvalidProtocolNumberException if the protocol number is not between 0 and 255
+   */
+  public void add(int port, int protocol) throws InvalidProtocolNumberException {
+    if (protocol < 0 || protocol > 255) {
+      throw new InvalidProtocolNumberException("Protocol numbers between 0 to 255 are valid");
+    }
+    portProtocolRecord.clear();
+    portProtocolRecord.set(Field.DSTPORT, port);
+    portProtocolRecord.set(Field.PROTOCOL, protocol);
+    add(portProtocolRecord);
+  }
+
+  /**
+   * Adds a record to its group, unless it lacks a field this aggregation needs. The protocol of
+   * the record must be between 0 and 255.
+   *
+   * @param record the parsed record
+   */
+  @Override
+  public void add(FlowRecord record) {
+    if (!record.has(fieldMask)) {
+      return;
+    }
+    int base = groups.slot(keyLayout.pack(record));
+    long[] values = groups.values();
+    for (int i = 0; i < aggregates.length; i++) {
+      int index = base + offsets[i];
+      if (aggregates[i].isSketch()) {
+        HyperLogLog.add(values, index, precision, aggregates[i].sketchValue(record));
+      } else {
+        values[index] = aggregates[i].update(values[index], record);
+      }
+    }
+  }
+
+  /**
+   * Adds one to the count of a group given by its packed key, without reading a record. Only for
+   * aggregations whose single aggregate is the count, which lets the built-in tag and
+   * port/protocol counts skip the field checks, key packing and aggregate loop of
+   * {@link #add(FlowRecord)}.
+   *
+   * @param key the packed key of the group
+   */
+  protected final void increment(long key) {
+    groups.increment(key);
+  }
+
+  /**
+   * Adds the groups of another Aggregation with the same declaration to this one.
+   *
+   * @param other the aggregation whose groups are added
+   */
+  public void merge(Tracker<Integer, String> other) {
+    if (!(other instanceof Aggregation) || !((Aggregation) other).spec.getName().equals(spec.getName())) {
+      throw new IllegalArgumentException("Can only merge the same aggregation " + spec.getName());
+    }
+    LongAggregateMap otherGroups = ((Aggregation) other).groups;
+    for (int slot = 0; slot < otherGroups.capacity(); slot++) {
+      if (otherGroups.isUsed(slot)) {
+        int base = groups.slot(otherGroups.keyAt(slot));
+        long[] values = groups.values();
+        for (int word = 0; word < words.length; word++) {
+          values[base + word] = words[word].combine(values[base + word],
+              otherGroups.valueAt(slot, word));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of groups
+   */
+  public int size() {
+    return groups.size();
+  }
+
+  /**
+   * Writes the layout, the number of groups and every group with its dimension values and
+   * aggregates, sketches as their longs. Tags are written by name.
+   *
+   * @param out the output receiving the groups
+   * @throws IOException if the output can not be written
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    keyLayout.writeLayout(out, spec.getAggregates(), words.length);
+    out.writeInt(groups.size());
+    for (int slot = 0; slot < groups.capacity(); slot++) {
+      if (groups.isUsed(slot)) {
+        keyLayout.write(out, groups.keyAt(slot));
+        for (int word = 0; word < words.length; word++) {
+          out.writeLong(groups.valueAt(slot, word));
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the groups written by {@link #writeTo(DataOutput)}, one at a time.
+   *
+   * @param in the input holding the groups
+   * @throws IOException if the input can not be read, has another layout or names an unknown tag
+   */
+  public void readFrom(DataInput in) throws IOException {
+    keyLayout.checkLayout(in, spec.getAggregates(), words.length);
+    int count = in.readInt();
+    for (int group = 0; group < count; group++) {
+      int base = groups.slot(keyLayout.read(in));
+      long[] values = groups.values();
+      for (int word = 0; word < words.length; word++) {
+        values[base + word] = words[word].combine(values[base + word], in.readLong());
+      }
+    }
+  }
+
+  /**
+   * Skips the groups of an aggregation written by {@link #writeTo(DataOutput)}, which is not
+   * declared in this run.
+   *
+   * @param in the input holding the groups
+   * @throws IOException if the input can not be read
+   */
+  public static void skip(DataInput in) throws IOException {
+    SerializedLayout layout = SerializedLayout.read(in);
+    int count = in.readInt();
+    for (int group = 0; group < count; group++) {
+      layout.skipKey(in);
+      for (int word = 0; word < layout.getValueWords(); word++) {
+        in.readLong();
+      }
+    }
+  }
+
+  /**
+   * Hands every group to a sink as its dimension values and aggregates, distinct counts as their
+   * estimates. Groups are taken straight from the table, ordered through an array of their slots.
+   *
+   * @param sink the sink receiving the rows
+   * @param order the order of the groups, by count uses the count aggregate or the first one
+   * @throws IOException if the sink fails
+   */
+  @Override
+  public void writeRows(RowSink sink, RowOrder order) throws IOException {
+    long[] values = groups.values();
+    for (int slot : orderedSlots(order)) {
+      sink.beginRow();
+      keyLayout.encode(groups.keyAt(slot), sink);
+      for (int i = 0; i < aggregates.length; i++) {
+        sink.number(aggregateValue(values, slot, i));
+      }
+      sink.endRow();
+    }
+  }
+
+  /**
+   * Copies every group into primitive columns: one per dimension holding its values, such as tag
+   * ids and protocol numbers, followed by one per aggregate, distinct counts as their estimates.
+   * Row i of every column belongs to the same group, groups are in no particular order.
+   *
+   * @return the columns, each as long as there are groups
+   */
+  public long[][] toColumns() {
+    int dimensions = spec.getDimensions().size();
+    long[][] columns = new long[dimensions + aggregates.length][groups.size()];
+    long[] values = groups.values();
+    int row = 0;
+    for (int slot = 0; slot < groups.capacity(); slot++) {
+      if (groups.isUsed(slot)) {
+        long[] dimensionValues = keyLayout.unpack(groups.keyAt(slot));
+        for (int i = 0; i < dimensions; i++) {
+          columns[i][row] = dimensionValues[i];
+        }
+        for (int i = 0; i < aggregates.length; i++) {
+          columns[dimensions + i][row] = aggregateValue(values, slot, i);
+        }
+        row++;
+      }
+    }
+    return columns;
+  }
+
+  private int[] orderedSlots(RowOrder order) {
+    int[] slots = new int[groups.size()];
+    int used = 0;
+    for (int slot = 0; slot < groups.capacity(); slot++) {
+      if (groups.isUsed(slot)) {
+        slots[used++] = slot;
+      }
+    }
+    if (order == RowOrder.NONE) {
+      return slots;
+    }
+    long[] keys = new long[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      keys[i] = groups.keyAt(slots[i]);
+    }
+    long[] primary = keys;
+    if (order == RowOrder.COUNT) {
+      int sortAggregate = Math.max(0, spec.getAggregates().indexOf(Aggregate.COUNT));
+      primary = new long[slots.length];
+      for (int i = 0; i < slots.length; i++) {
+        primary[i] = aggregateValue(groups.values(), slots[i], sortAggregate);
+      }
+    }
+    int[] sorted = IndexSort.sort(primary, order == RowOrder.COUNT, keys, slots.length);
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = slots[sorted[i]];
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the value of an aggregate of a group, a distinct count as its estimate, which is
+   *     never more than the records of the group when those are counted too
+   */
+  private long aggregateValue(long[] values, int slot, int aggregate) {
+    int index = slot * words.length + offsets[aggregate];
+    if (!aggregates[aggregate].isSketch()) {
+      return values[index];
+    }
+    long estimate = HyperLogLog.estimate(values, index, precision);
+    return countAggregate < 0 ? estimate
+        : Math.min(estimate, values[slot * words.length + offsets[countAggregate]]);
+  }
+
+  /**
+   * Retrieves every group as a line of its dimension values and aggregates, distinct counts as
+   * their estimates.
+   *
+   * @return a list of lines in the format "key,...,aggregate,..."
+   */
+  public List<String> get() {
+    List<String> lines = new ArrayList<>(groups.size());
+    StringBuilder line = new StringBuilder();
+    for (int slot = 0; slot < groups.capacity(); slot++) {
+      if (groups.isUsed(slot)) {
+        line.setLength(0);
+        keyLayout.format(groups.keyAt(slot), line);
+        for (int i = 0; i < aggregates.length; i++) {
+          line.append(aggregateValue(groups.values(), slot, i)).append(',');
+        }
+        line.setLength(line.length() - 1);
+        lines.add(line.toString());
+      }
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,229 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import com.illumio.flowlog.utilities.HyperLogLog;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AggregationSpec declares one aggregation: its name, the dimensions it groups by, the aggregates
+ * it computes per group and the header of its section in the output.
+ *
+ * <p>
+ * Besides the two built in aggregations, tag counts and port/protocol counts, any number can be
+ * declared in the properties:
+ * </p>
+ * <pre>
+ * aggregations=bytes_by_tag,rejects_by_port
+ * aggregation.bytes_by_tag.group.by=tag
+ * aggregation.bytes_by_tag.aggregates=count,sum_bytes,sum_packets,min_start,max_end
+ * aggregation.rejects_by_port.group.by=dstport,action
+ * </pre>
+ *
+ * <p>
+ * An aggregation with a {@code top} only counts records and keeps the approximate top groups in
+ * fixed memory, see {@link HeavyHitterTracker}; {@code error} bounds the overcount of every
+ * reported count as a fraction of all records:
+ * </p>
+ * <pre>
+ * aggregation.top_sources.group.by=srcaddr,dstport
+ * aggregation.top_sources.top=20
+ * aggregation.top_sources.error=0.0001
+ * </pre>
+ *
+ * <p>
+ * The {@code distinct_srcaddr} aggregate estimates the distinct source addresses of each group
+ * with a HyperLogLog sketch of {@code 2^precision} one byte registers, {@code precision} being
+ * between 4 and 16 and 10 by default, for an error of about 3%.
+ * </p>
+ */
+public final class AggregationSpec {
+
+  private static final int DEFAULT_PRECISION = 10;
+
+  /** Tag counts, the first section of the output. */
+  public static final AggregationSpec TAGGING = new AggregationSpec(Constants.TAGGING,
+      Collections.singletonList(Dimension.TAG), Collections.singletonList(Aggregate.COUNT),
+      Constants.TAG_COUNT_HEADER);
+
+  /** Port/protocol counts, the second section of the output. */
+  public static final AggregationSpec PORT_PROTOCOL = new AggregationSpec(
+      Constants.PORT_PROTOCOL_COUNT, Arrays.asList(Dimension.DSTPORT, Dimension.PROTOCOL),
+      Collections.singletonList(Aggregate.COUNT), Constants.PORT_PROTOCOL_HEADER);
+
+  private final String name;
+  private final List<Dimension> dimensions;
+  private final List<Aggregate> aggregates;
+  private final String header;
+  private final int top;
+  private final double error;
+  private final int precision;
+
+  /**
+   * Constructs an AggregationSpec.
+   *
+   * @param name the name of the aggregation
+   * @param dimensions the group-by keys, at least one
+   * @param aggregates the values computed per group, at least one
+   * @param header the header line of the output section, including the line feed
+   */
+  public AggregationSpec(String name, List<Dimension> dimensions, List<Aggregate> aggregates,
+      String header) {
+    this(name, dimensions, aggregates, header, 0, 0, DEFAULT_PRECISION);
+  }
+
+  /**
+   * Constructs an AggregationSpec of the approximate top groups.
+   *
+   * @param name the name of the aggregation
+   * @param dimensions the group-by keys, at least one
+   * @param aggregates the values computed per group, at least one
+   * @param header the header line of the output section, including the line feed
+   * @param top the number of groups reported, 0 to compute every group exactly
+   * @param error the largest overcount of a reported count as a fraction of all records, between
+   *     0 and 1 when top is set
+   * @param precision the number of bits selecting a register of the distinct count sketches
+   */
+  public AggregationSpec(String name, List<Dimension> dimensions, List<Aggregate> aggregates,
+      String header, int top, double error, int precision) {
+    if (dimensions.isEmpty() || aggregates.isEmpty()) {
+      throw new IllegalArgumentException("Aggregation " + name
+          + " needs at least one group by key and one aggregate");
+    }
+    this.name = name;
+    this.dimensions = Collections.unmodifiableList(new ArrayList<>(dimensions));
+    this.aggregates = Collections.unmodifiableList(new ArrayList<>(aggregates));
+    this.header = header;
+    this.top = top;
+    this.error = error;
+    this.precision = precision;
+    if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+      throw new IllegalArgumentException("Precision of aggregation " + name + " must be between "
+          + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION);
+    }
+    if (top < 0) {
+      throw new IllegalArgumentException("Aggregation " + name + " reports a negative top");
+    }
+    if (top > 0 && !(error > 0 && error < 1)) {
+      throw new IllegalArgumentException("Error bound of aggregation " + name
+          + " must be between 0 and 1");
+    }
+    if (top > 0 && !this.aggregates.equals(Collections.singletonList(Aggregate.COUNT))) {
+      throw new IllegalArgumentException("Aggregation " + name
+          + " reports top groups, which only counts records");
+    }
+  }
+
+  /**
+   * Reads the aggregations declared in the properties, the built in ones excluded.
+   *
+   * @param properties the application properties
+   * @return the declared aggregations in declaration order
+   * @throws IllegalArgumentException if a declaration names an unknown key or aggregate or has an
+   *     invalid top, error bound or precision
+   */
+  public static List<AggregationSpec> fromProperties(CustomProperties properties) {
+    List<AggregationSpec> specs = new ArrayList<>();
+    for (String name : split(properties.getProperty(Constants.AGGREGATIONS, ""))) {
+      if (name.equals(Constants.TAGGING) || name.equals(Constants.PORT_PROTOCOL_COUNT)) {
+        throw new IllegalArgumentException("Aggregation name " + name + " is reserved");
+      }
+      String prefix = Constants.AGGREGATION_PREFIX + name;
+      List<Dimension> dimensions = new ArrayList<>();
+      for (String key : split(properties.getProperty(prefix + Constants.AGGREGATION_GROUP_BY, ""))) {
+        dimensions.add(Dimension.fromConfigName(key));
+      }
+      List<Aggregate> aggregates = new ArrayList<>();
+      for (String aggregate : split(properties.getProperty(prefix + Constants.AGGREGATION_AGGREGATES,
+          Aggregate.COUNT.getConfigName()))) {
+        aggregates.add(Aggregate.fromConfigName(aggregate));
+      }
+      int top = Integer.parseInt(properties.getProperty(prefix + Constants.AGGREGATION_TOP, "0")
+          .trim());
+      double error = Double.parseDouble(properties.getProperty(prefix + Constants.AGGREGATION_ERROR,
+          "0.001").trim());
+      int precision = Integer.parseInt(properties.getProperty(
+          prefix + Constants.AGGREGATION_PRECISION, String.valueOf(DEFAULT_PRECISION)).trim());
+      specs.add(new AggregationSpec(name, dimensions, aggregates, null, top, top > 0 ? error : 0,
+          precision));
+    }
+    return specs;
+  }
+
+  private static List<String> split(String list) {
+    List<String> items = new ArrayList<>();
+    for (String item : list.split(",")) {
+      if (!item.trim().isEmpty()) {
+        items.add(item.trim().toLowerCase());
+      }
+    }
+    return items;
+  }
+
+  /**
+   * @return the name of the aggregation, the key of its section in the output
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the group-by keys in packing and output order
+   */
+  public List<Dimension> getDimensions() {
+    return dimensions;
+  }
+
+  /**
+   * @return the values computed per group in output order
+   */
+  public List<Aggregate> getAggregates() {
+    return aggregates;
+  }
+
+  /**
+   * @return the number of top groups reported, 0 when every group is computed exactly
+   */
+  public int getTop() {
+    return top;
+  }
+
+  /**
+   * @return the largest overcount of a reported count as a fraction of all records, 0 when every
+   *     group is computed exactly
+   */
+  public double getError() {
+    return error;
+  }
+
+  /**
+   * @return the number of bits selecting a register of the distinct count sketches
+   */
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * @return the header line of the output section, by default the names of keys and aggregates
+   */
+  public String getHeader() {
+    if (header != null) {
+      return header;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Dimension dimension : dimensions) {
+      builder.append(dimension.getConfigName()).append(',');
+    }
+    for (Aggregate aggregate : aggregates) {
+      builder.append(aggregate.getConfigName()).append(',');
+    }
+    if (top > 0) {
+      builder.append(HeavyHitterTracker.ERROR_COLUMN).append(',');
+    }
+    builder.setLength(builder.length() - 1);
+    return builder.append('\n').toString();
+  }
+}
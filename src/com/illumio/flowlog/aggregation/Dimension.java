@@ -0,0 +1,231 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.output.RowSink;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Dimension lists the group-by keys of an aggregation. Every dimension maps a record to a small
+ * non negative number of a fixed bit width, so the dimensions of a group are packed into one
+ * primitive long key.
+ *
+ * <p>
+ * The tag is derived from destination port and protocol through the lookup table and packed as
+ * its tag id, but written as its name so partial counts do not depend on tag id assignment.
+ * </p>
+ */
+public enum Dimension {
+  TAG("tag", Field.DSTPORT.bit() | Field.PROTOCOL.bit()),
+  DSTPORT("dstport", Field.DSTPORT.bit()),
+  SRCPORT("srcport", Field.SRCPORT.bit()),
+  PROTOCOL("protocol", Field.PROTOCOL.bit()),
+  SRCADDR("srcaddr", Field.SRCADDR.bit()),
+  DSTADDR("dstaddr", Field.DSTADDR.bit()),
+  ACTION("action", Field.ACTION.bit());
+
+  private final String configName;
+  private final int fieldMask;
+
+  Dimension(String configName, int fieldMask) {
+    this.configName = configName;
+    this.fieldMask = fieldMask;
+  }
+
+  /**
+   * @param name the name used in the properties
+   * @return the dimension with that name
+   * @throws IllegalArgumentException if there is no such dimension
+   */
+  public static Dimension fromConfigName(String name) {
+    for (Dimension dimension : values()) {
+      if (dimension.configName.equals(name)) {
+        return dimension;
+      }
+    }
+    throw new IllegalArgumentException("Unknown group by key " + name);
+  }
+
+  /**
+   * @return the name used in the properties and output header
+   */
+  public String getConfigName() {
+    return configName;
+  }
+
+  /**
+   * @return the bits of the fields the dimension is computed from
+   */
+  public int fieldMask() {
+    return fieldMask;
+  }
+
+  /**
+   * @param lookupTableLoader the lookup table, needed by the tag dimension
+   * @return the number of bits a value of the dimension takes in a packed key
+   */
+  public int bits(LookupTableLoader lookupTableLoader) {
+    switch (this) {
+      case TAG:
+        //fixed rather than fitted to the tags, so tags added by a reload still fit
+        return LookupTableLoader.TAG_BITS;
+      case PROTOCOL:
+        return 8;
+      case ACTION:
+        return 1;
+      default:
+        return 32;
+    }
+  }
+
+  /**
+   * @param record a record holding the fields of the dimension
+   * @param lookupTableLoader the lookup table, needed by the tag dimension unless the record
+   *     carries the snapshot it is tagged under
+   * @return the value of the dimension, fitting in {@link #bits(LookupTableLoader)} bits
+   */
+  public long value(FlowRecord record, LookupTableLoader lookupTableLoader) {
+    switch (this) {
+      case TAG:
+        LookupTableLoader.Snapshot snapshot = record.getLookupSnapshot();
+        return (snapshot == null ? lookupTableLoader.getSnapshot() : snapshot)
+            .getTagId((int) record.get(Field.DSTPORT), (int) record.get(Field.PROTOCOL));
+      case DSTPORT:
+        return record.get(Field.DSTPORT) & 0xFFFFFFFFL;
+      case SRCPORT:
+        return record.get(Field.SRCPORT) & 0xFFFFFFFFL;
+      case PROTOCOL:
+        return record.get(Field.PROTOCOL);
+      case SRCADDR:
+        return record.get(Field.SRCADDR);
+      case DSTADDR:
+        return record.get(Field.DSTADDR);
+      default:
+        return record.get(Field.ACTION);
+    }
+  }
+
+  /**
+   * Formats a value for the output, tags by name and protocols by keyword where there is one.
+   *
+   * @param value the value of the dimension
+   * @param lookupTableLoader the lookup table, needed by the tag dimension
+   * @param protocolNumberLoader the protocol names
+   * @return the text of the value
+   */
+  public String format(long value, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader) {
+    switch (this) {
+      case TAG:
+        return lookupTableLoader.getTagName((int) value);
+      case DSTPORT:
+      case SRCPORT:
+        return Integer.toString((int) value);
+      case PROTOCOL:
+        try {
+          String name = protocolNumberLoader.getProtocol((int) value);
+          return name.isEmpty() ? String.valueOf(value) : name;
+        } catch (InvalidProtocolNumberException e) {
+          //only valid protocol numbers are ever packed
+          return String.valueOf(value);
+        }
+      case SRCADDR:
+        return Field.SRCADDR.format(value);
+      case DSTADDR:
+        return Field.DSTADDR.format(value);
+      default:
+        return Field.ACTION.format(value);
+    }
+  }
+
+  /**
+   * Hands a value to a row sink, formatted like {@link #format}: ports as numbers, addresses as
+   * addresses and tags, protocols and actions as text, without building a String.
+   *
+   * @param sink the sink receiving the value
+   * @param value the value of the dimension
+   * @param lookupTableLoader the lookup table, needed by the tag dimension
+   * @param protocolNumberLoader the protocol names
+   * @throws IOException if the sink fails
+   */
+  public void encode(RowSink sink, long value, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader) throws IOException {
+    switch (this) {
+      case TAG:
+        sink.string(lookupTableLoader.getTagName((int) value));
+        break;
+      case DSTPORT:
+      case SRCPORT:
+        sink.number((int) value);
+        break;
+      case PROTOCOL:
+        String name = protocolNumberLoader.getKeyword((int) value);
+        if (name == null) {
+          sink.string(value);
+        } else {
+          sink.string(name);
+        }
+        break;
+      case SRCADDR:
+      case DSTADDR:
+        sink.address(value);
+        break;
+      default:
+        sink.string(Field.ACTION.format(value));
+    }
+  }
+
+  /**
+   * Writes a value in a form that does not depend on this load of the lookup table.
+   *
+   * @param out the output
+   * @param value the value of the dimension
+   * @param lookupTableLoader the lookup table, needed by the tag dimension
+   * @throws IOException if the output can not be written
+   */
+  public void write(DataOutput out, long value, LookupTableLoader lookupTableLoader)
+      throws IOException {
+    if (this == TAG) {
+      out.writeUTF(lookupTableLoader.getTagName((int) value));
+    } else {
+      out.writeLong(value);
+    }
+  }
+
+  /**
+   * Reads a value written by {@link #write}.
+   *
+   * @param in the input
+   * @param lookupTableLoader the lookup table, needed by the tag dimension
+   * @return the value of the dimension
+   * @throws IOException if the input can not be read or names a tag the lookup table lacks
+   */
+  public long read(DataInput in, LookupTableLoader lookupTableLoader) throws IOException {
+    if (this != TAG) {
+      return in.readLong();
+    }
+    String tag = in.readUTF();
+    int tagId = lookupTableLoader.findTagId(tag);
+    if (tagId < 0) {
+      throw new IOException("Tag " + tag + " is not in the lookup table");
+    }
+    return tagId;
+  }
+
+  /**
+   * Skips a value written by {@link #write}.
+   *
+   * @param in the input
+   * @throws IOException if the input can not be read
+   */
+  public void skip(DataInput in) throws IOException {
+    if (this == TAG) {
+      in.readUTF();
+    } else {
+      in.readLong();
+    }
+  }
+}
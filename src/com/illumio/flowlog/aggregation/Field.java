@@ -0,0 +1,180 @@
+package com.illumio.flowlog.aggregation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Field lists the flow log fields aggregations can use and parses each of them from the raw
+ * bytes of its column into a long.
+ *
+ * <p>
+ * Addresses are IPv4 addresses as unsigned 32 bit numbers, the action is 0 for ACCEPT and 1 for
+ * REJECT. A column that does not parse, such as the {@code -} of a NODATA record or an IPv6
+ * address, leaves the field missing and the record is skipped by the aggregations needing it.
+ * </p>
+ */
+public enum Field {
+  DSTPORT("dstport"),
+  PROTOCOL("protocol"),
+  SRCPORT("srcport"),
+  SRCADDR("srcaddr"),
+  DSTADDR("dstaddr"),
+  PACKETS("packets"),
+  BYTES("bytes"),
+  START("start"),
+  END("end"),
+  ACTION("action");
+
+  /** Number of fields, the size of the value array of a {@link FlowRecord}. */
+  public static final int COUNT = values().length;
+
+  private static final byte[] ACCEPT = "ACCEPT".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] REJECT = "REJECT".getBytes(StandardCharsets.US_ASCII);
+
+  private final String formatName;
+
+  Field(String formatName) {
+    this.formatName = formatName;
+  }
+
+  /**
+   * @return the name of the field in the flow log format
+   */
+  public String getFormatName() {
+    return formatName;
+  }
+
+  /**
+   * @return the bit of the field in a field mask
+   */
+  public int bit() {
+    return 1 << ordinal();
+  }
+
+  /**
+   * Parses the column of this field.
+   *
+   * @param buffer the buffer holding the column
+   * @param start the absolute index of the first byte of the column
+   * @param end the absolute index after the last byte of the column
+   * @return the value of the field
+   * @throws NumberFormatException if the column is not a valid value of the field
+   */
+  public long parse(ByteBuffer buffer, int start, int end) {
+    switch (this) {
+      case SRCADDR:
+      case DSTADDR:
+        return parseAddress(buffer, start, end);
+      case ACTION:
+        return parseAction(buffer, start, end);
+      case DSTPORT:
+      case SRCPORT:
+      case PROTOCOL:
+        return parseInt(buffer, start, end);
+      default:
+        return parseUnsigned(buffer, start, end);
+    }
+  }
+
+  /**
+   * Formats a value of this field the way it appears in the flow log.
+   *
+   * @param value the value of the field
+   * @return the text of the value
+   */
+  public String format(long value) {
+    switch (this) {
+      case SRCADDR:
+      case DSTADDR:
+        return (value >>> 24) + "." + ((value >>> 16) & 0xFF) + "." + ((value >>> 8) & 0xFF) + "."
+            + (value & 0xFF);
+      case ACTION:
+        return value == 0 ? "ACCEPT" : "REJECT";
+      default:
+        return Long.toString(value);
+    }
+  }
+
+  private static long parseAddress(ByteBuffer buffer, int start, int end) {
+    long address = 0;
+    int octets = 0;
+    int octet = -1;
+    for (int i = start; i <= end; i++) {
+      if (i == end || buffer.get(i) == '.') {
+        if (octet < 0 || ++octets > 4) {
+          throw new NumberFormatException();
+        }
+        address = (address << 8) | octet;
+        octet = -1;
+        continue;
+      }
+      int digit = buffer.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      octet = (octet < 0 ? 0 : octet * 10) + digit;
+      if (octet > 255) {
+        throw new NumberFormatException();
+      }
+    }
+    if (octets != 4) {
+      throw new NumberFormatException();
+    }
+    return address;
+  }
+
+  private static long parseAction(ByteBuffer buffer, int start, int end) {
+    if (matches(buffer, start, end, ACCEPT)) {
+      return 0;
+    }
+    if (matches(buffer, start, end, REJECT)) {
+      return 1;
+    }
+    throw new NumberFormatException();
+  }
+
+  private static boolean matches(ByteBuffer buffer, int start, int end, byte[] word) {
+    if (end - start != word.length) {
+      return false;
+    }
+    for (int i = 0; i < word.length; i++) {
+      if (buffer.get(start + i) != word[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int parseInt(ByteBuffer buffer, int start, int end) {
+    long value = parseSigned(buffer, start, end);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException();
+    }
+    return (int) value;
+  }
+
+  private static long parseSigned(ByteBuffer buffer, int start, int end) {
+    if (start < end && buffer.get(start) == '-') {
+      return -parseUnsigned(buffer, start + 1, end);
+    }
+    if (start < end && buffer.get(start) == '+') {
+      return parseUnsigned(buffer, start + 1, end);
+    }
+    return parseUnsigned(buffer, start, end);
+  }
+
+  private static long parseUnsigned(ByteBuffer buffer, int start, int end) {
+    if (start >= end || end - start > 18) {
+      throw new NumberFormatException();
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = buffer.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+}
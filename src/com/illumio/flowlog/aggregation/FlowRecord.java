@@ -0,0 +1,75 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+
+/**
+ * FlowRecord holds the fields of one flow log record that the aggregations need, parsed once and
+ * shared by all of them.
+ *
+ * <p>
+ * Values are kept in a primitive array indexed by {@link Field} and a bit mask tells which fields
+ * are present, so a parser reuses one record for every line without allocating.
+ * </p>
+ *
+ * <p>
+ * A record also carries the lookup table snapshot it is tagged under, set once when it is first
+ * counted, so every aggregation and window tags it alike even if the lookup table is reloaded
+ * while it is being counted.
+ * </p>
+ */
+public final class FlowRecord {
+
+  private final long[] values = new long[Field.COUNT];
+  private int present;
+  private LookupTableLoader.Snapshot lookupSnapshot;
+
+  /**
+   * Marks every field as missing and drops the lookup table snapshot, before the next line is
+   * parsed into the record.
+   */
+  public void clear() {
+    present = 0;
+    lookupSnapshot = null;
+  }
+
+  /**
+   * Sets a field and marks it present.
+   *
+   * @param field the field
+   * @param value the value of the field
+   */
+  public void set(Field field, long value) {
+    values[field.ordinal()] = value;
+    present |= field.bit();
+  }
+
+  /**
+   * @param field the field
+   * @return the value of the field, only meaningful if it is present
+   */
+  public long get(Field field) {
+    return values[field.ordinal()];
+  }
+
+  /**
+   * @param fieldMask the bits of the fields, see {@link Field#bit()}
+   * @return whether all of the fields are present
+   */
+  public boolean has(int fieldMask) {
+    return (present & fieldMask) == fieldMask;
+  }
+
+  /**
+   * @return the lookup table snapshot the record is tagged under, or null if it is not set yet
+   */
+  public LookupTableLoader.Snapshot getLookupSnapshot() {
+    return lookupSnapshot;
+  }
+
+  /**
+   * @param lookupSnapshot the lookup table snapshot the record is tagged under
+   */
+  public void setLookupSnapshot(LookupTableLoader.Snapshot lookupSnapshot) {
+    this.lookupSnapshot = lookupSnapshot;
+  }
+}
@@ -0,0 +1,257 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.output.RowSink;
+import com.illumio.flowlog.trackers.interfaces.RecordTracker;
+import com.illumio.flowlog.trackers.interfaces.Tracker;
+import com.illumio.flowlog.utilities.IndexSort;
+import com.illumio.flowlog.utilities.SpaceSavingSummary;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * HeavyHitterTracker counts the records of the most frequent groups of an {@link AggregationSpec}
+ * with a top, in memory that does not grow with the number of distinct groups, so it can group by
+ * keys of high cardinality such as source addresses.
+ *
+ * <p>
+ * Group keys are packed like those of an {@link Aggregation}, but may take all 64 bits, and
+ * offered to a {@link SpaceSavingSummary} of {@code max(top, 1 / error)} counters in constant
+ * time. Every reported count is at least the true count and exceeds it by at most its
+ * {@value #ERROR_COLUMN}, which never exceeds error times the number of records. Any group with
+ * more records than that is guaranteed to be tracked.
+ * </p>
+ */
+public class HeavyHitterTracker implements RecordTracker {
+
+  /** Header of the column holding the largest overcount of each reported count. */
+  public static final String ERROR_COLUMN = "max_overcount";
+
+  private static final Logger logger = Logger.getLogger(HeavyHitterTracker.class.getName());
+  private static final int MAX_KEY_BITS = 64;
+  //count and overcount of every counter
+  private static final int ENTRY_WORDS = 2;
+
+  private final AggregationSpec spec;
+  private final KeyLayout keyLayout;
+  private final SpaceSavingSummary summary;
+  private final FlowRecord portProtocolRecord = new FlowRecord();
+
+  /**
+   * Constructs a HeavyHitterTracker.
+   *
+   * @param spec the declaration of the aggregation, with a top
+   * @param lookupTableLoader the lookup table, only needed when grouping by tag
+   * @param protocolNumberLoader the protocol names used in the output
+   * @throws IllegalArgumentException if grouping by tag without a lookup table or if the error
+   *     bound needs more counters than fit in an array
+   */
+  public HeavyHitterTracker(AggregationSpec spec, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader) {
+    this.spec = spec;
+    this.keyLayout = new KeyLayout(spec, lookupTableLoader, protocolNumberLoader, MAX_KEY_BITS);
+    double counters = Math.max(spec.getTop(), Math.ceil(1 / spec.getError()));
+    if (counters > Integer.MAX_VALUE / 4) {
+      throw new IllegalArgumentException("Error bound of aggregation " + spec.getName()
+          + " is too small");
+    }
+    this.summary = new SpaceSavingSummary((int) counters);
+  }
+
+  @Override
+  public AggregationSpec getSpec() {
+    return spec;
+  }
+
+  @Override
+  public int fieldMask() {
+    return keyLayout.fieldMask();
+  }
+
+  /**
+   * Adds a record with only destination port and protocol.
+   *
+   * @param port the destination port
+   * @param protocol the protocol number
+   * @throws InvalidProtocolNumberException if the protocol number is not between 0 and 255
+   */
+  public void add(Integer port, Integer protocol) throws InvalidProtocolNumberException {
+    if (protocol < 0 || protocol > 255) {
+      throw new InvalidProtocolNumberException("Protocol numbers between 0 to 255 are valid");
+    }
+    portProtocolRecord.clear();
+    portProtocolRecord.set(Field.DSTPORT, port);
+    portProtocolRecord.set(Field.PROTOCOL, protocol);
+    add(portProtocolRecord);
+  }
+
+  /**
+   * Counts a record for its group, unless it lacks a field this aggregation needs.
+   *
+   * @param record the parsed record
+   */
+  @Override
+  public void add(FlowRecord record) {
+    if (record.has(keyLayout.fieldMask())) {
+      summary.offer(keyLayout.pack(record));
+    }
+  }
+
+  /**
+   * Adds the counters of another HeavyHitterTracker with the same declaration to this one. The
+   * overcount of the result is bounded by the sum of both bounds.
+   *
+   * @param other the tracker whose counters are added
+   */
+  public void merge(Tracker<Integer, String> other) {
+    if (!(other instanceof HeavyHitterTracker)
+        || !((HeavyHitterTracker) other).spec.getName().equals(spec.getName())) {
+      throw new IllegalArgumentException("Can only merge the same aggregation " + spec.getName());
+    }
+    summary.merge(((HeavyHitterTracker) other).summary);
+  }
+
+  /**
+   * @return the number of groups holding a counter, at most the number of counters
+   */
+  public int size() {
+    return summary.size();
+  }
+
+  /**
+   * Writes the layout, the number of records and the largest overcount, then every counter with
+   * the dimension values of its group, its count and its overcount.
+   *
+   * @param out the output receiving the counters
+   * @throws IOException if the output can not be written
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    keyLayout.writeLayout(out, spec.getAggregates(), ENTRY_WORDS);
+    out.writeLong(summary.total());
+    out.writeLong(summary.maxError());
+    out.writeInt(summary.size());
+    for (int counter = 0; counter < summary.size(); counter++) {
+      keyLayout.write(out, summary.keyAt(counter));
+      out.writeLong(summary.countAt(counter));
+      out.writeLong(summary.errorAt(counter));
+    }
+  }
+
+  /**
+   * Merges the counters written by {@link #writeTo(DataOutput)} into this tracker.
+   *
+   * @param in the input holding the counters
+   * @throws IOException if the input can not be read, has another layout or names an unknown tag
+   */
+  public void readFrom(DataInput in) throws IOException {
+    keyLayout.checkLayout(in, spec.getAggregates(), ENTRY_WORDS);
+    long total = in.readLong();
+    long maxError = in.readLong();
+    int size = in.readInt();
+    long[] keys = new long[size];
+    long[] counts = new long[size];
+    long[] errors = new long[size];
+    for (int counter = 0; counter < size; counter++) {
+      keys[counter] = keyLayout.read(in);
+      counts[counter] = in.readLong();
+      errors[counter] = in.readLong();
+    }
+    summary.merge(total, maxError, keys, counts, errors, size);
+  }
+
+  /**
+   * Skips the counters of a tracker written by {@link #writeTo(DataOutput)}, which is not
+   * declared in this run.
+   *
+   * @param in the input holding the counters
+   * @throws IOException if the input can not be read
+   */
+  public static void skip(DataInput in) throws IOException {
+    SerializedLayout layout = SerializedLayout.read(in);
+    in.readLong();
+    in.readLong();
+    int size = in.readInt();
+    for (int counter = 0; counter < size; counter++) {
+      layout.skipKey(in);
+      in.readLong();
+      in.readLong();
+    }
+  }
+
+  /**
+   * Hands the top groups to a sink, each with its count and the largest amount by which the count
+   * may exceed the true count. They come from the largest count down unless ordered by key. With
+   * an order, groups of the same count are ranked by key, also where the top cuts them.
+   *
+   * @param sink the sink receiving the rows
+   * @param order the order of the top groups
+   * @throws IOException if the sink fails
+   */
+  @Override
+  public void writeRows(RowSink sink, RowOrder order) throws IOException {
+    int[] counters = summary.byCountDescending();
+    int reported = Math.min(spec.getTop(), counters.length);
+    if (order != RowOrder.NONE) {
+      //ties of a count, also those at the cut, are in no particular order otherwise
+      long[] keys = new long[counters.length];
+      long[] counts = new long[counters.length];
+      for (int i = 0; i < counters.length; i++) {
+        keys[i] = summary.keyAt(counters[i]);
+        counts[i] = summary.countAt(counters[i]);
+      }
+      int[] ranked = IndexSort.sort(counts, true, keys, counters.length);
+      if (order == RowOrder.KEY) {
+        long[] topKeys = new long[reported];
+        for (int i = 0; i < reported; i++) {
+          topKeys[i] = keys[ranked[i]];
+        }
+        int[] byKey = IndexSort.sort(topKeys, false, topKeys, reported);
+        for (int i = 0; i < reported; i++) {
+          byKey[i] = ranked[byKey[i]];
+        }
+        ranked = byKey;
+      }
+      int[] top = new int[reported];
+      for (int i = 0; i < reported; i++) {
+        top[i] = counters[ranked[i]];
+      }
+      counters = top;
+    }
+    for (int i = 0; i < reported; i++) {
+      sink.beginRow();
+      keyLayout.encode(summary.keyAt(counters[i]), sink);
+      sink.number(summary.countAt(counters[i]));
+      sink.number(summary.errorAt(counters[i]));
+      sink.endRow();
+    }
+  }
+
+  /**
+   * Retrieves the top groups from the largest count down, each with the largest amount by which
+   * its count may exceed the true count.
+   *
+   * @return a list of lines in the format "key,...,count,max_overcount"
+   */
+  public List<String> get() {
+    logger.info("Top " + spec.getTop() + " of aggregation " + spec.getName() + " over "
+        + summary.total() + " records, counts overestimate by at most " + summary.maxError());
+    int[] counters = summary.byCountDescending();
+    int reported = Math.min(spec.getTop(), counters.length);
+    List<String> lines = new ArrayList<>(reported);
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < reported; i++) {
+      line.setLength(0);
+      keyLayout.format(summary.keyAt(counters[i]), line);
+      line.append(summary.countAt(counters[i])).append(',').append(summary.errorAt(counters[i]));
+      lines.add(line.toString());
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,200 @@
+package com.illumio.flowlog.aggregation;
+
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.output.RowSink;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * KeyLayout packs the dimension values of a record into one primitive long key, each dimension
+ * taking its fixed number of bits with the first dimension in the highest bits, and turns keys
+ * back into dimension values for the output and for serialization.
+ */
+final class KeyLayout {
+
+  private final AggregationSpec spec;
+  private final LookupTableLoader lookupTableLoader;
+  private final ProtocolNumberLoader protocolNumberLoader;
+  private final Dimension[] dimensions;
+  private final int[] bits;
+  private final int keyBits;
+  private final int fieldMask;
+  private final long[] dimensionValues;
+
+  /**
+   * Constructs a KeyLayout for the dimensions of an aggregation.
+   *
+   * @param spec the declaration of the aggregation
+   * @param lookupTableLoader the lookup table, only needed when grouping by tag
+   * @param protocolNumberLoader the protocol names used in the output
+   * @param maxKeyBits the number of bits the keys may take
+   * @throws IllegalArgumentException if grouping by tag without a lookup table or if the keys do
+   *     not fit in maxKeyBits
+   */
+  KeyLayout(AggregationSpec spec, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader, int maxKeyBits) {
+    this.spec = spec;
+    this.lookupTableLoader = lookupTableLoader;
+    this.protocolNumberLoader = protocolNumberLoader;
+    this.dimensions = spec.getDimensions().toArray(new Dimension[0]);
+    this.bits = new int[dimensions.length];
+    this.dimensionValues = new long[dimensions.length];
+    int mask = 0;
+    int total = 0;
+    for (int i = 0; i < dimensions.length; i++) {
+      if (dimensions[i] == Dimension.TAG && lookupTableLoader == null) {
+        throw new IllegalArgumentException("Aggregation " + spec.getName()
+            + " groups by tag but there is no lookup table");
+      }
+      bits[i] = dimensions[i].bits(lookupTableLoader);
+      total += bits[i];
+      mask |= dimensions[i].fieldMask();
+    }
+    if (total > maxKeyBits) {
+      throw new IllegalArgumentException("Group by keys of aggregation " + spec.getName()
+          + " take " + total + " bits, at most " + maxKeyBits + " fit in a key");
+    }
+    this.keyBits = total;
+    this.fieldMask = mask;
+  }
+
+  /**
+   * @return the number of bits of a packed key
+   */
+  int keyBits() {
+    return keyBits;
+  }
+
+  /**
+   * @return the bits of the fields the dimensions are computed from
+   */
+  int fieldMask() {
+    return fieldMask;
+  }
+
+  /**
+   * @param record a record holding the fields of every dimension
+   * @return the packed key of the record
+   */
+  long pack(FlowRecord record) {
+    long key = 0;
+    for (int i = 0; i < dimensions.length; i++) {
+      key = (key << bits[i]) | dimensions[i].value(record, lookupTableLoader);
+    }
+    return key;
+  }
+
+  /**
+   * Appends the dimension values of a key to an output line, each followed by a comma.
+   *
+   * @param key the packed key
+   * @param line the line being built
+   */
+  void format(long key, StringBuilder line) {
+    unpack(key);
+    for (int i = 0; i < dimensions.length; i++) {
+      line.append(dimensions[i].format(dimensionValues[i], lookupTableLoader,
+          protocolNumberLoader)).append(',');
+    }
+  }
+
+  /**
+   * Hands the dimension values of a key to a row sink, see {@link Dimension#encode}.
+   *
+   * @param key the packed key
+   * @param sink the sink receiving the values
+   * @throws IOException if the sink fails
+   */
+  void encode(long key, RowSink sink) throws IOException {
+    unpack(key);
+    for (int i = 0; i < dimensions.length; i++) {
+      dimensions[i].encode(sink, dimensionValues[i], lookupTableLoader, protocolNumberLoader);
+    }
+  }
+
+  /**
+   * Writes the dimension values of a key, see {@link Dimension#write}.
+   *
+   * @param out the output
+   * @param key the packed key
+   * @throws IOException if the output can not be written
+   */
+  void write(DataOutput out, long key) throws IOException {
+    unpack(key);
+    for (int i = 0; i < dimensions.length; i++) {
+      dimensions[i].write(out, dimensionValues[i], lookupTableLoader);
+    }
+  }
+
+  /**
+   * Reads the dimension values written by {@link #write} and packs them.
+   *
+   * @param in the input
+   * @return the packed key
+   * @throws IOException if the input can not be read or names a tag the lookup table lacks
+   */
+  long read(DataInput in) throws IOException {
+    long key = 0;
+    for (int i = 0; i < dimensions.length; i++) {
+      key = (key << bits[i]) | dimensions[i].read(in, lookupTableLoader);
+    }
+    return key;
+  }
+
+  /**
+   * Writes the names of the dimensions and of the given aggregates and the number of longs
+   * stored per key, which {@link #checkLayout} compares on reading.
+   *
+   * @param out the output
+   * @param aggregates the values stored per key
+   * @param valueWords the number of longs written per key
+   * @throws IOException if the output can not be written
+   */
+  void writeLayout(DataOutput out, List<Aggregate> aggregates, int valueWords)
+      throws IOException {
+    out.writeInt(dimensions.length);
+    for (Dimension dimension : dimensions) {
+      out.writeUTF(dimension.name());
+    }
+    out.writeInt(aggregates.size());
+    for (Aggregate aggregate : aggregates) {
+      out.writeUTF(aggregate.name());
+    }
+    out.writeInt(valueWords);
+  }
+
+  /**
+   * Reads a layout written by {@link #writeLayout} and checks that it matches this one.
+   *
+   * @param in the input
+   * @param aggregates the values expected per key
+   * @param valueWords the number of longs expected per key
+   * @throws IOException if the input can not be read or was written with another layout
+   */
+  void checkLayout(DataInput in, List<Aggregate> aggregates, int valueWords) throws IOException {
+    SerializedLayout layout = SerializedLayout.read(in);
+    if (!layout.getDimensions().equals(spec.getDimensions())
+        || !layout.getAggregates().equals(aggregates) || layout.getValueWords() != valueWords) {
+      throw new IOException("Aggregation " + spec.getName() + " was written as "
+          + layout.getDimensions() + " " + layout.getAggregates() + " in "
+          + layout.getValueWords() + " longs per key");
+    }
+  }
+
+  /**
+   * Splits a key into the values of its dimensions, in the order they are declared.
+   *
+   * @param key the packed key
+   * @return the dimension values, in an array reused by the next call
+   */
+  long[] unpack(long key) {
+    for (int i = dimensions.length - 1; i >= 0; i--) {
+      dimensionValues[i] = key & ((1L << bits[i]) - 1);
+      key >>>= bits[i];
+    }
+    return dimensionValues;
+  }
+}
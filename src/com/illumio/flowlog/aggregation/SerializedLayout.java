@@ -0,0 +1,69 @@
+package com.illumio.flowlog.aggregation;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dimensions and aggregates of serialized groups, read before the groups so they can be checked
+ * or skipped without knowing the aggregation that wrote them.
+ */
+final class SerializedLayout {
+
+  private final List<Dimension> dimensions = new ArrayList<>();
+  private final List<Aggregate> aggregates = new ArrayList<>();
+  private int valueWords;
+
+  private SerializedLayout() {
+  }
+
+  /**
+   * Reads a layout written by {@link KeyLayout#writeLayout}.
+   *
+   * @param in the input
+   * @return the layout
+   * @throws IOException if the input can not be read or names an unknown dimension or aggregate
+   */
+  static SerializedLayout read(DataInput in) throws IOException {
+    SerializedLayout layout = new SerializedLayout();
+    try {
+      int dimensionCount = in.readInt();
+      for (int i = 0; i < dimensionCount; i++) {
+        layout.dimensions.add(Dimension.valueOf(in.readUTF()));
+      }
+      int aggregateCount = in.readInt();
+      for (int i = 0; i < aggregateCount; i++) {
+        layout.aggregates.add(Aggregate.valueOf(in.readUTF()));
+      }
+      layout.valueWords = in.readInt();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown group by key or aggregate: " + e.getMessage());
+    }
+    return layout;
+  }
+
+  /**
+   * Skips the dimension values of one serialized key.
+   *
+   * @param in the input
+   * @throws IOException if the input can not be read
+   */
+  void skipKey(DataInput in) throws IOException {
+    for (Dimension dimension : dimensions) {
+      dimension.skip(in);
+    }
+  }
+
+  List<Dimension> getDimensions() {
+    return dimensions;
+  }
+
+  List<Aggregate> getAggregates() {
+    return aggregates;
+  }
+
+  int getValueWords() {
+    return valueWords;
+  }
+}
@@ -0,0 +1,216 @@
+package com.illumio.flowlog.checkpoint;
+
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * CheckpointStore persists the counts of a run together with the offset of the flow log they
+ * cover, so a run that died can resume after the last checkpoint instead of starting over.
+ *
+ * <p>
+ * A checkpoint is a small binary file: a magic number and version, the flow log path, the length
+ * and CRC32 of the first bytes of the flow log, the offset, the counts written by
+ * {@link CountingOrchestrate#writeTo} and a CRC32 of everything before it. It is written to a
+ * temporary file that then replaces the previous checkpoint, so a crash while writing leaves the
+ * old checkpoint intact. The counts are copied on the processing thread and serialized on a
+ * background thread; a checkpoint requested while the previous one is still being written is
+ * skipped.
+ * </p>
+ */
+public class CheckpointStore {
+
+  private static final int MAGIC = 0x464C4350;
+  private static final int VERSION = 5;
+  private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+  private final Logger logger = Logger.getLogger(getClass().getName());
+  private final Path checkpointPath;
+  private final Path flowLogPath;
+  private final ExecutorService writer;
+  private int fingerprintLength;
+  private long fingerprint;
+  private Future<?> pending;
+
+  /**
+   * Constructs a CheckpointStore for one flow log.
+   *
+   * @param checkpointPath the checkpoint file
+   * @param flowLogPath the flow log the checkpoints describe
+   */
+  public CheckpointStore(Path checkpointPath, Path flowLogPath) {
+    this.checkpointPath = checkpointPath.toAbsolutePath();
+    this.flowLogPath = flowLogPath.toAbsolutePath();
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "checkpoint-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Adds the counts of the last checkpoint to the target, if there is a valid checkpoint of this
+   * flow log. A missing, damaged or foreign checkpoint is ignored and processing starts over.
+   *
+   * @param channel the channel of the flow log
+   * @param target the CountingOrchestrate receiving the checkpointed counts
+   * @return the offset to resume from, 0 without a usable checkpoint
+   * @throws IOException if the flow log can not be read
+   */
+  public long restore(FileChannel channel, CountingOrchestrate target) throws IOException {
+    fingerprintLength = (int) Math.min(FINGERPRINT_BYTES, channel.size());
+    fingerprint = fingerprint(channel, fingerprintLength);
+    CountingOrchestrate restored = target.emptyCopy();
+    long offset;
+    CRC32 crc = new CRC32();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+        new BufferedInputStream(Files.newInputStream(checkpointPath)), crc))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.warning("Ignoring checkpoint " + checkpointPath + ", unknown format");
+        return 0;
+      }
+      String checkpointedFlowLog = in.readUTF();
+      int checkpointedLength = in.readInt();
+      long checkpointedFingerprint = in.readLong();
+      offset = in.readLong();
+      restored.readFrom(in);
+      long expected = crc.getValue();
+      if (in.readLong() != expected) {
+        logger.warning("Ignoring checkpoint " + checkpointPath + ", checksum does not match");
+        return 0;
+      }
+      if (!checkpointedFlowLog.equals(flowLogPath.toString()) || offset > channel.size()
+          || checkpointedLength > channel.size()
+          || checkpointedFingerprint != fingerprint(channel, checkpointedLength)) {
+        logger.warning("Ignoring checkpoint " + checkpointPath + ", it belongs to another flow log");
+        return 0;
+      }
+    } catch (NoSuchFileException e) {
+      return 0;
+    } catch (IOException e) {
+      logger.warning("Ignoring checkpoint " + checkpointPath + ": " + e.getMessage());
+      return 0;
+    }
+    target.merge(restored);
+    logger.info("Resuming flow log " + flowLogPath + " from checkpoint at offset " + offset);
+    return offset;
+  }
+
+  /**
+   * Checkpoints the counts on the background thread, unless the previous checkpoint is still
+   * being written. The counts are copied before this method returns.
+   *
+   * @param offset the offset of the first byte not covered by the counts
+   * @param counts the counts of every line before the offset
+   */
+  public synchronized void save(long offset, CountingOrchestrate counts) {
+    if (pending != null && !pending.isDone()) {
+      logger.fine("Skipping checkpoint at offset " + offset + ", previous one still being written");
+      return;
+    }
+    CountingOrchestrate copy = counts.copy();
+    pending = writer.submit(() -> write(offset, copy));
+  }
+
+  /**
+   * Waits for the background write, then checkpoints the counts on the calling thread and stops
+   * the background thread.
+   *
+   * @param offset the offset of the first byte not covered by the counts
+   * @param counts the counts of every line before the offset
+   */
+  public synchronized void finish(long offset, CountingOrchestrate counts) {
+    awaitPending();
+    writer.shutdown();
+    write(offset, counts);
+  }
+
+  /**
+   * Removes the checkpoint once the output covering it has been written.
+   */
+  public synchronized void delete() {
+    awaitPending();
+    writer.shutdown();
+    try {
+      Files.deleteIfExists(checkpointPath);
+    } catch (IOException e) {
+      logger.warning("Not able to delete checkpoint " + checkpointPath + ": " + e.getMessage());
+    }
+  }
+
+  private void awaitPending() {
+    if (pending == null) {
+      return;
+    }
+    try {
+      pending.get();
+    } catch (ExecutionException e) {
+      logger.warning("Checkpoint failed: " + e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes a checkpoint to a temporary file and moves it over the previous one. Failures are
+   * logged, a lost checkpoint only costs work on the next resume.
+   */
+  private void write(long offset, CountingOrchestrate counts) {
+    Path temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try {
+      try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary)), crc))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(flowLogPath.toString());
+        out.writeInt(fingerprintLength);
+        out.writeLong(fingerprint);
+        out.writeLong(offset);
+        counts.writeTo(out);
+        out.writeLong(crc.getValue());
+      }
+      try {
+        Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+      logger.info("Checkpoint written at offset " + offset);
+    } catch (IOException e) {
+      logger.warning("Not able to write checkpoint " + checkpointPath + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * CRC32 of the first bytes of the flow log, which tells a file that grew apart from a
+   * different file at the same path.
+   */
+  private static long fingerprint(FileChannel channel, int length) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(length);
+    while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+      //keep reading until the head is complete
+    }
+    CRC32 crc = new CRC32();
+    crc.update(head.array(), 0, head.position());
+    return crc.getValue();
+  }
+}
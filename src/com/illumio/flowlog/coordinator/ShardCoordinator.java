@@ -0,0 +1,216 @@
+package com.illumio.flowlog.coordinator;
+
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.PartialAggregateFile;
+import com.illumio.flowlog.processor.FlowLogStreamReader;
+import com.illumio.flowlog.processor.MappedRangeReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * ShardCoordinator splits the flow logs into shards and counts every shard in its own worker
+ * JVM on this machine, so the counting is not limited by the heap and garbage collector of a
+ * single process.
+ *
+ * <p>
+ * A shard is a line aligned byte range of a plain flow log, or a whole gzip compressed one. A
+ * worker is started as {@code java Main --worker <flow log> <start> <end> <partial> <error log>}
+ * with the class path and working directory of the coordinator, so it reads the same properties,
+ * and writes the counts of its shard as a partial aggregate file. The command line is the whole
+ * shard protocol, so the same workers can later be started on other hosts. At most N workers run
+ * at a time, a worker that fails or leaves no valid partial is started again up to the retry
+ * limit. Partials and error logs of the workers are merged in shard order.
+ * </p>
+ */
+public class ShardCoordinator {
+
+  /** Class started in the worker JVMs. */
+  public static final String WORKER_MAIN_CLASS = "Main";
+  /** First argument that makes {@link #WORKER_MAIN_CLASS} run as a worker. */
+  public static final String WORKER_ARGUMENT = "--worker";
+
+  private final Logger logger = Logger.getLogger(getClass().getName());
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final int workers;
+  private final long shardBytes;
+  private final int retries;
+  private final Path workDirectory;
+  private final List<String> jvmOptions;
+
+  /**
+   * Constructs a ShardCoordinator.
+   *
+   * @param workers the largest number of worker JVMs running at a time
+   * @param shardBytes plain flow logs are split into shards of about this size
+   * @param retries how often a failed shard is started again
+   * @param workDirectory the directory receiving partials, error logs and output of the workers
+   * @param jvmOptions options passed to every worker JVM, such as -Xmx
+   */
+  public ShardCoordinator(int workers, long shardBytes, int retries, Path workDirectory,
+      List<String> jvmOptions) {
+    this.workers = Math.max(1, workers);
+    this.shardBytes = Math.max(1, shardBytes);
+    this.retries = Math.max(0, retries);
+    this.workDirectory = workDirectory;
+    this.jvmOptions = jvmOptions;
+  }
+
+  /**
+   * Counts the flow logs in worker JVMs and merges all partial counts into the target.
+   *
+   * @param flowLogs the flow log files, plain or gzip compressed
+   * @param target the CountingOrchestrate receiving the merged counts
+   * @throws IOException if a flow log can not be read or a shard still fails after its retries
+   * @throws InterruptedException if the coordinator is interrupted while waiting for workers
+   */
+  public void process(List<Path> flowLogs, CountingOrchestrate target)
+      throws IOException, InterruptedException {
+    Files.createDirectories(workDirectory);
+    List<Shard> shards = plan(flowLogs);
+    logger.info("Counting " + flowLogs.size() + " flow log files as " + shards.size()
+        + " shards with " + workers + " worker processes");
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Shard>> running = new ArrayList<>();
+      for (Shard shard : shards) {
+        running.add(executor.submit(() -> run(shard)));
+      }
+      for (Future<Shard> future : running) {
+        Shard shard = future.get();
+        PartialAggregateFile.mergeInto(shard.partial, target);
+        copyErrors(shard);
+        Files.deleteIfExists(shard.partial);
+        Files.deleteIfExists(shard.errors);
+        Files.deleteIfExists(shard.log);
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Cuts the files into shards, splitting large plain files into line aligned ranges.
+   */
+  private List<Shard> plan(List<Path> flowLogs) throws IOException {
+    List<Shard> shards = new ArrayList<>();
+    for (Path flowLog : flowLogs) {
+      long size = Files.size(flowLog);
+      if (size == 0) {
+        continue;
+      }
+      if (size <= shardBytes || FlowLogStreamReader.isGzip(flowLog)) {
+        shards.add(new Shard(shards.size(), flowLog, 0, size));
+        continue;
+      }
+      try (FileChannel channel = FileChannel.open(flowLog, StandardOpenOption.READ)) {
+        long[] bounds = MappedRangeReader.split(channel, (int) Math.min(Integer.MAX_VALUE,
+            (size + shardBytes - 1) / shardBytes));
+        for (int i = 0; i + 1 < bounds.length; i++) {
+          shards.add(new Shard(shards.size(), flowLog, bounds[i], bounds[i + 1]));
+        }
+      }
+    }
+    return shards;
+  }
+
+  /**
+   * Runs the worker of a shard until it leaves a valid partial or the retries are used up.
+   */
+  private Shard run(Shard shard) throws IOException, InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      Files.deleteIfExists(shard.partial);
+      Files.deleteIfExists(shard.errors);
+      Process process = new ProcessBuilder(command(shard))
+          .redirectErrorStream(true)
+          .redirectOutput(shard.log.toFile())
+          .start();
+      int exitCode;
+      try {
+        exitCode = process.waitFor();
+      } finally {
+        if (process.isAlive()) {
+          process.destroyForcibly();
+        }
+      }
+      String failure = "exit code " + exitCode;
+      if (exitCode == 0) {
+        try {
+          PartialAggregateFile.verify(shard.partial);
+          return shard;
+        } catch (IOException e) {
+          failure = e.getMessage();
+        }
+      }
+      if (attempt > retries) {
+        throw new IOException("Shard " + shard + " failed after " + attempt + " attempts ("
+            + failure + "), see " + shard.log);
+      }
+      logger.warning("Shard " + shard + " failed (" + failure + "), starting it again");
+    }
+  }
+
+  private List<String> command(Shard shard) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(WORKER_MAIN_CLASS);
+    command.add(WORKER_ARGUMENT);
+    command.add(shard.flowLog.toString());
+    command.add(Long.toString(shard.start));
+    command.add(Long.toString(shard.end));
+    command.add(shard.partial.toString());
+    command.add(shard.errors.toString());
+    return command;
+  }
+
+  /**
+   * Appends the error log of a worker to the error log of the coordinator, under the limits of
+   * the coordinator and with its summary merged into the one of the coordinator.
+   */
+  private void copyErrors(Shard shard) throws IOException {
+    errorLogger.append(shard.errors);
+  }
+
+  /**
+   * A byte range of a flow log together with the files its worker writes.
+   */
+  private final class Shard {
+    private final Path flowLog;
+    private final long start;
+    private final long end;
+    private final Path partial;
+    private final Path errors;
+    private final Path log;
+
+    private Shard(int index, Path flowLog, long start, long end) {
+      this.flowLog = flowLog.toAbsolutePath();
+      this.start = start;
+      this.end = end;
+      this.partial = workDirectory.resolve("shard-" + index + ".bin").toAbsolutePath();
+      this.errors = workDirectory.resolve("shard-" + index + ".errors").toAbsolutePath();
+      this.log = workDirectory.resolve("shard-" + index + ".log").toAbsolutePath();
+    }
+
+    @Override
+    public String toString() {
+      return flowLog + " [" + start + ", " + end + ")";
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package com.illumio.flowlog.fileloaders;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * LookupTableIndex stores a compiled lookup table in a binary file, so later runs memory map the
+ * tag id tables instead of parsing the CSV file again.
+ *
+ * <p>
+ * The file starts with a header holding the modification time and size of the CSV file and a
+ * hash of the protocol names it was compiled with, followed by the tag names and which table
+ * every protocol uses. The tables follow as 65,536 tag ids of two bytes each, in the byte order
+ * of the machine that wrote them, and a CRC32 of everything before it ends the file. An index
+ * whose CSV file, protocol names or byte order differ, or whose checksum does not match, is stale
+ * and compiled again, so a damaged or half-written table never hands out a wrong tag id. Lookups read the mapped tables directly, so
+ * they stay off the heap and loading does not depend on the number of rows. The index is
+ * replaced by an atomic move, which leaves the mapping of a running process intact.
+ * </p>
+ */
+final class LookupTableIndex {
+
+  private static final int MAGIC = 0x464C5449;
+  private static final int VERSION = 2;
+  private static final int CHECKSUM_BYTES = 8;
+  private static final int NO_TABLE = -1;
+  private static final int TABLE_BYTES = PortRules.PORTS * Character.BYTES;
+
+  private LookupTableIndex() {
+  }
+
+  /**
+   * Maps an index if it was compiled from the current CSV file and protocol names.
+   *
+   * @param indexPath the index file
+   * @param modified the modification time of the CSV file in milliseconds
+   * @param size the size of the CSV file
+   * @param protocolsHash the hash of the protocol names
+   * @return the snapshot served from the mapping, or null if the index is missing or stale
+   */
+  static LookupTableLoader.Snapshot read(Path indexPath, long modified, long size,
+      long protocolsHash) {
+    if (!Files.isRegularFile(indexPath)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+      MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (mapping.capacity() < 3 * Integer.BYTES + CHECKSUM_BYTES
+          || mapping.getInt() != MAGIC || mapping.getInt() != VERSION) {
+        return null;
+      }
+      //the checksum covers header and tables, which are checked once here and then trusted
+      int checked = mapping.capacity() - CHECKSUM_BYTES;
+      CRC32 crc = new CRC32();
+      ByteBuffer covered = mapping.duplicate();
+      covered.position(0).limit(checked);
+      crc.update(covered);
+      if (mapping.getLong(checked) != crc.getValue()) {
+        return null;
+      }
+      mapping.limit(checked);
+      //lengths read from the file are checked before allocating, a damaged one must not exhaust
+      //the heap, which would not be caught below
+      int headerLength = mapping.getInt();
+      if (headerLength < 0 || headerLength > mapping.remaining()) {
+        return null;
+      }
+      byte[] header = new byte[headerLength];
+      mapping.get(header);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+      boolean bigEndian = in.readBoolean();
+      if (bigEndian != (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN)
+          || in.readLong() != modified || in.readLong() != size
+          || in.readLong() != protocolsHash) {
+        return null;
+      }
+      int tagCount = in.readInt();
+      //every name takes at least its two length bytes
+      if (tagCount < 0 || tagCount > headerLength / 2) {
+        return null;
+      }
+      String[] tagNames = new String[tagCount];
+      Map<String, Integer> tagIds = new HashMap<>();
+      for (int tagId = 0; tagId < tagNames.length; tagId++) {
+        tagNames[tagId] = in.readUTF();
+        tagIds.put(tagNames[tagId], tagId);
+      }
+      int[] tableOf = new int[PortRules.PROTOCOLS];
+      for (int protocol = 0; protocol < tableOf.length; protocol++) {
+        tableOf[protocol] = in.readInt();
+      }
+      int tableCount = in.readInt();
+      if (tableCount < 0 || mapping.remaining() != (long) tableCount * TABLE_BYTES) {
+        return null;
+      }
+      CharBuffer[] tables = new CharBuffer[tableCount];
+      for (int table = 0; table < tables.length; table++) {
+        mapping.limit(mapping.position() + TABLE_BYTES);
+        tables[table] = mapping.slice().order(ByteOrder.nativeOrder()).asCharBuffer();
+        mapping.position(mapping.limit());
+      }
+      CharBuffer[] tagIdsByProtocol = new CharBuffer[PortRules.PROTOCOLS];
+      for (int protocol = 0; protocol < tableOf.length; protocol++) {
+        tagIdsByProtocol[protocol] =
+            tableOf[protocol] == NO_TABLE ? null : tables[tableOf[protocol]];
+      }
+      return new LookupTableLoader.Snapshot(1, tagIdsByProtocol, tagNames, tagIds);
+    } catch (IOException | RuntimeException e) {
+      //a damaged index is compiled again
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot to a temporary file next to the index which then replaces it.
+   *
+   * @param indexPath the index file
+   * @param snapshot the compiled lookup table
+   * @param modified the modification time of the CSV file it was compiled from in milliseconds
+   * @param size the size of that CSV file
+   * @param protocolsHash the hash of the protocol names it was compiled with
+   * @throws IOException if the index can not be written
+   */
+  static void write(Path indexPath, LookupTableLoader.Snapshot snapshot, long modified,
+      long size, long protocolsHash) throws IOException {
+    //protocols sharing a table share it in the index too
+    Map<CharBuffer, Integer> tableIds = new IdentityHashMap<>();
+    int[] tableOf = new int[PortRules.PROTOCOLS];
+    CharBuffer[] tables = new CharBuffer[PortRules.PROTOCOLS];
+    for (int protocol = 0; protocol < tableOf.length; protocol++) {
+      CharBuffer table = snapshot.tagIdsByProtocol[protocol];
+      if (table == null) {
+        tableOf[protocol] = NO_TABLE;
+        continue;
+      }
+      Integer tableId = tableIds.get(table);
+      if (tableId == null) {
+        tableId = tableIds.size();
+        tableIds.put(table, tableId);
+        tables[tableId] = table;
+      }
+      tableOf[protocol] = tableId;
+    }
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+    header.writeLong(modified);
+    header.writeLong(size);
+    header.writeLong(protocolsHash);
+    header.writeInt(snapshot.tagNames.length);
+    for (String tagName : snapshot.tagNames) {
+      header.writeUTF(tagName);
+    }
+    for (int tableId : tableOf) {
+      header.writeInt(tableId);
+    }
+    header.writeInt(tableIds.size());
+    header.flush();
+
+    Path index = indexPath.toAbsolutePath();
+    //worker processes starting together may all write the index, each into its own file
+    Path temporary = Files.createTempFile(index.getParent(), index.getFileName().toString(),
+        ".tmp");
+    try {
+      writeTables(temporary, headerBytes, tables, tableIds.size());
+      try {
+        Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void writeTables(Path temporary, ByteArrayOutputStream headerBytes,
+      CharBuffer[] tables, int tableCount) throws IOException {
+    boolean bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+    byte[] tableBytes = new byte[TABLE_BYTES];
+    CRC32 crc = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(headerBytes.size());
+      headerBytes.writeTo(out);
+      for (int tableId = 0; tableId < tableCount; tableId++) {
+        CharBuffer table = tables[tableId];
+        for (int port = 0; port < PortRules.PORTS; port++) {
+          char tagId = table.get(port);
+          tableBytes[port * 2] = (byte) (bigEndian ? tagId >>> 8 : tagId);
+          tableBytes[port * 2 + 1] = (byte) (bigEndian ? tagId : tagId >>> 8);
+        }
+        out.write(tableBytes);
+      }
+      out.writeLong(crc.getValue());
+    }
+  }
+}
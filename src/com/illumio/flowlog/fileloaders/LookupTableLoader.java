@@ -1,12 +1,20 @@
 package com.illumio.flowlog.fileloaders;
 
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
 import com.illumio.flowlog.exceptions.MissingFileException;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -14,60 +22,334 @@ import java.util.stream.Stream;
  * The LookupTableLoader class is responsible for loading and storing lookup table data
  * from a CSV file that contains port, protocol, and tag information. The data is stored
  * in a map that can be accessed by other services.
+ *
+ * <p>
+ * At load time every tag is given a dense int id, with {@link #UNTAGGED_ID} reserved for
+ * "Untagged", and the table is compiled into one 65,536 entry array of tag ids per protocol
+ * number that appears in it. Resolving the tag of a record is then two array loads, tag names
+ * are only needed when counts are reported.
+ * </p>
+ *
+ * <p>
+ * Besides a single port, the port column may hold a range such as {@code 1024-65535} or
+ * {@code *} for every port, and the protocol column {@code *} for every protocol. Rows are
+ * compiled by {@link PortRules}, so lookups cost the same however many rules the table has, and
+ * a more specific row wins over a broader one it overlaps.
+ * </p>
+ *
+ * <p>
+ * With an index path, the compiled table is also written to a {@link LookupTableIndex}, and a
+ * later run whose CSV file and protocol names are unchanged maps the index instead of parsing the
+ * CSV file, serving lookups straight from the mapping.
+ * </p>
+ *
+ * <p>
+ * The compiled table is an immutable snapshot held in a volatile field. Once
+ * {@link #startReloading(long)} is called, the file is checked for changes in the background and
+ * a changed file is compiled into a new snapshot, which replaces the old one with a single
+ * write. Readers never take a lock: a record is tagged by whichever snapshot it reads. Tag ids
+ * are kept across reloads and new tags are appended, so ids counted under an older snapshot keep
+ * their names. Every snapshot has a version, and a
+ * {@link com.illumio.flowlog.orchestrate.CountingOrchestrate} counts its records per version,
+ * which separates the counts made under each version exactly. A reload whose
+ * file is empty, has a malformed row or too many tags is rejected and the previous snapshot stays
+ * in use.
+ * </p>
  */
 public class LookupTableLoader {
   private static final Logger logger = Logger.getLogger(LookupTableLoader.class.getName());
   static final String UNTAGGED = "Untagged";
-  Map<Map.Entry<Integer,String>,String> portProtocolTag;
+  public static final int UNTAGGED_ID = 0;
+  /** Number of bits a tag id takes, which bounds the number of tags. */
+  public static final int TAG_BITS = 16;
+  private static final int MAX_TAGS = 1 << TAG_BITS;
+  private static final int PORTS = PortRules.PORTS;
+  private static final int PROTOCOLS = PortRules.PROTOCOLS;
+  private static final String WILDCARD = "*";
+
+  private final Path csvFilePath;
+  private final Path indexPath;
+  private long protocolsHash;
+  private final Map<String, List<Integer>> protocolNumbersByName = new HashMap<>();
+  private volatile Snapshot snapshot;
+  private long loadedModified;
+  private long loadedSize;
+  private ScheduledExecutorService reloader;
   static LookupTableLoader instance;
 
   /**
-   * Private constructor that loads lookup table data from a CSV file and stores it in a map.
+   * Private constructor that loads lookup table data from a CSV file and compiles it into tag
+   * id arrays.
    *
    * @param csvFilePath the path to the CSV file containing port, protocol, and tag information.
+   * @param indexPath the path of the compiled index, null to always parse the CSV file.
+   * @param protocolNumberLoader the loader used to translate protocol keywords into numbers.
    * @throws MissingFileException if the file path is invalid or the file cannot be read.
    */
-  private LookupTableLoader(String csvFilePath) throws MissingFileException {
-    portProtocolTag = new HashMap<>();
-    try (Stream<String> stream = Files.lines(Paths.get(csvFilePath))) {
-
+  private LookupTableLoader(String csvFilePath, Path indexPath,
+      ProtocolNumberLoader protocolNumberLoader) throws MissingFileException {
+    this.csvFilePath = Paths.get(csvFilePath);
+    this.indexPath = indexPath;
+    indexProtocolNames(protocolNumberLoader);
+    try {
+      long modified = Files.getLastModifiedTime(this.csvFilePath).toMillis();
+      long size = Files.size(this.csvFilePath);
+      snapshot = indexPath == null
+          ? null : LookupTableIndex.read(indexPath, modified, size, protocolsHash);
+      if (snapshot != null) {
+        logger.info("Mapped the lookup table index " + indexPath);
+      } else {
+        snapshot = compile(null, false);
+        writeIndex(snapshot, modified, size);
+      }
+      loadedModified = modified;
+      loadedSize = size;
       logger.info("Successfully loaded the lookup table into the system");
-      //skipping the header line
-      stream.skip(1).filter(line->!line.trim().isEmpty()).forEach((line) -> {
-        String[] lookupData = line.split(",");
-        try {
-          int port = Integer.parseInt(lookupData[0]);
-          String protocol = lookupData[1]; //As per the email the data is in
-          Map.Entry<Integer,String> portProtocol = new SimpleEntry<>(port,protocol);
-          String tag = lookupData[2];
-          portProtocolTag.computeIfAbsent(portProtocol,(v)->tag);
-        }catch (NumberFormatException ex){
-          logger.finest("Skipping entry from lookup table for illegal format: "+ line );
-        }
-
-      });
-      logger.info("Successfully parsed the cvs file");
     } catch (IOException e) {
       logger.severe("Facing issues with reading the file, check file path");
       throw new MissingFileException("Lookup Table file path is incorrect or file does not exist");
+    } catch (IllegalArgumentException e) {
+      logger.severe(e.getMessage());
+      throw new MissingFileException("Lookup Table file can not be used: " + e.getMessage());
     }
   }
 
+  /**
+   * Builds the reverse mapping from the protocol keyword, exactly as the flow log side resolves
+   * it, to every protocol number carrying that keyword, and hashes the keywords so an index
+   * compiled with other keywords is not used.
+   */
+  private void indexProtocolNames(ProtocolNumberLoader protocolNumberLoader) {
+    for (int protocol = 0; protocol < PROTOCOLS; protocol++) {
+      try {
+        String name = protocolNumberLoader.getProtocol(protocol);
+        protocolsHash = protocolsHash * 31 + name.hashCode();
+        protocolNumbersByName.computeIfAbsent(name, (n) -> new ArrayList<>()).add(protocol);
+      } catch (InvalidProtocolNumberException e) {
+        //not reachable for 0-255
+      }
+    }
+  }
+
+  /**
+   * Reads the CSV file and compiles it into a snapshot.
+   *
+   * @param previous the snapshot whose tag ids are kept, null on the first load
+   * @param strict whether a missing header or a malformed row rejects the whole file instead of
+   *     skipping the row
+   * @return the new snapshot
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file has too many tags or, when strict, is malformed
+   */
+  private Snapshot compile(Snapshot previous, boolean strict) throws IOException {
+    PortRules rules = new PortRules();
+    List<String> tagNames = new ArrayList<>();
+    Map<String, Integer> tagIds = new HashMap<>();
+    if (previous == null) {
+      tagNames.add(UNTAGGED);
+      tagIds.put(UNTAGGED, UNTAGGED_ID);
+    } else {
+      tagNames.addAll(Arrays.asList(previous.tagNames));
+      tagIds.putAll(previous.tagIds);
+    }
+    List<String> lines = new ArrayList<>();
+    try (Stream<String> stream = Files.lines(csvFilePath)) {
+      stream.forEach(lines::add);
+    }
+    //a file being rewritten may be caught empty
+    if (strict && lines.isEmpty()) {
+      throw new IllegalArgumentException("Lookup table " + csvFilePath + " has no header");
+    }
+    //skipping the header line
+    for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      String[] lookupData = line.split(",");
+      try {
+        String port = lookupData[0].trim();
+        String protocol = lookupData[1]; //As per the email the data is in
+        String tag = lookupData[2];
+        int first = 0;
+        int last = PORTS - 1;
+        if (!port.equals(WILDCARD)) {
+          int dash = port.indexOf('-', 1);
+          first = Integer.parseInt(dash > 0 ? port.substring(0, dash) : port);
+          last = dash > 0 ? Integer.parseInt(port.substring(dash + 1)) : first;
+          if (first > last) {
+            throw new NumberFormatException("Port range " + port + " ends before it starts");
+          }
+        }
+        //ports outside 0-65535 are dropped from the rule
+        int low = Math.max(0, first);
+        int high = Math.min(PORTS - 1, last);
+        List<Integer> protocolNumbers = protocol.equals(WILDCARD)
+            ? null : protocolNumbersByName.get(protocol);
+        if (low > high || (protocolNumbers == null && !protocol.equals(WILDCARD))) {
+          logger.finest("Skipping entry from lookup table that no flow log can match: " + line);
+          continue;
+        }
+        int tagId = tagIds.computeIfAbsent(tag, (t) -> {
+          tagNames.add(t);
+          return tagNames.size() - 1;
+        });
+        if (tagNames.size() > MAX_TAGS) {
+          throw new IllegalArgumentException("Lookup table " + csvFilePath + " has more than "
+              + MAX_TAGS + " tags, counting every tag since the first load");
+        }
+        rules.add(low, high, protocolNumbers, tagId);
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+        if (strict) {
+          throw new IllegalArgumentException("Lookup table " + csvFilePath
+              + " has an entry of illegal format: " + line);
+        }
+        logger.finest("Skipping entry from lookup table for illegal format: " + line);
+      }
+    }
+    logger.info("Successfully parsed the cvs file");
+    return new Snapshot(previous == null ? 1 : previous.version + 1, rules.compile(),
+        tagNames.toArray(new String[0]), tagIds);
+  }
+
   /**
    * Returns the singleton instance of LookupTableLoader, loading the lookup table from
    * the specified CSV file if the instance has not already been initialized.
    *
    * @param path the path to the CSV file.
+   * @param protocolNumberLoader the loader used to translate protocol keywords into numbers.
    * @return the singleton instance of LookupTableLoader.
    * @throws MissingFileException if the file cannot be found or read.
    */
-  public static LookupTableLoader getInstance(String path) throws MissingFileException {
+  public static LookupTableLoader getInstance(String path,
+      ProtocolNumberLoader protocolNumberLoader) throws MissingFileException {
+    return getInstance(path, null, protocolNumberLoader);
+  }
+
+  /**
+   * Returns the singleton instance of LookupTableLoader, mapping the compiled index if it is
+   * current and otherwise loading the lookup table from the CSV file and writing the index.
+   *
+   * @param path the path to the CSV file.
+   * @param indexPath the path of the compiled index, null or empty to always parse the CSV file.
+   * @param protocolNumberLoader the loader used to translate protocol keywords into numbers.
+   * @return the singleton instance of LookupTableLoader.
+   * @throws MissingFileException if the file cannot be found or read.
+   */
+  public static synchronized LookupTableLoader getInstance(String path, String indexPath,
+      ProtocolNumberLoader protocolNumberLoader) throws MissingFileException {
     if(instance == null){
-      instance =  new LookupTableLoader(path);
+      instance =  new LookupTableLoader(path,
+          indexPath == null || indexPath.trim().isEmpty() ? null : Paths.get(indexPath.trim()),
+          protocolNumberLoader);
     }
     return instance;
   }
 
+  /**
+   * Writes the index of a snapshot, a failure only costs the next run a parse of the CSV file.
+   */
+  private void writeIndex(Snapshot compiled, long modified, long size) {
+    if (indexPath == null) {
+      return;
+    }
+    try {
+      LookupTableIndex.write(indexPath, compiled, modified, size, protocolsHash);
+      logger.info("Wrote the lookup table index " + indexPath);
+    } catch (IOException e) {
+      logger.warning("Not able to write the lookup table index " + indexPath + ": "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Checks the file for changes every interval on a daemon thread and reloads it when its
+   * modification time or size changed. Calling it again has no effect.
+   *
+   * @param intervalSeconds the seconds between two checks, at least 1
+   */
+  public synchronized void startReloading(long intervalSeconds) {
+    if (reloader != null) {
+      return;
+    }
+    reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "lookup-table-reloader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reloader.scheduleWithFixedDelay(this::reloadIfChanged, intervalSeconds, intervalSeconds,
+        TimeUnit.SECONDS);
+    logger.info("Checking " + csvFilePath + " for changes every " + intervalSeconds + " seconds");
+  }
+
+  /**
+   * Stops checking the file for changes.
+   */
+  public synchronized void stopReloading() {
+    if (reloader != null) {
+      reloader.shutdownNow();
+      reloader = null;
+    }
+  }
+
+  private synchronized void reloadIfChanged() {
+    try {
+      long modified = Files.getLastModifiedTime(csvFilePath).toMillis();
+      long size = Files.size(csvFilePath);
+      if (modified != loadedModified || size != loadedSize) {
+        reload();
+      }
+    } catch (IOException e) {
+      logger.warning("Not able to check lookup table " + csvFilePath + " for changes: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Compiles the file into a new snapshot and publishes it. Reloads are serialized with each
+   * other, but never block readers.
+   *
+   * @return whether the new snapshot was published, false if the file could not be read or is
+   *     malformed, in which case the previous snapshot stays in use
+   */
+  public synchronized boolean reload() {
+    Snapshot previous = snapshot;
+    try {
+      long modified = Files.getLastModifiedTime(csvFilePath).toMillis();
+      long size = Files.size(csvFilePath);
+      //remember the file even if it is rejected, so the same broken file is not parsed again
+      loadedModified = modified;
+      loadedSize = size;
+      Snapshot next = compile(previous, true);
+      snapshot = next;
+      writeIndex(next, modified, size);
+      logger.info("Published lookup table version " + next.version + " with "
+          + next.tagNames.length + " tags, replacing version " + previous.version);
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warning("Keeping lookup table version " + previous.version + ", not able to reload "
+          + csvFilePath + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * @return the version of the snapshot in use, 1 for the first load and one more per reload
+   */
+  public int getVersion() {
+    return snapshot.version;
+  }
+
+  /**
+   * Returns the snapshot in use. A caller needing its version and the tags of a record to agree
+   * reads both from the one snapshot returned here, since a reload may publish another between
+   * two calls of this loader.
+   *
+   * @return the snapshot in use
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
   /**
    * Retrieves the tag for a given port and protocol combination from the loaded lookup table.
    *
@@ -76,7 +358,91 @@ public class LookupTableLoader {
    * @return the tag associated with the port and protocol, or "Untagged" if the combination is not found.
    */
   public String getTag(int port, String protocol){
-    return portProtocolTag.getOrDefault(new SimpleEntry<>(port,protocol),UNTAGGED);
+    List<Integer> protocolNumbers = protocolNumbersByName.get(protocol);
+    if (protocolNumbers == null) {
+      return UNTAGGED;
+    }
+    return getTagName(getTagId(port, protocolNumbers.get(0)));
+  }
+
+  /**
+   * Retrieves the tag id for a given port and protocol number.
+   *
+   * @param port the port number to look up.
+   * @param protocol the protocol number to look up, between 0 and 255.
+   * @return the tag id, or {@link #UNTAGGED_ID} if the combination is not found.
+   */
+  public int getTagId(int port, int protocol) {
+    return snapshot.getTagId(port, protocol);
+  }
+
+  /**
+   * Retrieves the tag name for a tag id.
+   *
+   * @param tagId an id returned by {@link #getTagId(int, int)}, under this or an older snapshot.
+   * @return the tag name.
+   */
+  public String getTagName(int tagId) {
+    return snapshot.tagNames[tagId];
+  }
+
+  /**
+   * Retrieves the tag id for a tag name.
+   *
+   * @param tag the tag name.
+   * @return the tag id, or -1 if the lookup table has no such tag.
+   */
+  public int findTagId(String tag) {
+    return snapshot.tagIds.getOrDefault(tag, -1);
+  }
+
+  /**
+   * @return the number of tag ids, including the id of "Untagged".
+   */
+  public int getTagCount() {
+    return snapshot.tagNames.length;
+  }
+
+  /**
+   * One compiled version of the lookup table, never changed once published.
+   */
+  public static final class Snapshot {
+    final int version;
+    /** Tag ids indexed by protocol number and then port, null for protocols without entries. */
+    final CharBuffer[] tagIdsByProtocol;
+    final String[] tagNames;
+    final Map<String, Integer> tagIds;
+
+    Snapshot(int version, CharBuffer[] tagIdsByProtocol, String[] tagNames,
+        Map<String, Integer> tagIds) {
+      this.version = version;
+      this.tagIdsByProtocol = tagIdsByProtocol;
+      this.tagNames = tagNames;
+      this.tagIds = tagIds;
+    }
+
+    /**
+     * @return the version of this snapshot, 1 for the first load and one more per reload
+     */
+    public int getVersion() {
+      return version;
+    }
+
+    /**
+     * Retrieves the tag id for a given port and protocol number under this snapshot.
+     *
+     * @param port the port number to look up.
+     * @param protocol the protocol number to look up, between 0 and 255.
+     * @return the tag id, or {@link LookupTableLoader#UNTAGGED_ID} if the combination is not
+     *     found.
+     */
+    public int getTagId(int port, int protocol) {
+      CharBuffer ports = tagIdsByProtocol[protocol];
+      if (ports == null || port < 0 || port >= PORTS) {
+        return UNTAGGED_ID;
+      }
+      return ports.get(port);
+    }
   }
 
 }
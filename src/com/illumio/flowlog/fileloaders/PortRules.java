@@ -0,0 +1,127 @@
+package com.illumio.flowlog.fileloaders;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PortRules collects the rows of a lookup table as rules over a port range and a set of protocol
+ * numbers, or every protocol, and compiles them into one flat table of tag ids per protocol. A
+ * tag id takes two bytes, so a table takes 128 KB.
+ *
+ * <p>
+ * When rules overlap, a rule naming its protocol beats a rule for every protocol, then the rule
+ * with fewer ports wins, then the earlier row. Rules are painted in that order and every table
+ * keeps the next port not painted yet, so each port is written once however many rules cover
+ * it: compiling takes {@code O(r log r)} for r rules plus {@code O(65,536)} per table. Protocols
+ * without a rule of their own share the table of the rules for every protocol.
+ * </p>
+ */
+class PortRules {
+
+  static final int PORTS = 65536;
+  static final int PROTOCOLS = 256;
+
+  private static final Comparator<Rule> PRECEDENCE = Comparator
+      .comparingInt((Rule rule) -> rule.protocols == null ? 1 : 0)
+      .thenComparingInt(rule -> rule.high - rule.low)
+      .thenComparingInt(rule -> rule.row);
+
+  private final List<Rule> rules = new ArrayList<>();
+
+  /**
+   * Adds a rule, rules added earlier win over rules of the same precedence.
+   *
+   * @param low the first port of the rule
+   * @param high the last port of the rule, at least low
+   * @param protocols the protocol numbers of the rule, null for every protocol
+   * @param tagId the tag id of the ports the rule matches
+   */
+  void add(int low, int high, List<Integer> protocols, int tagId) {
+    rules.add(new Rule(low, high, protocols, tagId, rules.size()));
+  }
+
+  /**
+   * @return tag ids indexed by protocol number and then port, null for protocols no rule matches.
+   *     Protocols sharing a table share the same buffer.
+   */
+  CharBuffer[] compile() {
+    rules.sort(PRECEDENCE);
+    Table[] tables = new Table[PROTOCOLS];
+    Table anyProtocol = null;
+    for (Rule rule : rules) {
+      if (rule.protocols != null) {
+        for (int protocol : rule.protocols) {
+          if (tables[protocol] == null) {
+            tables[protocol] = new Table();
+          }
+          tables[protocol].paint(rule.low, rule.high, rule.tagId);
+        }
+        continue;
+      }
+      //every protocol specific rule is painted already, these only fill what they left
+      if (anyProtocol == null) {
+        anyProtocol = new Table();
+      }
+      anyProtocol.paint(rule.low, rule.high, rule.tagId);
+      for (Table table : tables) {
+        if (table != null) {
+          table.paint(rule.low, rule.high, rule.tagId);
+        }
+      }
+    }
+    CharBuffer anyTagIds = anyProtocol == null ? null : CharBuffer.wrap(anyProtocol.tagIds);
+    CharBuffer[] tagIdsByProtocol = new CharBuffer[PROTOCOLS];
+    for (int protocol = 0; protocol < PROTOCOLS; protocol++) {
+      tagIdsByProtocol[protocol] = tables[protocol] != null
+          ? CharBuffer.wrap(tables[protocol].tagIds) : anyTagIds;
+    }
+    return tagIdsByProtocol;
+  }
+
+  private static final class Rule {
+    private final int low;
+    private final int high;
+    private final List<Integer> protocols;
+    private final int tagId;
+    private final int row;
+
+    private Rule(int low, int high, List<Integer> protocols, int tagId, int row) {
+      this.low = low;
+      this.high = high;
+      this.protocols = protocols;
+      this.tagId = tagId;
+      this.row = row;
+    }
+  }
+
+  /** The tag ids of one protocol, with the ports painted so far skipped in near constant time. */
+  private static final class Table {
+    private final char[] tagIds = new char[PORTS];
+    /** next[port] leads to the first port at or after it that is not painted, PORTS if none. */
+    private final int[] next = new int[PORTS + 1];
+
+    private Table() {
+      for (int port = 0; port <= PORTS; port++) {
+        next[port] = port;
+      }
+    }
+
+    private void paint(int low, int high, int tagId) {
+      for (int port = unpainted(low); port <= high; port = unpainted(port + 1)) {
+        tagIds[port] = (char) tagId;
+        next[port] = port + 1;
+      }
+    }
+
+    private int unpainted(int port) {
+      while (next[port] != port) {
+        //path halving keeps later searches short
+        next[port] = next[next[port]];
+        port = next[port];
+      }
+      return port;
+    }
+  }
+}
@@ -71,4 +71,15 @@ public class ProtocolNumberLoader {
     return mapper[protocol]!=null?mapper[protocol]:String.valueOf(protocol);
   }
 
+  /**
+   * Retrieves the keyword of a protocol number without formatting numbers as a fallback.
+   *
+   * @param protocol the protocol number, between 0 and 255.
+   * @return the keyword, or null if the protocol number has none.
+   */
+  public String getKeyword(int protocol) {
+    String keyword = mapper[protocol];
+    return keyword == null || keyword.isEmpty() ? null : keyword;
+  }
+
 }
@@ -0,0 +1,117 @@
+package com.illumio.flowlog.format;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FieldExtractor locates a few columns of a space separated flow log line in its raw bytes.
+ *
+ * <p>
+ * It is compiled from a {@link FlowLogFormat} into a table mapping every column up to the last
+ * wanted one to its slot, so a line is scanned only until that column ends and the columns after
+ * it are never looked at. The spans of the wanted columns are kept in fields so that locating
+ * does not allocate. An extractor is not thread safe, every parser has its own.
+ * </p>
+ */
+public final class FieldExtractor {
+
+  private static final byte SPACE = ' ';
+
+  private final int[] columns;
+  private final int[] slotOfColumn;
+  private final int lastColumn;
+  private final int[] starts;
+  private final int[] ends;
+  private int columnsSeen;
+
+  /**
+   * Constructs a FieldExtractor.
+   *
+   * @param columns the zero based column of every slot
+   */
+  FieldExtractor(int[] columns) {
+    this.columns = columns.clone();
+    int last = 0;
+    for (int column : columns) {
+      last = Math.max(last, column);
+    }
+    this.lastColumn = last;
+    this.slotOfColumn = new int[last + 1];
+    Arrays.fill(slotOfColumn, -1);
+    for (int slot = 0; slot < columns.length; slot++) {
+      slotOfColumn[columns[slot]] = slot;
+    }
+    this.starts = new int[columns.length];
+    this.ends = new int[columns.length];
+  }
+
+  /**
+   * Records the spans of the wanted columns of a line, stopping once the last of them is complete.
+   *
+   * @param buffer the buffer holding the line
+   * @param start the absolute index of the first byte of the line
+   * @param end the absolute index after the last byte of the line
+   */
+  public void locate(ByteBuffer buffer, int start, int end) {
+    int column = 0;
+    int fieldStart = start;
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == SPACE) {
+        int slot = slotOfColumn[column];
+        if (slot >= 0) {
+          starts[slot] = fieldStart;
+          ends[slot] = i;
+        }
+        if (column == lastColumn) {
+          columnsSeen = column + 1;
+          return;
+        }
+        column++;
+        fieldStart = i + 1;
+      }
+    }
+    int slot = slotOfColumn[column];
+    if (slot >= 0) {
+      starts[slot] = fieldStart;
+      ends[slot] = end;
+    }
+    columnsSeen = column + 1;
+  }
+
+  /**
+   * Mirrors {@code line.split(" ")}, which drops trailing empty fields: a column only exists if
+   * it, or anything after it on the line, is not a delimiter.
+   *
+   * @param buffer the buffer holding the line located last
+   * @param slot the slot of the column
+   * @param end the absolute index after the last byte of the line
+   * @return whether {@code split} would have produced the column
+   */
+  public boolean exists(ByteBuffer buffer, int slot, int end) {
+    if (columnsSeen <= columns[slot]) {
+      return false;
+    }
+    for (int i = starts[slot]; i < end; i++) {
+      if (buffer.get(i) != SPACE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param slot the slot of the column
+   * @return the absolute index of the first byte of the column in the line located last
+   */
+  public int start(int slot) {
+    return starts[slot];
+  }
+
+  /**
+   * @param slot the slot of the column
+   * @return the absolute index after the last byte of the column in the line located last
+   */
+  public int end(int slot) {
+    return ends[slot];
+  }
+}
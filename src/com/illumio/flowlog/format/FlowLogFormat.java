@@ -0,0 +1,132 @@
+package com.illumio.flowlog.format;
+
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * FlowLogFormat describes the columns of a flow log record, written in the AWS syntax as space
+ * separated {@code ${field}} names, for example {@code ${version} ${account-id} ... ${log-status}}.
+ *
+ * <p>
+ * The format is compiled once into the column index of every field. Parsers ask it for a
+ * {@link FieldExtractor} of the fields they need, which only scans a line up to the last of those
+ * columns. The configured format is kept as a singleton like the loaders; until one is configured
+ * the default version 2 format is used.
+ * </p>
+ */
+public final class FlowLogFormat {
+
+  /** The default version 2 flow log format. */
+  public static final String DEFAULT_FORMAT = "${version} ${account-id} ${interface-id} ${srcaddr} "
+      + "${dstaddr} ${srcport} ${dstport} ${protocol} ${packets} ${bytes} ${start} ${end} "
+      + "${action} ${log-status}";
+
+  public static final String DST_PORT = "dstport";
+  public static final String PROTOCOL = "protocol";
+
+  private static final Pattern FIELD = Pattern.compile("\\$\\{([a-z0-9-]+)}");
+  private static final Logger logger = Logger.getLogger(FlowLogFormat.class.getName());
+  private static FlowLogFormat instance;
+
+  private final List<String> fields;
+
+  private FlowLogFormat(List<String> fields) {
+    this.fields = Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * Compiles a format definition.
+   *
+   * @param format space separated {@code ${field}} names
+   * @return the compiled format
+   * @throws IllegalArgumentException if a column is not a {@code ${field}}, a field is repeated or
+   *     the destination port or protocol is missing
+   */
+  public static FlowLogFormat compile(String format) {
+    List<String> fields = new ArrayList<>();
+    for (String column : format.trim().split("\\s+")) {
+      Matcher matcher = FIELD.matcher(column);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Flow log format column " + column + " is not a ${field}");
+      }
+      String field = matcher.group(1);
+      if (fields.contains(field)) {
+        throw new IllegalArgumentException("Flow log format repeats field " + field);
+      }
+      fields.add(field);
+    }
+    if (!fields.contains(DST_PORT) || !fields.contains(PROTOCOL)) {
+      throw new IllegalArgumentException("Flow log format needs ${" + DST_PORT + "} and ${"
+          + PROTOCOL + "}");
+    }
+    return new FlowLogFormat(fields);
+  }
+
+  /**
+   * Gets the configured format, compiling the format in the properties if it hasn't been
+   * configured yet. A missing property selects the default format.
+   *
+   * @param properties the application properties
+   * @return the singleton instance of FlowLogFormat
+   * @throws IllegalArgumentException if the configured format is not valid
+   */
+  public static synchronized FlowLogFormat getInstance(CustomProperties properties) {
+    if (instance == null) {
+      String format = properties.getProperty(Constants.FLOW_LOG_FORMAT, "").trim();
+      instance = compile(format.isEmpty() ? DEFAULT_FORMAT : format);
+      logger.info("Using flow log format with " + instance.fields.size() + " fields");
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the configured format, or the default format if none has been configured.
+   *
+   * @return the singleton instance of FlowLogFormat
+   */
+  public static synchronized FlowLogFormat getInstance() {
+    if (instance == null) {
+      instance = compile(DEFAULT_FORMAT);
+    }
+    return instance;
+  }
+
+  /**
+   * @param field the field name, without {@code ${}}
+   * @return the zero based column of the field, or -1 if the format does not contain it
+   */
+  public int columnOf(String field) {
+    return fields.indexOf(field);
+  }
+
+  /**
+   * @return the field names in column order
+   */
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Creates an extractor locating the given fields, which must all be part of the format.
+   *
+   * @param wanted the fields to locate, their position is the slot passed to the extractor
+   * @return a new extractor, to be used by a single thread
+   * @throws IllegalArgumentException if a field is not part of the format
+   */
+  public FieldExtractor extractor(String... wanted) {
+    int[] columns = new int[wanted.length];
+    for (int slot = 0; slot < wanted.length; slot++) {
+      columns[slot] = columnOf(wanted[slot]);
+      if (columns[slot] < 0) {
+        throw new IllegalArgumentException("Flow log format has no field " + wanted[slot]);
+      }
+    }
+    return new FieldExtractor(columns);
+  }
+}
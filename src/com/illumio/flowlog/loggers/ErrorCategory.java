@@ -0,0 +1,48 @@
+package com.illumio.flowlog.loggers;
+
+/**
+ * ErrorCategory groups the errors written to the error log. Errors of a rolled up category are
+ * only written line by line up to a limit, after that they are just counted and reported as a
+ * total when the logger is closed. Each category but the general one is recognized by the start
+ * of its messages, so the error log of a worker can be counted again by the coordinator.
+ */
+public enum ErrorCategory {
+  /** Port or protocol column is not an integer. */
+  NON_INTEGER(true, "Skipping Line because of port or protocol are not integer"),
+  /** Protocol number outside of 0-255. */
+  PROTOCOL_OUT_OF_RANGE(true, "Skipping Line because protocol number is not in range"),
+  /** Line has fewer columns than the flow log format requires. */
+  SHORT_LINE(true, "Skipping Line because flow log is not in correct format"),
+  /** Line is too long to be a flow log record. */
+  LINE_TOO_LONG(true, "Skipping bytes because line is longer than"),
+  /** Everything else, such as missing files, always written. */
+  GENERAL(false, null);
+
+  private final boolean rolledUp;
+  private final String messageStart;
+
+  ErrorCategory(boolean rolledUp, String messageStart) {
+    this.rolledUp = rolledUp;
+    this.messageStart = messageStart;
+  }
+
+  /**
+   * @param message a message written to an error log
+   * @return the category whose messages start like it, {@link #GENERAL} if there is none
+   */
+  public static ErrorCategory of(String message) {
+    for (ErrorCategory category : values()) {
+      if (category.messageStart != null && message.startsWith(category.messageStart)) {
+        return category;
+      }
+    }
+    return GENERAL;
+  }
+
+  /**
+   * @return whether repeated errors of this category are counted instead of written
+   */
+  public boolean isRolledUp() {
+    return rolledUp;
+  }
+}
@@ -1,44 +1,136 @@
 package com.illumio.flowlog.loggers;
 
-import java.io.File;
-import java.io.FileWriter;
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The ErrorLogger class is a singleton utility for logging error messages to a specified file.
  *
- * <p>This class provides a thread-safe mechanism to log error messages, ensuring that
- * all logs are appended to the same file. The logger can be initialized with a file path
- * and will create the file if it does not exist.</p>
+ * <p>This class is thread-safe and does not block callers on file I/O. Messages are put on a
+ * bounded queue and a single background thread drains it in batches into one open buffered
+ * writer, appending to the same file. What happens when the queue is full is decided by the
+ * {@link OverflowPolicy}. The file is created when the first message is written.</p>
+ *
+ * <p>Errors of a rolled up {@link ErrorCategory} are written line by line only up to a per
+ * category limit, later ones are counted. The counts of suppressed and dropped messages are
+ * appended as a summary when the logger is closed, which also flushes every queued message.</p>
  */
 
 public class ErrorLogger {
 
+  private static final Logger logger = Logger.getLogger(ErrorLogger.class.getName());
+  private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+  private static final int DEFAULT_SAMPLE_RATE = 100;
+  private static final int DEFAULT_CATEGORY_LIMIT = 1000;
+  private static final int BATCH_SIZE = 1024;
+  /** Marks the end of the queue, compared by identity. */
+  private static final String END = new String("END");
+  private static final Pattern SUPPRESSED = Pattern.compile(
+      "Suppressed \\d+ further errors of category (\\w+) \\|\\| Total: (\\d+)");
+  private static final Pattern DROPPED = Pattern.compile(
+      "Dropped (\\d+) errors because the error log queue was full");
+
   private static ErrorLogger instance;
-  private static String errorFilePath;
+  private final String errorFilePath;
+  private final BlockingQueue<String> queue;
+  private final OverflowPolicy overflowPolicy;
+  private final int sampleRate;
+  private final long categoryLimit;
+  private final AtomicLongArray categoryCounts = new AtomicLongArray(ErrorCategory.values().length);
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong overflowed = new AtomicLong();
+  //callers between the check of closed and the end of their put, waited for by close
+  private final AtomicInteger enqueuing = new AtomicInteger();
+  private final Thread writerThread;
+  private final Thread shutdownHook = new Thread(this::close, "error-logger-shutdown");
+  private volatile boolean closed;
+  private BufferedWriter writer;
+  private boolean failed;
 
   /**
-   * Private constructor to initialize the ErrorLogger with the specified file path.
+   * Private constructor to initialize the ErrorLogger with the specified file path and start
+   * the background writer.
    *
    * @param errorFilePath the file path where error messages will be logged.
+   * @param queueCapacity the number of messages that can wait for the writer.
+   * @param overflowPolicy what to do with messages when the queue is full.
+   * @param sampleRate for {@link OverflowPolicy#SAMPLE}, one in this many overflowing messages is kept.
+   * @param categoryLimit messages written per rolled up category, 0 writes all of them.
    */
 
-  private ErrorLogger(String errorFilePath){
+  private ErrorLogger(String errorFilePath, int queueCapacity, OverflowPolicy overflowPolicy,
+      int sampleRate, long categoryLimit){
     this.errorFilePath = errorFilePath;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    this.overflowPolicy = overflowPolicy;
+    this.sampleRate = Math.max(1, sampleRate);
+    this.categoryLimit = categoryLimit;
+    writerThread = new Thread(this::drain, "error-logger");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
   }
 
   /**
    * Gets the singleton instance of the ErrorLogger, initializing it with the given file path
-   * if it hasn't been initialized yet.
+   * and default queue settings if it hasn't been initialized yet.
    *
    * @param errorFilePath the file path to log error messages.
    * @return the singleton instance of ErrorLogger.
    */
-  public static ErrorLogger getInstance(String errorFilePath){
+  public static synchronized ErrorLogger getInstance(String errorFilePath){
     if(instance == null){
-      instance =  new ErrorLogger(errorFilePath);
+      instance =  new ErrorLogger(errorFilePath, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK,
+          DEFAULT_SAMPLE_RATE, DEFAULT_CATEGORY_LIMIT);
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the singleton instance of the ErrorLogger, initializing it with the given file path
+   * and the queue settings from the properties if it hasn't been initialized yet.
+   *
+   * @param errorFilePath the file path to log error messages.
+   * @param properties the application properties holding the queue settings.
+   * @return the singleton instance of ErrorLogger.
+   */
+  public static synchronized ErrorLogger getInstance(String errorFilePath,
+      CustomProperties properties) {
+    if (instance == null) {
+      OverflowPolicy policy = OverflowPolicy.BLOCK;
+      String configured = properties.getProperty(Constants.ERROR_LOG_OVERFLOW);
+      if (configured != null && !configured.trim().isEmpty()) {
+        try {
+          policy = OverflowPolicy.valueOf(configured.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+          logger.warning("Unknown error log overflow policy " + configured + ", using block");
+        }
+      }
+      instance = new ErrorLogger(errorFilePath,
+          properties.getInt(Constants.ERROR_LOG_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY), policy,
+          properties.getInt(Constants.ERROR_LOG_SAMPLE_RATE, DEFAULT_SAMPLE_RATE),
+          properties.getInt(Constants.ERROR_LOG_CATEGORY_LIMIT, DEFAULT_CATEGORY_LIMIT));
     }
     return instance;
   }
@@ -57,22 +149,225 @@ public class ErrorLogger {
   }
 
   /**
-   * Logs an error message to the specified file.
+   * Logs an error message to the specified file. Such messages are never rolled up.
    *
    * @param message the error message to be logged.
    */
   public void logError(String message){
+    enqueue(message);
+  }
+
+  /**
+   * Logs an error of the given category. The message is only built if it is going to be written,
+   * so rolled up errors cost a counter increment.
+   *
+   * @param category the category of the error.
+   * @param message supplies the error message to be logged.
+   */
+  public void logError(ErrorCategory category, Supplier<String> message) {
+    long count = categoryCounts.incrementAndGet(category.ordinal());
+    if (category.isRolledUp() && categoryLimit > 0 && count > categoryLimit) {
+      return;
+    }
+    enqueue(message.get());
+  }
+
+  /**
+   * Logs the errors of an error log written by another ErrorLogger, such as that of a worker
+   * process. Each line is logged again in the category it starts like, so the per category limits
+   * apply to all logs together, and the summary lines of the other log are not copied but added
+   * to the counts of this one, so a single summary covers them all.
+   *
+   * @param errorLog the error log, a missing file holds no errors.
+   * @throws IOException if the error log can not be read.
+   */
+  public void append(Path errorLog) throws IOException {
+    long[] copied = new long[ErrorCategory.values().length];
+    long[] totals = new long[ErrorCategory.values().length];
+    try (BufferedReader reader = Files.newBufferedReader(errorLog, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher summary = SUPPRESSED.matcher(line);
+        Matcher drops = DROPPED.matcher(line);
+        if (summary.matches()) {
+          totals[ErrorCategory.valueOf(summary.group(1)).ordinal()] =
+              Long.parseLong(summary.group(2));
+        } else if (drops.matches()) {
+          dropped.addAndGet(Long.parseLong(drops.group(1)));
+        } else {
+          String message = line;
+          ErrorCategory category = ErrorCategory.of(message);
+          copied[category.ordinal()]++;
+          logError(category, () -> message);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      //the other logger did not log any error
+    }
+    for (ErrorCategory category : ErrorCategory.values()) {
+      //errors the other logger only counted
+      long suppressed = totals[category.ordinal()] - copied[category.ordinal()];
+      if (suppressed > 0) {
+        categoryCounts.addAndGet(category.ordinal(), suppressed);
+      }
+    }
+  }
+
+  /**
+   * @param category the category of the error.
+   * @return the number of errors logged in the category, written or not.
+   */
+  public long getCount(ErrorCategory category) {
+    return categoryCounts.get(category.ordinal());
+  }
+
+  private void enqueue(String message) {
+    enqueuing.incrementAndGet();
     try {
-      File logFile = new File(errorFilePath);
-      if(!logFile.exists()){
-        logFile.createNewFile();
+      if (closed) {
+        dropped.incrementAndGet();
+        return;
       }
-      try (Writer writer = new FileWriter(errorFilePath, true)) {
-        PrintWriter printWriter = new PrintWriter(writer);
-        printWriter.println(message);
+      put(message);
+    } finally {
+      enqueuing.decrementAndGet();
+    }
+  }
+
+  private void put(String message) {
+    if (queue.offer(message)) {
+      return;
+    }
+    if (overflowPolicy == OverflowPolicy.DROP
+        || (overflowPolicy == OverflowPolicy.SAMPLE
+        && overflowed.getAndIncrement() % sampleRate != 0)) {
+      dropped.incrementAndGet();
+      return;
+    }
+    try {
+      queue.put(message);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Leaves closing the logger to the caller. Shutdown hooks run concurrently, so a caller whose
+   * own hook still logs errors, such as draining a followed flow log, takes this over and calls
+   * {@link #close()} at the end of its hook instead of racing the hook of the logger.
+   */
+  public void closeOnlyExplicitly() {
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      //already shutting down, the hook of the logger is running
+    }
+  }
+
+  /**
+   * Flushes every queued message, appends the summary of rolled up and dropped messages and
+   * stops the background writer. Later messages are dropped. Callers that got past the check
+   * before it are waited for, the writer draining the queue meanwhile, so no message is put
+   * behind the end marker. Calling it again has no effect.
+   */
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    try {
+      while (enqueuing.get() > 0) {
+        LockSupport.parkNanos(100000L);
+      }
+      queue.put(END);
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Body of the background writer, writes batches until the end marker is taken.
+   */
+  private void drain() {
+    List<String> batch = new ArrayList<>(BATCH_SIZE);
+    boolean end = false;
+    try {
+      while (!end) {
+        batch.add(queue.take());
+        queue.drainTo(batch, BATCH_SIZE - 1);
+        for (String message : batch) {
+          if (message == END) {
+            end = true;
+          } else {
+            write(message);
+          }
+        }
+        batch.clear();
+        if (queue.isEmpty()) {
+          flush();
+        }
+      }
+      writeSummary();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        if (writer != null) {
+          writer.close();
+        }
+      } catch (IOException e) {
+        logger.severe("Not able to close error log " + errorFilePath);
+      }
+    }
+  }
+
+  private void writeSummary() {
+    for (ErrorCategory category : ErrorCategory.values()) {
+      long suppressed = categoryCounts.get(category.ordinal()) - categoryLimit;
+      if (category.isRolledUp() && categoryLimit > 0 && suppressed > 0) {
+        write("Suppressed " + suppressed + " further errors of category " + category
+            + " || Total: " + categoryCounts.get(category.ordinal()));
+      }
+    }
+    if (dropped.get() > 0) {
+      write("Dropped " + dropped.get() + " errors because the error log queue was full");
+    }
+  }
+
+  /**
+   * Writes one message. After a write failure the writer keeps draining the queue, so blocked
+   * callers are released, but discards what it takes.
+   */
+  private void write(String message) {
+    if (failed) {
+      return;
+    }
+    try {
+      if (writer == null) {
+        writer = Files.newBufferedWriter(Paths.get(errorFilePath), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
       }
-    }catch (IOException e) {
-      throw new RuntimeException(e);
+      writer.write(message);
+      writer.newLine();
+    } catch (IOException e) {
+      failed = true;
+      logger.severe("Not able to write to error log " + errorFilePath + ": " + e.getMessage());
+    }
+  }
+
+  private void flush() {
+    if (writer == null || failed) {
+      return;
+    }
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      failed = true;
+      logger.severe("Not able to write to error log " + errorFilePath + ": " + e.getMessage());
     }
   }
 
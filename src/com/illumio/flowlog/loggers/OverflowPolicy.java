@@ -0,0 +1,13 @@
+package com.illumio.flowlog.loggers;
+
+/**
+ * OverflowPolicy decides what the {@link ErrorLogger} does when its queue is full.
+ */
+public enum OverflowPolicy {
+  /** Wait until the writer has made room, nothing is lost. */
+  BLOCK,
+  /** Drop the message and count it. */
+  DROP,
+  /** Keep one out of every n overflowing messages, waiting for room, and count the rest. */
+  SAMPLE
+}
@@ -0,0 +1,71 @@
+package com.illumio.flowlog.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in nanoseconds into power of two buckets.
+ *
+ * <p>
+ * Every bucket is a striped {@link LongAdder}, so recording from many threads takes no lock and
+ * rarely contends. Percentiles are reported as the upper bound of the bucket they fall in, which
+ * is within a factor of two of the real value.
+ * </p>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 64;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Constructs an empty LatencyHistogram.
+   */
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records one duration.
+   *
+   * @param nanos the duration in nanoseconds, negative values count as 0
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    buckets[value == 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(value)].increment();
+    count.increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * @return a consistent enough copy of the current state, taken without stopping writers
+   */
+  public LatencySnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long samples = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      samples += counts[i];
+    }
+    return new LatencySnapshot(samples, samples == 0 ? 0 : total.sum() / samples,
+        percentile(counts, samples, 0.50), percentile(counts, samples, 0.99), max.get());
+  }
+
+  private static long percentile(long[] counts, long samples, double quantile) {
+    long rank = (long) Math.ceil(samples * quantile);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+      }
+    }
+    return 0;
+  }
+}
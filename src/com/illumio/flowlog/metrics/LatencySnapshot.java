@@ -0,0 +1,60 @@
+package com.illumio.flowlog.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * LatencySnapshot is the summary of a {@link LatencyHistogram} exposed over JMX, all values are
+ * in nanoseconds.
+ */
+public class LatencySnapshot {
+
+  private final long count;
+  private final long mean;
+  private final long p50;
+  private final long p99;
+  private final long max;
+
+  /**
+   * Constructs a LatencySnapshot.
+   *
+   * @param count the number of recorded durations
+   * @param mean the mean duration
+   * @param p50 the bucket bound of the median
+   * @param p99 the bucket bound of the 99th percentile
+   * @param max the longest duration
+   */
+  @ConstructorProperties({"count", "mean", "p50", "p99", "max"})
+  public LatencySnapshot(long count, long mean, long p50, long p99, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p99 = p99;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMean() {
+    return mean;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + " mean=" + mean + "ns p50<=" + p50 + "ns p99<=" + p99 + "ns max="
+        + max + "ns";
+  }
+}
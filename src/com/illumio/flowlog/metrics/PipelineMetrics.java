@@ -0,0 +1,282 @@
+package com.illumio.flowlog.metrics;
+
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * PipelineMetrics is a singleton collecting runtime counters of the processing pipeline.
+ *
+ * <p>
+ * Counters are striped {@link LongAdder}s and the parser adds to them once per buffer rather
+ * than once per line. Per line latencies are only measured for one line in
+ * {@link #SAMPLE_INTERVAL}, so the hot path takes no lock and rarely reads the clock. Parse
+ * failures are read from the per category counts of the {@link ErrorLogger}. Once registered, a
+ * daemon thread derives lines/sec and MB/sec every second.
+ * </p>
+ *
+ * <p>
+ * A staged pipeline adds a {@link StageMetrics} per stage and supplies the depths of the queues
+ * between its stages, so the stage holding the others back can be seen while it runs.
+ * </p>
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+  /** One line in this many is timed, must be a power of two. */
+  public static final int SAMPLE_INTERVAL = 1024;
+  private static final String OBJECT_NAME = "com.illumio.flowlog:type=PipelineMetrics";
+  private static final double MEGABYTE = 1024 * 1024;
+  private static final Logger logger = Logger.getLogger(PipelineMetrics.class.getName());
+  private static final PipelineMetrics instance = new PipelineMetrics();
+
+  private final LongAdder linesRead = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder recordsCounted = new LongAdder();
+  private final LatencyHistogram readLatency = new LatencyHistogram();
+  private final LatencyHistogram parseLatency = new LatencyHistogram();
+  private final LatencyHistogram processLineLatency = new LatencyHistogram();
+  private final LatencyHistogram generateOutputLatency = new LatencyHistogram();
+  private final long started = System.nanoTime();
+  private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+  private volatile Supplier<Map<String, Integer>> distinctKeys = Collections::emptyMap;
+  private volatile Supplier<Map<String, Integer>> queueDepths = Collections::emptyMap;
+  private volatile double linesPerSecond;
+  private volatile double megabytesPerSecond;
+  private ScheduledExecutorService sampler;
+  private long lastLines;
+  private long lastBytes;
+  private long lastSample = started;
+
+  private PipelineMetrics() {
+  }
+
+  /**
+   * @return the singleton instance of PipelineMetrics
+   */
+  public static PipelineMetrics getInstance() {
+    return instance;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server and starts the rate sampler. Calling it
+   * again has no effect.
+   */
+  public synchronized void register() {
+    if (sampler != null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      logger.warning("Not able to register pipeline metrics with JMX: " + e.getMessage());
+    }
+    sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "pipeline-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampler.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+  }
+
+  private synchronized void sampleRates() {
+    long now = System.nanoTime();
+    long lines = linesRead.sum();
+    long bytes = bytesRead.sum();
+    double seconds = Math.max(1, now - lastSample) / 1e9;
+    linesPerSecond = (lines - lastLines) / seconds;
+    megabytesPerSecond = (bytes - lastBytes) / MEGABYTE / seconds;
+    lastLines = lines;
+    lastBytes = bytes;
+    lastSample = now;
+  }
+
+  /**
+   * Adds the totals of one parsed buffer.
+   *
+   * @param lines the lines parsed
+   * @param bytes the bytes consumed
+   * @param records the records counted
+   */
+  public void addParsed(long lines, long bytes, long records) {
+    linesRead.add(lines);
+    bytesRead.add(bytes);
+    recordsCounted.add(records);
+  }
+
+  /**
+   * Sets where the distinct key counts of the main orchestrator come from.
+   *
+   * @param distinctKeys supplies the number of keys per tracker
+   */
+  public void setDistinctKeys(Supplier<Map<String, Integer>> distinctKeys) {
+    this.distinctKeys = distinctKeys;
+  }
+
+  /**
+   * Sets where the depths of the queues between the stages of a pipeline come from.
+   *
+   * @param queueDepths supplies the number of batches waiting in each queue
+   */
+  public void setQueueDepths(Supplier<Map<String, Integer>> queueDepths) {
+    this.queueDepths = queueDepths;
+  }
+
+  /**
+   * Returns the metrics of a pipeline stage, adding them the first time the stage is named. A
+   * stage run again, such as by a later pipeline, adds to the same metrics.
+   *
+   * @param name the name of the stage
+   * @return the metrics of the stage
+   */
+  public StageMetrics stage(String name) {
+    synchronized (stages) {
+      return stages.computeIfAbsent(name, key -> new StageMetrics());
+    }
+  }
+
+  /** @return the histogram of reading or mapping one buffer */
+  public LatencyHistogram readLatency() {
+    return readLatency;
+  }
+
+  /** @return the histogram of parsing one line */
+  public LatencyHistogram parseLatency() {
+    return parseLatency;
+  }
+
+  /** @return the histogram of one processLine call */
+  public LatencyHistogram processLineLatency() {
+    return processLineLatency;
+  }
+
+  /** @return the histogram of generateOutput */
+  public LatencyHistogram generateOutputLatency() {
+    return generateOutputLatency;
+  }
+
+  @Override
+  public long getLinesRead() {
+    return linesRead.sum();
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  @Override
+  public long getRecordsCounted() {
+    return recordsCounted.sum();
+  }
+
+  @Override
+  public long getNonIntegerFailures() {
+    return failures(ErrorCategory.NON_INTEGER);
+  }
+
+  @Override
+  public long getProtocolOutOfRangeFailures() {
+    return failures(ErrorCategory.PROTOCOL_OUT_OF_RANGE);
+  }
+
+  @Override
+  public long getShortLineFailures() {
+    return failures(ErrorCategory.SHORT_LINE);
+  }
+
+  @Override
+  public double getLinesPerSecond() {
+    return linesPerSecond;
+  }
+
+  @Override
+  public double getMegabytesPerSecond() {
+    return megabytesPerSecond;
+  }
+
+  @Override
+  public LatencySnapshot getReadLatency() {
+    return readLatency.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getParseLatency() {
+    return parseLatency.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getProcessLineLatency() {
+    return processLineLatency.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getGenerateOutputLatency() {
+    return generateOutputLatency.snapshot();
+  }
+
+  @Override
+  public Map<String, Integer> getDistinctKeys() {
+    return distinctKeys.get();
+  }
+
+  @Override
+  public Map<String, StageSnapshot> getStages() {
+    Map<String, StageSnapshot> snapshots = new LinkedHashMap<>();
+    synchronized (stages) {
+      for (Map.Entry<String, StageMetrics> stage : stages.entrySet()) {
+        snapshots.put(stage.getKey(), stage.getValue().snapshot());
+      }
+    }
+    return snapshots;
+  }
+
+  @Override
+  public Map<String, Integer> getQueueDepths() {
+    return queueDepths.get();
+  }
+
+  private static long failures(ErrorCategory category) {
+    try {
+      return ErrorLogger.getInstance().getCount(category);
+    } catch (IllegalStateException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return a multi line summary of all metrics, with rates averaged over the whole run
+   */
+  public String summary() {
+    double seconds = Math.max(1, System.nanoTime() - started) / 1e9;
+    StringBuilder stageLines = new StringBuilder();
+    for (Map.Entry<String, StageSnapshot> stage : getStages().entrySet()) {
+      stageLines.append(String.format("%n  stage %s: %s", stage.getKey(), stage.getValue()));
+    }
+    return String.format("Pipeline metrics after %.2f s%n"
+            + "  lines read: %d, bytes read: %d, records counted: %d%n"
+            + "  failures: non integer %d, protocol out of range %d, short line %d%n"
+            + "  average: %.0f lines/s, %.1f MB/s%n"
+            + "  read: %s%n  parse (sampled): %s%n  processLine (sampled): %s%n"
+            + "  generateOutput: %s%n  distinct keys: %s",
+        seconds, getLinesRead(), getBytesRead(), getRecordsCounted(), getNonIntegerFailures(),
+        getProtocolOutOfRangeFailures(), getShortLineFailures(), getLinesRead() / seconds,
+        getBytesRead() / MEGABYTE / seconds, getReadLatency(), getParseLatency(),
+        getProcessLineLatency(), getGenerateOutputLatency(), getDistinctKeys()) + stageLines;
+  }
+}
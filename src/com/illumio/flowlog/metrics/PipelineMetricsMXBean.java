@@ -0,0 +1,55 @@
+package com.illumio.flowlog.metrics;
+
+import java.util.Map;
+
+/**
+ * PipelineMetricsMXBean is the JMX view of {@link PipelineMetrics}, registered as
+ * {@code com.illumio.flowlog:type=PipelineMetrics} and readable with jconsole or any JMX client.
+ */
+public interface PipelineMetricsMXBean {
+
+  /** @return the number of flow log lines read, blank and malformed lines included */
+  long getLinesRead();
+
+  /** @return the number of flow log bytes parsed */
+  long getBytesRead();
+
+  /** @return the number of records counted by the trackers */
+  long getRecordsCounted();
+
+  /** @return the number of lines skipped because port or protocol are not integers */
+  long getNonIntegerFailures();
+
+  /** @return the number of lines skipped because the protocol is outside 0-255 */
+  long getProtocolOutOfRangeFailures();
+
+  /** @return the number of lines skipped because they have too few columns */
+  long getShortLineFailures();
+
+  /** @return lines read per second over the last sampling interval */
+  double getLinesPerSecond();
+
+  /** @return megabytes read per second over the last sampling interval */
+  double getMegabytesPerSecond();
+
+  /** @return latency of reading or mapping one buffer of input */
+  LatencySnapshot getReadLatency();
+
+  /** @return latency of parsing one line, sampled */
+  LatencySnapshot getParseLatency();
+
+  /** @return latency of one CountingOrchestrate.processLine call, sampled */
+  LatencySnapshot getProcessLineLatency();
+
+  /** @return latency of generateOutput */
+  LatencySnapshot getGenerateOutputLatency();
+
+  /** @return the number of distinct keys held by each tracker of the main orchestrator */
+  Map<String, Integer> getDistinctKeys();
+
+  /** @return the totals of every stage of the staged pipeline, empty when it is not used */
+  Map<String, StageSnapshot> getStages();
+
+  /** @return the number of batches waiting in each queue of the staged pipeline */
+  Map<String, Integer> getQueueDepths();
+}
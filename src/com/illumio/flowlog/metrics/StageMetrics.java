@@ -0,0 +1,54 @@
+package com.illumio.flowlog.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StageMetrics counts the work of one stage of a staged pipeline, summed over every thread of the
+ * stage.
+ *
+ * <p>
+ * Besides batches, records and bytes, a stage records how long it was busy and how long it
+ * waited, either for input from the stage before it or for room in the stage after it. The stage
+ * that is busy nearly all of the time is the bottleneck, the others spend their time waiting.
+ * Threads add once per batch, never per record.
+ * </p>
+ */
+public class StageMetrics {
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder records = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+
+  /**
+   * Adds one batch handled by the stage.
+   *
+   * @param batchRecords the records of the batch
+   * @param batchBytes the bytes of the batch
+   * @param nanos the time spent on it
+   */
+  public void addBatch(long batchRecords, long batchBytes, long nanos) {
+    batches.increment();
+    records.add(batchRecords);
+    bytes.add(batchBytes);
+    busyNanos.add(nanos);
+  }
+
+  /**
+   * Adds time spent waiting for input or for room to hand on output.
+   *
+   * @param nanos the time waited
+   */
+  public void addWait(long nanos) {
+    waitNanos.add(nanos);
+  }
+
+  /**
+   * @return the current totals of the stage
+   */
+  public StageSnapshot snapshot() {
+    return new StageSnapshot(batches.sum(), records.sum(), bytes.sum(), busyNanos.sum(),
+        waitNanos.sum());
+  }
+}
@@ -0,0 +1,71 @@
+package com.illumio.flowlog.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * StageSnapshot is the summary of a {@link StageMetrics} exposed over JMX, times are in
+ * nanoseconds summed over the threads of the stage.
+ */
+public class StageSnapshot {
+
+  private static final double MEGABYTE = 1024 * 1024;
+
+  private final long batches;
+  private final long records;
+  private final long bytes;
+  private final long busyNanos;
+  private final long waitNanos;
+
+  /**
+   * Constructs a StageSnapshot.
+   *
+   * @param batches the number of batches handled
+   * @param records the number of records in those batches
+   * @param bytes the number of bytes in those batches
+   * @param busyNanos the time spent handling them
+   * @param waitNanos the time spent waiting for input or for room to hand on output
+   */
+  @ConstructorProperties({"batches", "records", "bytes", "busyNanos", "waitNanos"})
+  public StageSnapshot(long batches, long records, long bytes, long busyNanos, long waitNanos) {
+    this.batches = batches;
+    this.records = records;
+    this.bytes = bytes;
+    this.busyNanos = busyNanos;
+    this.waitNanos = waitNanos;
+  }
+
+  public long getBatches() {
+    return batches;
+  }
+
+  public long getRecords() {
+    return records;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getBusyNanos() {
+    return busyNanos;
+  }
+
+  public long getWaitNanos() {
+    return waitNanos;
+  }
+
+  /**
+   * @return the share of its time the stage was busy, from 0 to 1
+   */
+  public double busyShare() {
+    return busyNanos + waitNanos == 0 ? 0 : (double) busyNanos / (busyNanos + waitNanos);
+  }
+
+  @Override
+  public String toString() {
+    double busySeconds = Math.max(1, busyNanos) / 1e9;
+    return String.format("batches=%d records=%d bytes=%d busy=%.0f%% %.0f records/s %.1f MB/s"
+            + " per busy thread", batches, records, bytes, busyShare() * 100,
+        records / busySeconds, bytes / MEGABYTE / busySeconds);
+  }
+}
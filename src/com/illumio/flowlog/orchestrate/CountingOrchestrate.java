@@ -1,15 +1,27 @@
 package com.illumio.flowlog.orchestrate;
 
+import com.illumio.flowlog.aggregation.Aggregation;
+import com.illumio.flowlog.aggregation.AggregationSpec;
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.aggregation.HeavyHitterTracker;
 import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
 import com.illumio.flowlog.fileloaders.LookupTableLoader;
 import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
 import com.illumio.flowlog.trackers.PortProtocolTracker;
 import com.illumio.flowlog.trackers.TaggingTracker;
-import com.illumio.flowlog.trackers.interfaces.Tracker;
+import com.illumio.flowlog.trackers.interfaces.RecordTracker;
 import com.illumio.flowlog.utilities.Constants;
+import com.illumio.flowlog.window.TimeWindows;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 /**
@@ -19,14 +31,34 @@ import java.util.logging.Logger;
  * <p>This class processes lines from flow logs, updates trackers for port and
  * protocol counts, and manages output based on provided lookup tables and protocol number
  * loaders.</p>
+ *
+ * <p>Both trackers are {@link Aggregation}s, followed by any aggregations declared in the
+ * properties, exact ones as {@link Aggregation}s and top groups as {@link HeavyHitterTracker}s.
+ * Every parsed record is handed to all of them, so all reports are computed in one pass over the
+ * flow logs.</p>
+ *
+ * <p>Records are also counted per version of the lookup table snapshot in use when they are
+ * processed, so the counts made before and after a reload of the lookup table can be told
+ * apart exactly, see {@link #getRecordsByLookupVersion()}.</p>
  */
 public class CountingOrchestrate {
   Logger logger = Logger.getLogger(CountingOrchestrate.class.getName());
-  private Tracker<Integer, String> taggingTracker;
-  private Tracker<Integer, String> portProtocolTracker;
+  private TaggingTracker taggingTracker;
+  private PortProtocolTracker portProtocolTracker;
+  private final RecordTracker[] aggregations;
+  //index of the first declared aggregation, after the built-in ones
+  private final int firstDeclared;
+  private final List<AggregationSpec> declaredSpecs;
+  private final FlowRecord portProtocolRecord = new FlowRecord();
+  private TimeWindows timeWindows;
+  private final Map<Integer, Long> recordsByLookupVersion = new TreeMap<>();
+  private int lookupVersion;
+  private long lookupVersionRecords;
 
   private Map<String, List<String>> trackerCounts;
-  private static boolean isLookupTable;
+  private boolean isLookupTable;
+  private final LookupTableLoader lookupTableLoader;
+  private final ProtocolNumberLoader protocolNumberLoader;
 
   /**
    * Constructs a CountingOrchestrate object.
@@ -37,34 +69,326 @@ public class CountingOrchestrate {
    */
   public CountingOrchestrate(LookupTableLoader lookupTableLoader,
       ProtocolNumberLoader protocolNumberLoader) {
+    this(lookupTableLoader, protocolNumberLoader, Collections.<AggregationSpec>emptyList());
+  }
+
+  /**
+   * Constructs a CountingOrchestrate object computing the declared aggregations as well.
+   *
+   * @param lookupTableLoader    a LookupTableLoader used to load tagging information. If null,
+   *                             tagging functionality will not be available.
+   * @param protocolNumberLoader a ProtocolNumberLoader used to map protocol numbers to names.
+   * @param declaredSpecs        the aggregations declared in the properties.
+   * @throws IllegalArgumentException if a declared aggregation can not be computed.
+   */
+  public CountingOrchestrate(LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader, List<AggregationSpec> declaredSpecs) {
     //parse the file
+    this.lookupTableLoader = lookupTableLoader;
+    this.protocolNumberLoader = protocolNumberLoader;
+    this.declaredSpecs = declaredSpecs;
     isLookupTable = false;
     trackerCounts = new HashMap<>();
+    List<RecordTracker> all = new ArrayList<>();
     if (lookupTableLoader != null) {
       isLookupTable = true;
-      taggingTracker = new TaggingTracker(lookupTableLoader, protocolNumberLoader);
+      taggingTracker = new TaggingTracker(lookupTableLoader);
+      all.add(taggingTracker);
     }
     portProtocolTracker = new PortProtocolTracker(protocolNumberLoader);
+    all.add(portProtocolTracker);
+    for (AggregationSpec spec : declaredSpecs) {
+      all.add(spec.getTop() > 0
+          ? new HeavyHitterTracker(spec, lookupTableLoader, protocolNumberLoader)
+          : new Aggregation(spec, lookupTableLoader, protocolNumberLoader));
+    }
+    aggregations = all.toArray(new RecordTracker[0]);
+    firstDeclared = isLookupTable ? 2 : 1;
   }
 
   /**
    * Processes a line from the flow log, adding the port and protocol information to the respective
-   * trackers.
+   * trackers. Without declared aggregations and time windows, which would need a record, only the
+   * tag and port/protocol counts are updated, straight from the port and protocol.
    *
    * @param port     the port number to be processed.
    * @param protocol the protocol number associated with the port.
    * @throws InvalidProtocolNumberException if the protocol number is invalid.
    */
   public void processLine(int port, int protocol) throws InvalidProtocolNumberException {
-    if (isLookupTable) {
-      taggingTracker.add(port, protocol);
+    if (firstDeclared == aggregations.length && timeWindows == null) {
+      if (protocol < 0 || protocol > 255) {
+        throw new InvalidProtocolNumberException("Protocol numbers between 0 to 255 are valid");
+      }
+      countBuiltIns(port, protocol,
+          lookupTableLoader == null ? null : lookupTableLoader.getSnapshot());
+      return;
+    }
+    portProtocolRecord.clear();
+    portProtocolRecord.set(Field.DSTPORT, port);
+    portProtocolRecord.set(Field.PROTOCOL, protocol);
+    processRecord(portProtocolRecord);
+  }
+
+  /**
+   * Processes a parsed record, adding it to every aggregation that has the fields it needs and to
+   * the time windows if there are any. The tag and port/protocol counts, which every record goes
+   * to, are counted directly from the tag id and the pair instead of through
+   * {@link RecordTracker#add(FlowRecord)}. Unless the record already carries a lookup table snapshot,
+   * the snapshot in use is read once and set on it, so the record is counted under the version
+   * of the very snapshot every aggregation tags it with.
+   *
+   * @param record the record, holding at least destination port and protocol.
+   * @throws InvalidProtocolNumberException if the protocol number is invalid.
+   */
+  public void processRecord(FlowRecord record) throws InvalidProtocolNumberException {
+    long protocol = record.get(Field.PROTOCOL);
+    if (protocol < 0 || protocol > 255) {
+      throw new InvalidProtocolNumberException("Protocol numbers between 0 to 255 are valid");
+    }
+    LookupTableLoader.Snapshot snapshot = null;
+    if (lookupTableLoader != null) {
+      snapshot = record.getLookupSnapshot();
+      if (snapshot == null) {
+        snapshot = lookupTableLoader.getSnapshot();
+        record.setLookupSnapshot(snapshot);
+      }
+    }
+    countBuiltIns((int) record.get(Field.DSTPORT), (int) protocol, snapshot);
+    for (int i = firstDeclared; i < aggregations.length; i++) {
+      aggregations[i].add(record);
+    }
+    if (timeWindows != null) {
+      timeWindows.add(record);
+    }
+  }
+
+  /**
+   * Counts a record in the tag and port/protocol counts and under the version of its lookup table
+   * snapshot.
+   *
+   * @param snapshot the snapshot tagging the record, null without a lookup table
+   */
+  private void countBuiltIns(int port, int protocol, LookupTableLoader.Snapshot snapshot) {
+    if (snapshot != null) {
+      int version = snapshot.getVersion();
+      if (version != lookupVersion) {
+        closeLookupVersion();
+        lookupVersion = version;
+      }
+      lookupVersionRecords++;
+      taggingTracker.count(snapshot.getTagId(port, protocol));
     }
-    portProtocolTracker.add(port, protocol);
+    portProtocolTracker.count(port, protocol);
+  }
+
+  /**
+   * Sets the time windows receiving every record besides the global counts. Windows are not
+   * carried over to copies, they need every record in flow log order on one CountingOrchestrate.
+   *
+   * @param timeWindows the windows, null to count globally only
+   */
+  public void setTimeWindows(TimeWindows timeWindows) {
+    this.timeWindows = timeWindows;
+  }
+
+  /**
+   * @return the time windows, or null if there are none
+   */
+  public TimeWindows getTimeWindows() {
+    return timeWindows;
+  }
+
+  /**
+   * @return the lookup table giving the tags, or null if tags are not counted
+   */
+  public LookupTableLoader getLookupTableLoader() {
+    return lookupTableLoader;
+  }
+
+  /**
+   * @return the protocol names used in the output
+   */
+  public ProtocolNumberLoader getProtocolNumberLoader() {
+    return protocolNumberLoader;
+  }
+
+  /**
+   * Returns the fields any aggregation needs, which the parsers extract from every line.
+   *
+   * @return the needed fields in declaration order
+   */
+  public List<Field> getRequiredFields() {
+    int mask = 0;
+    for (RecordTracker aggregation : aggregations) {
+      mask |= aggregation.fieldMask();
+    }
+    if (timeWindows != null) {
+      mask |= timeWindows.fieldMask();
+    }
+    List<Field> fields = new ArrayList<>();
+    for (Field field : Field.values()) {
+      if ((mask & field.bit()) != 0) {
+        fields.add(field);
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Returns the aggregations in output order: tags, port/protocol, then the declared ones.
+   *
+   * @return the aggregations of this CountingOrchestrate
+   */
+  public List<RecordTracker> getAggregations() {
+    List<RecordTracker> list = new ArrayList<>(aggregations.length);
+    Collections.addAll(list, aggregations);
+    return list;
+  }
+
+  /**
+   * Creates a CountingOrchestrate with the same loaders but no counts, used by worker threads
+   * that count a part of the flow log on their own.
+   *
+   * @return a new CountingOrchestrate sharing the loaders of this one
+   */
+  public CountingOrchestrate emptyCopy() {
+    return new CountingOrchestrate(lookupTableLoader, protocolNumberLoader, declaredSpecs);
+  }
+
+  /**
+   * Adds the counts of another CountingOrchestrate, created through {@link #emptyCopy()}, to
+   * this one.
+   *
+   * @param other the partial counts to merge in
+   */
+  public void merge(CountingOrchestrate other) {
+    for (int i = 0; i < aggregations.length; i++) {
+      aggregations[i].merge(other.aggregations[i]);
+    }
+    for (Map.Entry<Integer, Long> version : other.getRecordsByLookupVersion().entrySet()) {
+      recordsByLookupVersion.merge(version.getKey(), version.getValue(), Long::sum);
+    }
+  }
+
+  /**
+   * Returns the number of records processed under each version of the lookup table, see
+   * {@link LookupTableLoader#getVersion()}. A record is counted under the version of the snapshot
+   * that tagged it, including the records of counts read back from a partial aggregate or a
+   * checkpoint.
+   *
+   * @return the number of records per lookup table version, by version, empty without a lookup
+   *     table
+   */
+  public Map<Integer, Long> getRecordsByLookupVersion() {
+    Map<Integer, Long> records = new TreeMap<>(recordsByLookupVersion);
+    if (lookupVersionRecords > 0) {
+      records.merge(lookupVersion, lookupVersionRecords, Long::sum);
+    }
+    return records;
+  }
+
+  private void closeLookupVersion() {
+    if (lookupVersionRecords > 0) {
+      recordsByLookupVersion.merge(lookupVersion, lookupVersionRecords, Long::sum);
+      lookupVersionRecords = 0;
+    }
+  }
+
+  /**
+   * Creates a CountingOrchestrate holding a copy of the current counts, which later processing
+   * does not change.
+   *
+   * @return a copy of this CountingOrchestrate
+   */
+  public CountingOrchestrate copy() {
+    CountingOrchestrate copy = emptyCopy();
+    copy.merge(this);
+    return copy;
+  }
+
+  /**
+   * Writes the counts of all aggregations, each preceded by its name and whether it holds top
+   * groups, followed by the number of records per lookup table version.
+   *
+   * @param out the output receiving the counts
+   * @throws IOException if the output can not be written
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(aggregations.length);
+    for (RecordTracker aggregation : aggregations) {
+      out.writeUTF(aggregation.getSpec().getName());
+      out.writeBoolean(aggregation.getSpec().getTop() > 0);
+      aggregation.writeTo(out);
+    }
+    Map<Integer, Long> records = getRecordsByLookupVersion();
+    out.writeInt(records.size());
+    for (Map.Entry<Integer, Long> version : records.entrySet()) {
+      out.writeInt(version.getKey());
+      out.writeLong(version.getValue());
+    }
+  }
+
+  /**
+   * Adds counts written by {@link #writeTo(DataOutput)}. Aggregations this orchestrator does not
+   * compute, such as tag counts without a lookup table, are skipped, and so are the records per
+   * lookup table version without a lookup table.
+   *
+   * @param in the input holding the counts
+   * @throws IOException if the input can not be read or does not match the lookup table
+   */
+  public void readFrom(DataInput in) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      boolean top = in.readBoolean();
+      RecordTracker target = null;
+      for (RecordTracker aggregation : aggregations) {
+        if (aggregation.getSpec().getName().equals(name)) {
+          target = aggregation;
+        }
+      }
+      if (target == null) {
+        logger.warning("Skipping counts of aggregation " + name + " which is not computed");
+        if (top) {
+          HeavyHitterTracker.skip(in);
+        } else {
+          Aggregation.skip(in);
+        }
+      } else if (top != target.getSpec().getTop() > 0) {
+        throw new IOException("Aggregation " + name + " was written "
+            + (top ? "with" : "without") + " a top");
+      } else {
+        target.readFrom(in);
+      }
+    }
+    int versions = in.readInt();
+    for (int i = 0; i < versions; i++) {
+      int version = in.readInt();
+      long records = in.readLong();
+      //like the tag counts, skipped without a lookup table
+      if (lookupTableLoader != null) {
+        recordsByLookupVersion.merge(version, records, Long::sum);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of distinct keys held by each tracker, keyed like {@link #getOutput()}.
+   *
+   * @return the number of keys per tracker
+   */
+  public Map<String, Integer> getDistinctKeys() {
+    Map<String, Integer> distinctKeys = new HashMap<>();
+    for (RecordTracker aggregation : aggregations) {
+      distinctKeys.put(aggregation.getSpec().getName(), aggregation.size());
+    }
+    return distinctKeys;
   }
 
   /**
    * Retrieves the output of the tracking process, including counts for tagging and port/protocol
-   * combinations.
+   * combinations and the lines of every declared aggregation, keyed by aggregation name.
    *
    * @return a map containing the counts of tagging and port/protocol information.
    */
@@ -74,6 +398,9 @@ public class CountingOrchestrate {
       trackerCounts.put(Constants.TAGGING, taggingTracker.get());
     }
     trackerCounts.put(Constants.PORT_PROTOCOL_COUNT, portProtocolTracker.get());
+    for (int i = firstDeclared; i < aggregations.length; i++) {
+      trackerCounts.put(aggregations[i].getSpec().getName(), aggregations[i].get());
+    }
     return trackerCounts;
   }
 }
@@ -0,0 +1,88 @@
+package com.illumio.flowlog.output;
+
+import java.io.IOException;
+
+/**
+ * CsvSink writes a section as its header line followed by one line per row with comma separated
+ * values, and a window as the line "window,start,end".
+ */
+class CsvSink extends OutputSink {
+
+  private boolean firstValue;
+
+  CsvSink(OutputEncoder encoder) {
+    super(encoder);
+  }
+
+  @Override
+  public void beginDocument() {
+  }
+
+  @Override
+  public void window(long start, long end) throws IOException {
+    encoder.writeString("window,");
+    encoder.writeLong(start);
+    encoder.writeByte(',');
+    encoder.writeLong(end);
+    encoder.writeByte('\n');
+  }
+
+  @Override
+  public void beginSection(String name, String[] columns) throws IOException {
+    for (int column = 0; column < columns.length; column++) {
+      if (column > 0) {
+        encoder.writeByte(',');
+      }
+      encoder.writeString(columns[column]);
+    }
+    encoder.writeByte('\n');
+  }
+
+  @Override
+  public void beginRow() {
+    firstValue = true;
+  }
+
+  @Override
+  public void string(String value) throws IOException {
+    separate();
+    encoder.writeString(value);
+  }
+
+  @Override
+  public void string(long value) throws IOException {
+    number(value);
+  }
+
+  @Override
+  public void number(long value) throws IOException {
+    separate();
+    encoder.writeLong(value);
+  }
+
+  @Override
+  public void address(long value) throws IOException {
+    separate();
+    encoder.writeAddress(value);
+  }
+
+  @Override
+  public void endRow() throws IOException {
+    encoder.writeByte('\n');
+  }
+
+  @Override
+  public void endSection() {
+  }
+
+  @Override
+  public void endDocument() {
+  }
+
+  private void separate() throws IOException {
+    if (!firstValue) {
+      encoder.writeByte(',');
+    }
+    firstValue = false;
+  }
+}
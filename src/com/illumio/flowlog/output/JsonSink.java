@@ -0,0 +1,119 @@
+package com.illumio.flowlog.output;
+
+import java.io.IOException;
+
+/**
+ * JsonSink writes a document as one JSON object on one line: an optional "window" member with
+ * start and end, then a member per section named after it, holding an array with an object per
+ * row that maps the column names to the values. The window output thereby holds one JSON object
+ * per line. Numbers are written as JSON numbers, everything else as strings.
+ */
+class JsonSink extends OutputSink {
+
+  private String[] columns;
+  private int column;
+  private boolean firstMember;
+  private boolean firstRow;
+
+  JsonSink(OutputEncoder encoder) {
+    super(encoder);
+  }
+
+  @Override
+  public void beginDocument() throws IOException {
+    encoder.writeByte('{');
+    firstMember = true;
+  }
+
+  @Override
+  public void window(long start, long end) throws IOException {
+    member("window");
+    encoder.writeString("{\"start\":");
+    encoder.writeLong(start);
+    encoder.writeString(",\"end\":");
+    encoder.writeLong(end);
+    encoder.writeByte('}');
+  }
+
+  @Override
+  public void beginSection(String name, String[] columns) throws IOException {
+    member(name);
+    encoder.writeByte('[');
+    this.columns = columns;
+    firstRow = true;
+  }
+
+  @Override
+  public void beginRow() throws IOException {
+    if (!firstRow) {
+      encoder.writeByte(',');
+    }
+    firstRow = false;
+    encoder.writeByte('{');
+    column = 0;
+  }
+
+  @Override
+  public void string(String value) throws IOException {
+    key();
+    encoder.writeByte('"');
+    encoder.writeJsonString(value);
+    encoder.writeByte('"');
+  }
+
+  @Override
+  public void string(long value) throws IOException {
+    key();
+    encoder.writeByte('"');
+    encoder.writeLong(value);
+    encoder.writeByte('"');
+  }
+
+  @Override
+  public void number(long value) throws IOException {
+    key();
+    encoder.writeLong(value);
+  }
+
+  @Override
+  public void address(long value) throws IOException {
+    key();
+    encoder.writeByte('"');
+    encoder.writeAddress(value);
+    encoder.writeByte('"');
+  }
+
+  @Override
+  public void endRow() throws IOException {
+    encoder.writeByte('}');
+  }
+
+  @Override
+  public void endSection() throws IOException {
+    encoder.writeByte(']');
+  }
+
+  @Override
+  public void endDocument() throws IOException {
+    encoder.writeString("}\n");
+  }
+
+  private void member(String name) throws IOException {
+    if (!firstMember) {
+      encoder.writeByte(',');
+    }
+    firstMember = false;
+    encoder.writeByte('"');
+    encoder.writeJsonString(name);
+    encoder.writeString("\":");
+  }
+
+  private void key() throws IOException {
+    if (column > 0) {
+      encoder.writeByte(',');
+    }
+    encoder.writeByte('"');
+    encoder.writeJsonString(columns[column++]);
+    encoder.writeString("\":");
+  }
+}
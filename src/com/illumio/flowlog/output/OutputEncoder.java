@@ -0,0 +1,179 @@
+package com.illumio.flowlog.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * OutputEncoder writes text into one reusable byte buffer and hands the buffer to a channel
+ * whenever it fills up, so encoding the output allocates nothing per value.
+ *
+ * <p>
+ * Numbers are written digit by digit straight into the buffer and strings are encoded as UTF-8
+ * one char at a time, instead of building a String per line and encoding it afterwards.
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class OutputEncoder {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final byte[] digits = new byte[20];
+
+  /**
+   * Constructs an OutputEncoder.
+   *
+   * @param channel the channel receiving the encoded bytes, not closed by the encoder
+   */
+  public OutputEncoder(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Writes one byte, such as an ASCII character.
+   *
+   * @param value the byte in the low eight bits
+   * @throws IOException if the channel fails
+   */
+  public void writeByte(int value) throws IOException {
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Writes a string as UTF-8.
+   *
+   * @param value the string
+   * @throws IOException if the channel fails
+   */
+  public void writeString(String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        writeByte(c);
+      } else {
+        i = writeMultiByte(value, i);
+      }
+    }
+  }
+
+  /**
+   * Writes a string as the content of a JSON string, escaping quotes, backslashes and control
+   * characters.
+   *
+   * @param value the string
+   * @throws IOException if the channel fails
+   */
+  public void writeJsonString(String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writeByte('\\');
+        writeByte(c);
+      } else if (c < 0x20) {
+        writeByte('\\');
+        writeByte('u');
+        writeByte('0');
+        writeByte('0');
+        writeByte(HEX[c >>> 4]);
+        writeByte(HEX[c & 0xF]);
+      } else if (c < 0x80) {
+        writeByte(c);
+      } else {
+        i = writeMultiByte(value, i);
+      }
+    }
+  }
+
+  /**
+   * Writes the decimal digits of a number.
+   *
+   * @param value the number
+   * @throws IOException if the channel fails
+   */
+  public void writeLong(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      writeString("-9223372036854775808");
+      return;
+    }
+    if (value < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    int start = digits.length;
+    do {
+      digits[--start] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    if (buffer.remaining() < digits.length - start) {
+      drain();
+    }
+    buffer.put(digits, start, digits.length - start);
+  }
+
+  /**
+   * Writes an IPv4 address held as an unsigned 32 bit number in dotted decimal form.
+   *
+   * @param address the address
+   * @throws IOException if the channel fails
+   */
+  public void writeAddress(long address) throws IOException {
+    writeLong((address >>> 24) & 0xFF);
+    writeByte('.');
+    writeLong((address >>> 16) & 0xFF);
+    writeByte('.');
+    writeLong((address >>> 8) & 0xFF);
+    writeByte('.');
+    writeLong(address & 0xFF);
+  }
+
+  /**
+   * Hands everything written so far to the channel.
+   *
+   * @throws IOException if the channel fails
+   */
+  public void flush() throws IOException {
+    drain();
+  }
+
+  /** Encodes the char at index and the low surrogate following it, returns the last index used. */
+  private int writeMultiByte(String value, int index) throws IOException {
+    int codePoint = value.charAt(index);
+    if (Character.isHighSurrogate((char) codePoint) && index + 1 < value.length()
+        && Character.isLowSurrogate(value.charAt(index + 1))) {
+      codePoint = Character.toCodePoint((char) codePoint, value.charAt(++index));
+    } else if (Character.isSurrogate((char) codePoint)) {
+      //an unpaired surrogate can not be encoded
+      codePoint = '?';
+    }
+    if (codePoint < 0x80) {
+      writeByte(codePoint);
+    } else if (codePoint < 0x800) {
+      writeByte(0xC0 | codePoint >>> 6);
+      writeByte(0x80 | codePoint & 0x3F);
+    } else if (codePoint < 0x10000) {
+      writeByte(0xE0 | codePoint >>> 12);
+      writeByte(0x80 | codePoint >>> 6 & 0x3F);
+      writeByte(0x80 | codePoint & 0x3F);
+    } else {
+      writeByte(0xF0 | codePoint >>> 18);
+      writeByte(0x80 | codePoint >>> 12 & 0x3F);
+      writeByte(0x80 | codePoint >>> 6 & 0x3F);
+      writeByte(0x80 | codePoint & 0x3F);
+    }
+    return index;
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,50 @@
+package com.illumio.flowlog.output;
+
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+
+/**
+ * OutputFormat selects the sink that encodes the output file and the window output.
+ */
+public enum OutputFormat {
+
+  /** A header line per section followed by one comma separated line per row. */
+  CSV,
+
+  /** One JSON object per document, with an array of row objects per section. */
+  JSON;
+
+  /**
+   * Creates a sink of this format.
+   *
+   * @param encoder the encoder receiving the output
+   * @return a new sink
+   */
+  public OutputSink newSink(OutputEncoder encoder) {
+    return this == CSV ? new CsvSink(encoder) : new JsonSink(encoder);
+  }
+
+  /**
+   * @param properties the application properties
+   * @return the configured format, {@link #CSV} if none is configured
+   * @throws IllegalArgumentException if the configured format is unknown
+   */
+  public static OutputFormat fromProperties(CustomProperties properties) {
+    return fromName(properties.getProperty(Constants.OUTPUT_FORMAT, "csv"));
+  }
+
+  /**
+   * @param name the name of a format, in any case
+   * @return the format of that name
+   * @throws IllegalArgumentException if the format is unknown
+   */
+  public static OutputFormat fromName(String name) {
+    String format = name.trim();
+    for (OutputFormat outputFormat : values()) {
+      if (outputFormat.name().equalsIgnoreCase(format)) {
+        return outputFormat;
+      }
+    }
+    throw new IllegalArgumentException("Unknown output format " + format + ", use csv or json");
+  }
+}
@@ -0,0 +1,63 @@
+package com.illumio.flowlog.output;
+
+import java.io.IOException;
+
+/**
+ * OutputSink encodes documents made of sections of rows through an {@link OutputEncoder}. A
+ * document is the output file, or one window of the window output.
+ *
+ * <p>
+ * Every format shares the same path: trackers hand their values to the {@link RowSink} methods
+ * and the sink writes them straight into the encoder, only adding the separators of its format.
+ * </p>
+ */
+public abstract class OutputSink implements RowSink {
+
+  protected final OutputEncoder encoder;
+
+  /**
+   * @param encoder the encoder receiving the output
+   */
+  protected OutputSink(OutputEncoder encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Starts a document.
+   *
+   * @throws IOException if the output fails
+   */
+  public abstract void beginDocument() throws IOException;
+
+  /**
+   * Writes the time window a document holds, right after {@link #beginDocument()}.
+   *
+   * @param start the first second of the window
+   * @param end the second after the window
+   * @throws IOException if the output fails
+   */
+  public abstract void window(long start, long end) throws IOException;
+
+  /**
+   * Starts a section of rows.
+   *
+   * @param name the name of the section
+   * @param columns the names of the columns of every row
+   * @throws IOException if the output fails
+   */
+  public abstract void beginSection(String name, String[] columns) throws IOException;
+
+  /**
+   * Ends a section.
+   *
+   * @throws IOException if the output fails
+   */
+  public abstract void endSection() throws IOException;
+
+  /**
+   * Ends a document.
+   *
+   * @throws IOException if the output fails
+   */
+  public abstract void endDocument() throws IOException;
+}
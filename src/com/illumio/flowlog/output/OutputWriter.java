@@ -0,0 +1,132 @@
+package com.illumio.flowlog.output;
+
+import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.trackers.interfaces.RecordTracker;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * OutputWriter writes the tag counts, port-protocol counts and declared aggregations of a
+ * {@link CountingOrchestrate} as the text output file, one section with a header per aggregation.
+ *
+ * <p>
+ * Every tracker hands its rows straight from its tables to an {@link OutputSink} of the
+ * configured format, which encodes them into the reusable buffer of an {@link OutputEncoder}
+ * that is drained to a {@link FileChannel}. No line is built as a String and no list of lines is
+ * kept, so the output takes constant memory beside the trackers. Rows are written in the
+ * configured {@link RowOrder}.
+ * </p>
+ *
+ * <p>
+ * The counts are written to a temporary file next to the output which then replaces it, so
+ * readers never see a partially written output, even while it is rewritten in follow mode.
+ * </p>
+ */
+public class OutputWriter {
+
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final Logger logger = Logger.getLogger(getClass().getName());
+  private final CountingOrchestrate countingOrchestrate;
+  private final OutputFormat format;
+  private final RowOrder order;
+
+  /**
+   * Constructs an OutputWriter writing CSV in table order.
+   *
+   * @param countingOrchestrate the CountingOrchestrate holding the counts
+   */
+  public OutputWriter(CountingOrchestrate countingOrchestrate) {
+    this(countingOrchestrate, OutputFormat.CSV, RowOrder.NONE);
+  }
+
+  /**
+   * Constructs an OutputWriter.
+   *
+   * @param countingOrchestrate the CountingOrchestrate holding the counts
+   * @param format the format of the output file
+   * @param order the order of the rows of every section
+   */
+  public OutputWriter(CountingOrchestrate countingOrchestrate, OutputFormat format,
+      RowOrder order) {
+    this.countingOrchestrate = countingOrchestrate;
+    this.format = format;
+    this.order = order;
+  }
+
+  /**
+   * Writes the output file and records how long it took.
+   *
+   * @param outPutPath the path to the output file
+   * @throws MissingMandatoryFileException if the output file can not be written
+   */
+  public void write(String outPutPath) throws MissingMandatoryFileException {
+    long started = System.nanoTime();
+    try {
+      writeOutput(outPutPath);
+    } finally {
+      PipelineMetrics.getInstance().generateOutputLatency().record(System.nanoTime() - started);
+    }
+  }
+
+  private void writeOutput(String outPutPath) throws MissingMandatoryFileException {
+    logger.info("Requesting output from Counting Orchestrator");
+    Path output = Paths.get(outPutPath).toAbsolutePath();
+    Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      OutputEncoder encoder = new OutputEncoder(channel);
+      OutputSink sink = format.newSink(encoder);
+      sink.beginDocument();
+      writeSections(sink, countingOrchestrate, order);
+      sink.endDocument();
+      encoder.flush();
+    } catch (IOException e) {
+      errorLogger.logError("Not able to add data to output file");
+      throw new MissingMandatoryFileException("Missing output file or incorrect path");
+    }
+    try {
+      try {
+        Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+      }
+      logger.info("Output added successfully to output file, Check path "+outPutPath);
+    } catch (IOException e) {
+      errorLogger.logError("Not able to add data to output file");
+      throw new MissingMandatoryFileException("Missing output file or incorrect path");
+    }
+  }
+
+  /**
+   * Writes the tag counts, port-protocol counts and declared aggregations of a
+   * CountingOrchestrate, each non-empty one as a section of rows.
+   *
+   * @param sink the sink receiving the sections
+   * @param countingOrchestrate the CountingOrchestrate holding the counts
+   * @param order the order of the rows of every section
+   * @throws IOException if the sink fails
+   */
+  public static void writeSections(OutputSink sink, CountingOrchestrate countingOrchestrate,
+      RowOrder order) throws IOException {
+    // Write tag counts, port-protocol counts and declared aggregations if available
+    for (RecordTracker aggregation : countingOrchestrate.getAggregations()) {
+      if (aggregation.size() > 0) {
+        sink.beginSection(aggregation.getSpec().getName(),
+            aggregation.getSpec().getHeader().trim().split(","));
+        aggregation.writeRows(sink, order);
+        sink.endSection();
+      }
+    }
+  }
+}
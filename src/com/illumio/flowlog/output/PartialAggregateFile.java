@@ -0,0 +1,125 @@
+package com.illumio.flowlog.output;
+
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * PartialAggregateFile reads and writes the counts of one run in a compact binary form, so runs
+ * over different shards of the flow logs, on different hosts or processes, can be merged without
+ * parsing the text output again.
+ *
+ * <p>
+ * The file holds a magic number, a format version, the counts written by
+ * {@link CountingOrchestrate#writeTo} and a CRC32 of everything before it. Ports are stored with
+ * their protocol number and tags by name, so partials stay valid across loads of the protocol
+ * numbers and lookup table. A partial is merged by first checking its checksum in one pass and
+ * then adding its entries one by one in a second pass, so no partial is ever held in memory.
+ * </p>
+ */
+public final class PartialAggregateFile {
+
+  private static final int MAGIC = 0x464C5041;
+  private static final int VERSION = 5;
+  private static final int CHECKSUM_BYTES = 8;
+
+  private PartialAggregateFile() {
+  }
+
+  /**
+   * Writes the counts to a temporary file next to the partial which then replaces it.
+   *
+   * @param partialPath the partial aggregate file
+   * @param counts the counts to write
+   * @throws IOException if the file can not be written
+   */
+  public static void write(Path partialPath, CountingOrchestrate counts) throws IOException {
+    Path partial = partialPath.toAbsolutePath();
+    Path temporary = partial.resolveSibling(partial.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      counts.writeTo(out);
+      out.writeLong(crc.getValue());
+    }
+    try {
+      Files.move(temporary, partial, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, partial, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Adds the counts of a partial to the target. A damaged partial is rejected before anything is
+   * added.
+   *
+   * @param partialPath the partial aggregate file
+   * @param target the CountingOrchestrate receiving the counts
+   * @throws IOException if the file can not be read, is damaged or names an unknown tag
+   */
+  public static void mergeInto(Path partialPath, CountingOrchestrate target) throws IOException {
+    verify(partialPath);
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(partialPath)))) {
+      in.readInt();
+      in.readInt();
+      target.readFrom(in);
+    }
+  }
+
+  /**
+   * Checks magic number, version and checksum of a partial.
+   *
+   * @param partialPath the partial aggregate file
+   * @throws IOException if the file can not be read or is not a valid partial
+   */
+  public static void verify(Path partialPath) throws IOException {
+    long size = Files.size(partialPath);
+    if (size < 8 + CHECKSUM_BYTES) {
+      throw new IOException(partialPath + " is not a partial aggregate file");
+    }
+    CRC32 crc = new CRC32();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+        new BufferedInputStream(Files.newInputStream(partialPath)), crc))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(partialPath + " is not a partial aggregate file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(partialPath + " has unsupported version " + version);
+      }
+      skipFully(in, size - 8 - CHECKSUM_BYTES);
+      long expected = crc.getValue();
+      if (in.readLong() != expected) {
+        throw new IOException(partialPath + " is damaged, checksum does not match");
+      }
+    }
+  }
+
+  private static void skipFully(InputStream in, long bytes) throws IOException {
+    byte[] buffer = new byte[8192];
+    long remaining = bytes;
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new EOFException();
+      }
+      remaining -= read;
+    }
+  }
+}
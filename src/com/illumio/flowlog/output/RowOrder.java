@@ -0,0 +1,50 @@
+package com.illumio.flowlog.output;
+
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+
+/**
+ * RowOrder is the order in which the rows of every section are written.
+ */
+public enum RowOrder {
+
+  /** The order of the tracker tables, the cheapest but it may differ between runs. */
+  NONE,
+
+  /**
+   * By the dimension values, first dimension first: numbers and addresses ascending, protocols by
+   * number and tags in lookup table order, e.g. by port and then protocol.
+   */
+  KEY,
+
+  /**
+   * By count from the largest down, ties by key. Sections without a count are ordered by their
+   * first aggregate.
+   */
+  COUNT;
+
+  /**
+   * @param properties the application properties
+   * @return the configured order, {@link #NONE} if none is configured
+   * @throws IllegalArgumentException if the configured order is unknown
+   */
+  public static RowOrder fromProperties(CustomProperties properties) {
+    return fromName(properties.getProperty(Constants.OUTPUT_ORDER, "none"));
+  }
+
+  /**
+   * @param name the name of an order, in any case
+   * @return the order of that name
+   * @throws IllegalArgumentException if the order is unknown
+   */
+  public static RowOrder fromName(String name) {
+    String order = name.trim();
+    for (RowOrder rowOrder : values()) {
+      if (rowOrder.name().equalsIgnoreCase(order)) {
+        return rowOrder;
+      }
+    }
+    throw new IllegalArgumentException("Unknown output order " + order
+        + ", use none, key or count");
+  }
+}
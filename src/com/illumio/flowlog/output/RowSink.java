@@ -0,0 +1,58 @@
+package com.illumio.flowlog.output;
+
+import java.io.IOException;
+
+/**
+ * RowSink receives the rows of a section column by column, as written by
+ * {@link com.illumio.flowlog.trackers.interfaces.RecordTracker#writeRows}. Values are handed over
+ * as primitives or as strings that already exist, such as tag names, so writing a row does not
+ * allocate.
+ */
+public interface RowSink {
+
+  /**
+   * Starts a row, followed by one value per column of the section and {@link #endRow()}.
+   *
+   * @throws IOException if the output fails
+   */
+  void beginRow() throws IOException;
+
+  /**
+   * Writes a text value.
+   *
+   * @param value the text
+   * @throws IOException if the output fails
+   */
+  void string(String value) throws IOException;
+
+  /**
+   * Writes a text value made of the digits of a number, such as a protocol without a keyword.
+   *
+   * @param value the number
+   * @throws IOException if the output fails
+   */
+  void string(long value) throws IOException;
+
+  /**
+   * Writes a numeric value.
+   *
+   * @param value the number
+   * @throws IOException if the output fails
+   */
+  void number(long value) throws IOException;
+
+  /**
+   * Writes an IPv4 address held as an unsigned 32 bit number, as text in dotted decimal form.
+   *
+   * @param value the address
+   * @throws IOException if the output fails
+   */
+  void address(long value) throws IOException;
+
+  /**
+   * Ends a row.
+   *
+   * @throws IOException if the output fails
+   */
+  void endRow() throws IOException;
+}
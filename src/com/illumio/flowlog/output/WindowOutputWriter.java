@@ -0,0 +1,99 @@
+package com.illumio.flowlog.output;
+
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * WindowOutputWriter appends the counts of every closed time window to the window output file,
+ * as a document holding the window and the sections written by {@link OutputWriter}: in CSV a
+ * line "window,start,end" followed by the sections, in JSON one object per line.
+ *
+ * <p>
+ * The file is replaced on the first window of a run and flushed after every window, so windows
+ * can be read while a followed flow log is still being counted. A window that can not be written
+ * is logged and dropped, it does not stop the counting.
+ * </p>
+ */
+public class WindowOutputWriter {
+
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final Logger logger = Logger.getLogger(getClass().getName());
+  private final Path outputPath;
+  private final OutputFormat format;
+  private final RowOrder order;
+  private FileChannel channel;
+  private OutputEncoder encoder;
+  private OutputSink sink;
+
+  /**
+   * Constructs a WindowOutputWriter writing CSV in table order.
+   *
+   * @param outputPath the window output file
+   */
+  public WindowOutputWriter(Path outputPath) {
+    this(outputPath, OutputFormat.CSV, RowOrder.NONE);
+  }
+
+  /**
+   * Constructs a WindowOutputWriter.
+   *
+   * @param outputPath the window output file
+   * @param format the format of the windows
+   * @param order the order of the rows of every section
+   */
+  public WindowOutputWriter(Path outputPath, OutputFormat format, RowOrder order) {
+    this.outputPath = outputPath;
+    this.format = format;
+    this.order = order;
+  }
+
+  /**
+   * Appends the counts of a closed window.
+   *
+   * @param start the first second of the window
+   * @param end the second after the window
+   * @param counts the counts of the window
+   */
+  public void write(long start, long end, CountingOrchestrate counts) {
+    try {
+      open();
+      sink.beginDocument();
+      sink.window(start, end);
+      OutputWriter.writeSections(sink, counts, order);
+      sink.endDocument();
+      encoder.flush();
+    } catch (IOException e) {
+      errorLogger.logError("Not able to add window " + start + " to window output file");
+      logger.warning("Not able to write window " + start + " to " + outputPath + ": "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Closes the window output file, creating it empty if no window was written.
+   */
+  public void close() {
+    try {
+      open();
+      channel.close();
+      logger.info("Windows added successfully to window output file, Check path " + outputPath);
+    } catch (IOException e) {
+      errorLogger.logError("Not able to close window output file");
+      logger.warning("Not able to close " + outputPath + ": " + e.getMessage());
+    }
+  }
+
+  private void open() throws IOException {
+    if (channel == null) {
+      channel = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      encoder = new OutputEncoder(channel);
+      sink = format.newSink(encoder);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.LatencyHistogram;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * FlowLogFollower keeps a flow log open and parses the bytes appended to it, like
+ * {@code tail -F}.
+ *
+ * <p>
+ * The file is polled with offset tracking. A partial trailing line is kept until its terminator
+ * arrives. When the file shrinks it is treated as truncated and read again from the start, when
+ * the path points to a different file (rotation) the rest of the old file is finished first and
+ * the new one is read from the start. A snapshot callback runs every N records or N seconds,
+ * whichever comes first, and once more when following stops.
+ * </p>
+ */
+public class FlowLogFollower {
+
+  private static final int INITIAL_BUFFER = 1 << 20;
+  private static final int MAX_BUFFER = 64 << 20;
+
+  private final Logger logger = Logger.getLogger(getClass().getName());
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final Path flowLogPath;
+  private final FlowLogLineParser lineParser;
+  private final long pollMillis;
+  private final long snapshotMillis;
+  private final long snapshotLines;
+  private final Runnable snapshot;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile boolean running = true;
+
+  private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+  private FileChannel channel;
+  private Object fileKey;
+  private long readOffset;
+
+  /**
+   * Constructs a FlowLogFollower.
+   *
+   * @param flowLogPath the flow log to follow
+   * @param lineParser the parser receiving every new line
+   * @param pollMillis how long to wait before looking for new bytes again
+   * @param snapshotMillis the longest time between two snapshots, 0 disables the timer
+   * @param snapshotLines the largest number of lines between two snapshots, 0 disables the count
+   * @param snapshot writes a snapshot of the current counts
+   */
+  public FlowLogFollower(Path flowLogPath, FlowLogLineParser lineParser, long pollMillis,
+      long snapshotMillis, long snapshotLines, Runnable snapshot) {
+    this.flowLogPath = flowLogPath;
+    this.lineParser = lineParser;
+    this.pollMillis = Math.max(1, pollMillis);
+    this.snapshotMillis = snapshotMillis;
+    this.snapshotLines = snapshotLines;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Follows the flow log until {@link #stop(long)} is called, then writes a final snapshot.
+   *
+   * @throws IOException if the flow log can not be opened in the first place
+   */
+  public void follow() throws IOException {
+    open();
+    long lastSnapshotTime = System.currentTimeMillis();
+    long lastSnapshotLines = lineParser.getLinesParsed();
+    try {
+      while (running) {
+        boolean readAny = readAppended();
+        if (!readAny) {
+          checkRotation();
+        }
+        long now = System.currentTimeMillis();
+        long lines = lineParser.getLinesParsed();
+        if (lines != lastSnapshotLines
+            && ((snapshotLines > 0 && lines - lastSnapshotLines >= snapshotLines)
+            || (snapshotMillis > 0 && now - lastSnapshotTime >= snapshotMillis))) {
+          snapshot.run();
+          lastSnapshotTime = now;
+          lastSnapshotLines = lines;
+        }
+        if (!readAny) {
+          sleep();
+        }
+      }
+    } finally {
+      closeChannel();
+      snapshot.run();
+      stopped.countDown();
+    }
+  }
+
+  /**
+   * Asks the follower to stop and waits for its final snapshot.
+   *
+   * @param timeoutMillis how long to wait for the final snapshot
+   */
+  public void stop(long timeoutMillis) {
+    running = false;
+    try {
+      stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads whatever was appended since the last read and parses the complete lines.
+   *
+   * @return whether any byte was read
+   */
+  private boolean readAppended() throws IOException {
+    if (channel == null) {
+      return false;
+    }
+    LatencyHistogram readLatency = PipelineMetrics.getInstance().readLatency();
+    boolean readAny = false;
+    int read;
+    long started = System.nanoTime();
+    while (running && (read = channel.read(buffer, readOffset)) > 0) {
+      readLatency.record(System.nanoTime() - started);
+      readAny = true;
+      readOffset += read;
+      int consumed = lineParser.parseLines(buffer, 0, buffer.position(), false);
+      compact(consumed);
+      started = System.nanoTime();
+    }
+    return readAny;
+  }
+
+  /**
+   * Drops the consumed bytes, keeping the partial line at the start of the buffer. A buffer full
+   * of one unterminated line is grown, or discarded once it reaches the maximum size.
+   */
+  private void compact(int consumed) {
+    if (consumed > 0) {
+      buffer.flip();
+      buffer.position(consumed);
+      buffer.compact();
+    } else if (!buffer.hasRemaining()) {
+      if (buffer.capacity() >= MAX_BUFFER) {
+        long offset = readOffset - buffer.position();
+        errorLogger.logError(ErrorCategory.LINE_TOO_LONG, () ->
+            "Skipping bytes because line is longer than " + MAX_BUFFER + " bytes || Offset: " + offset);
+        buffer.clear();
+      } else {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+    }
+  }
+
+  /**
+   * Detects truncation and rotation of the followed path once no new bytes are available.
+   */
+  private void checkRotation() throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(flowLogPath, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      //rotated away and not recreated yet, keep the old channel until a new file shows up
+      return;
+    }
+    if (channel != null && !Objects.equals(fileKey, attributes.fileKey())) {
+      logger.info("Flow log was rotated, finishing the old file and following the new one");
+      readAppended();
+      lineParser.parseLines(buffer, 0, buffer.position(), true);
+      buffer.clear();
+      closeChannel();
+      reopen();
+    } else if (channel == null) {
+      reopen();
+    } else if (attributes.size() < readOffset) {
+      logger.info("Flow log was truncated, reading it again from the start");
+      buffer.clear();
+      readOffset = 0;
+    }
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(flowLogPath, StandardOpenOption.READ);
+    fileKey = Files.readAttributes(flowLogPath, BasicFileAttributes.class).fileKey();
+    readOffset = 0;
+  }
+
+  /**
+   * Opens the file now found at the path, it may disappear again between the check and the open.
+   */
+  private void reopen() throws IOException {
+    try {
+      open();
+    } catch (NoSuchFileException e) {
+      channel = null;
+    }
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.warning("Not able to close followed flow log: " + e.getMessage());
+      }
+      channel = null;
+    }
+  }
+
+  private void sleep() {
+    try {
+      Thread.sleep(pollMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+  }
+}
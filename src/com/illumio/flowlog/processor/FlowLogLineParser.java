@@ -0,0 +1,307 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.format.FieldExtractor;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FlowLogLineParser extracts the destination port and protocol straight from the raw ASCII bytes
+ * of a flow log and feeds them to a {@link CountingOrchestrate}, or to a {@link RecordConsumer}
+ * such as a stage of a {@link FlowLogPipeline}.
+ *
+ * <p>
+ * No String or array is created for well-formed records. The columns of the configured
+ * {@link FlowLogFormat} are located by a {@link FieldExtractor}, which stops scanning after the
+ * last column needed, and the two numeric columns are parsed in place, so the behaviour matches
+ * {@code line.split(" ")} followed by {@code Integer.parseInt} without the per-line garbage.
+ * Strings are only decoded when a line is actually written to the error log.
+ * </p>
+ *
+ * <p>
+ * Fields needed by declared aggregations, such as bytes or timestamps, are located in the same
+ * scan and parsed into one reused {@link FlowRecord} shared by all aggregations. Such a field
+ * that does not parse is left missing rather than failing the line.
+ * </p>
+ *
+ * <p>
+ * Totals are reported to {@link PipelineMetrics} once per call of {@link #parseLines}, and one
+ * line in {@link PipelineMetrics#SAMPLE_INTERVAL} is timed.
+ * </p>
+ */
+public class FlowLogLineParser {
+
+  private static final int DST_PORT = 0;
+  private static final int PROTOCOL = 1;
+
+  private static final byte SPACE = ' ';
+  private static final byte LINE_FEED = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  private static final int SAMPLE_MASK = PipelineMetrics.SAMPLE_INTERVAL - 1;
+
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+  private final RecordConsumer consumer;
+  private final FieldExtractor extractor;
+  private final Field[] extraFields;
+  private final FlowRecord record = new FlowRecord();
+
+  private long linesParsed;
+  private long recordsCounted;
+  private boolean timed;
+  private long processLineNanos;
+
+  /**
+   * Constructs a FlowLogLineParser for the configured flow log format that reports every parsed
+   * record to the given orchestrator.
+   *
+   * @param countingOrchestrate the CountingOrchestrate instance receiving port and protocol
+   */
+  public FlowLogLineParser(CountingOrchestrate countingOrchestrate) {
+    this(countingOrchestrate, FlowLogFormat.getInstance());
+  }
+
+  /**
+   * Constructs a FlowLogLineParser for the given flow log format that reports every parsed record
+   * to the given orchestrator.
+   *
+   * @param countingOrchestrate the CountingOrchestrate instance receiving port and protocol
+   * @param format the format of the flow log records
+   */
+  public FlowLogLineParser(CountingOrchestrate countingOrchestrate, FlowLogFormat format) {
+    this(countingOrchestrate.getRequiredFields(), countingOrchestrate::processRecord, format);
+  }
+
+  /**
+   * Constructs a FlowLogLineParser for the given flow log format that hands every parsed record
+   * to the given consumer.
+   *
+   * @param requiredFields the fields to parse besides destination port and protocol
+   * @param consumer the consumer receiving the records
+   * @param format the format of the flow log records
+   */
+  public FlowLogLineParser(List<Field> requiredFields, RecordConsumer consumer,
+      FlowLogFormat format) {
+    this.consumer = consumer;
+    List<Field> extras = new ArrayList<>(requiredFields);
+    extras.remove(Field.DSTPORT);
+    extras.remove(Field.PROTOCOL);
+    this.extraFields = extras.toArray(new Field[0]);
+    String[] wanted = new String[2 + extraFields.length];
+    wanted[DST_PORT] = FlowLogFormat.DST_PORT;
+    wanted[PROTOCOL] = FlowLogFormat.PROTOCOL;
+    for (int i = 0; i < extraFields.length; i++) {
+      wanted[2 + i] = extraFields[i].getFormatName();
+    }
+    this.extractor = format.extractor(wanted);
+  }
+
+  /**
+   * Parses every complete line found between {@code from} and {@code to}.
+   *
+   * <p>
+   * A line is complete once its terminator (LF, CR or CRLF) has been seen. When
+   * {@code endOfInput} is true the bytes after the last terminator are parsed as a final line,
+   * otherwise they are left for the caller to present again together with the following bytes.
+   * </p>
+   *
+   * @param buffer the buffer holding the raw flow log bytes
+   * @param from the absolute index of the first byte to parse
+   * @param to the absolute index after the last byte to parse
+   * @param endOfInput whether no more bytes follow {@code to}
+   * @return the number of bytes consumed, always ending on a line boundary
+   */
+  public int parseLines(ByteBuffer buffer, int from, int to, boolean endOfInput) {
+    long linesBefore = linesParsed;
+    long recordsBefore = recordsCounted;
+    int lineStart = from;
+    for (int i = from; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b == LINE_FEED || b == CARRIAGE_RETURN) {
+        //the LF of a CRLF ends the line the CR already ended
+        if (!(b == LINE_FEED && i == lineStart && i > from
+            && buffer.get(i - 1) == CARRIAGE_RETURN)) {
+          parseSampled(buffer, lineStart, i);
+        }
+        lineStart = i + 1;
+      }
+    }
+    if (endOfInput && lineStart < to) {
+      parseSampled(buffer, lineStart, to);
+      lineStart = to;
+    }
+    metrics.addParsed(linesParsed - linesBefore, lineStart - from, recordsCounted - recordsBefore);
+    return lineStart - from;
+  }
+
+  /**
+   * Parses a line, timing it if it is one of the sampled lines.
+   */
+  private void parseSampled(ByteBuffer buffer, int start, int end) {
+    if ((linesParsed & SAMPLE_MASK) != 0) {
+      parseLine(buffer, start, end);
+      return;
+    }
+    timed = true;
+    processLineNanos = 0;
+    long started = System.nanoTime();
+    parseLine(buffer, start, end);
+    metrics.parseLatency().record(System.nanoTime() - started - processLineNanos);
+    timed = false;
+  }
+
+  /**
+   * Parses a single line without its terminator and hands port and protocol to the orchestrator.
+   * Blank lines are skipped, malformed lines are written to the error log.
+   *
+   * @param buffer the buffer holding the line
+   * @param start the absolute index of the first byte of the line
+   * @param end the absolute index after the last byte of the line
+   */
+  public void parseLine(ByteBuffer buffer, int start, int end) {
+    linesParsed++;
+    if (isBlank(buffer, start, end)) {
+      return;
+    }
+    extractor.locate(buffer, start, end);
+    if (!extractor.exists(buffer, DST_PORT, end)) {
+      errorLogger.logError(ErrorCategory.SHORT_LINE, () ->
+          "Skipping Line because flow log is not in correct format || " + decode(buffer, start, end) + " ||");
+      return;
+    }
+    int port;
+    try {
+      port = parseInt(buffer, extractor.start(DST_PORT), extractor.end(DST_PORT));
+    } catch (NumberFormatException ex) {
+      errorLogger.logError(ErrorCategory.NON_INTEGER, () ->
+          "Skipping Line because of port or protocol are not integer || " + decode(buffer, start, end) + "||");
+      return;
+    }
+    if (!extractor.exists(buffer, PROTOCOL, end)) {
+      errorLogger.logError(ErrorCategory.SHORT_LINE, () ->
+          "Skipping Line because flow log is not in correct format || " + decode(buffer, start, end) + " ||");
+      return;
+    }
+    try {
+      int protocol = parseInt(buffer, extractor.start(PROTOCOL), extractor.end(PROTOCOL));
+      record.clear();
+      record.set(Field.DSTPORT, port);
+      record.set(Field.PROTOCOL, protocol);
+      for (int i = 0; i < extraFields.length; i++) {
+        parseExtra(buffer, i, end);
+      }
+      if (timed) {
+        long started = System.nanoTime();
+        consumer.accept(record);
+        processLineNanos = System.nanoTime() - started;
+        metrics.processLineLatency().record(processLineNanos);
+      } else {
+        consumer.accept(record);
+      }
+      recordsCounted++;
+    } catch (NumberFormatException ex) {
+      errorLogger.logError(ErrorCategory.NON_INTEGER, () ->
+          "Skipping Line because of port or protocol are not integer || " + decode(buffer, start, end) + "||");
+    } catch (InvalidProtocolNumberException e) {
+      errorLogger.logError(ErrorCategory.PROTOCOL_OUT_OF_RANGE, () ->
+          "Skipping Line because protocol number is not in range [0-255] || " + decode(buffer, start, end)
+              + " || Number: " + decode(buffer, extractor.start(PROTOCOL), extractor.end(PROTOCOL)));
+    }
+  }
+
+  /**
+   * Parses an extra field into the record, leaving it missing if it is absent or not valid.
+   */
+  private void parseExtra(ByteBuffer buffer, int index, int end) {
+    int slot = 2 + index;
+    if (!extractor.exists(buffer, slot, end)) {
+      return;
+    }
+    try {
+      record.set(extraFields[index],
+          extraFields[index].parse(buffer, extractor.start(slot), extractor.end(slot)));
+    } catch (NumberFormatException e) {
+      //missing fields only exclude the record from aggregations that need them
+    }
+  }
+
+  /**
+   * @return the number of lines handed to {@link #parseLine}, blank and malformed ones included
+   */
+  public long getLinesParsed() {
+    return linesParsed;
+  }
+
+  /**
+   * @return the number of records handed on, which excludes blank and malformed lines
+   */
+  public long getRecordsCounted() {
+    return recordsCounted;
+  }
+
+  /**
+   * Mirrors {@code line.trim().isEmpty()}.
+   */
+  private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if ((buffer.get(i) & 0xFF) > SPACE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses a signed decimal integer with the same acceptance rules as {@code Integer.parseInt}.
+   *
+   * @throws NumberFormatException if the span is empty, not numeric or overflows an int
+   */
+  static int parseInt(ByteBuffer buffer, int start, int end) {
+    if (start >= end) {
+      throw new NumberFormatException();
+    }
+    boolean negative = false;
+    int i = start;
+    byte first = buffer.get(i);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      if (++i == end) {
+        throw new NumberFormatException();
+      }
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = buffer.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        throw new NumberFormatException();
+      }
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw new NumberFormatException();
+    }
+    return (int) value;
+  }
+
+  private static String decode(ByteBuffer buffer, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = start; i < end; i++) {
+      bytes[i - start] = buffer.get(i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,369 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import com.illumio.flowlog.metrics.StageMetrics;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.utilities.VirtualThreads;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * FlowLogPipeline processes flow logs in three stages running side by side: a reader cutting
+ * the input into line aligned blocks, parsers packing the records of each block into a
+ * {@link RecordBatch}, and aggregators counting the batches.
+ *
+ * <p>
+ * The reader blocks on I/O and runs on a virtual thread where the runtime has them, see
+ * {@link VirtualThreads}. Parsers and aggregators are CPU bound and share a fixed pool of
+ * platform threads. The stages hand each other whole batches through bounded queues, and the
+ * batches come from a fixed set that the aggregators return once counted: when the aggregators
+ * fall behind the reader runs out of batches and waits, so no more than that set of blocks is
+ * ever held in memory.
+ * </p>
+ *
+ * <p>
+ * Blocks are numbered as they are read and block {@code n} goes to aggregator
+ * {@code n % aggregators}, which counts its blocks in order into its own CountingOrchestrate.
+ * The counts are merged in aggregator order at the end, so the result does not depend on thread
+ * scheduling, and a single aggregator sees the records in flow log order. Every stage reports to
+ * a {@link StageMetrics} and the queue depths are published to {@link PipelineMetrics}.
+ * </p>
+ */
+public class FlowLogPipeline {
+
+  private static final Logger logger = Logger.getLogger(FlowLogPipeline.class.getName());
+  private static final RecordBatch END_OF_BLOCKS = RecordBatch.last(-1);
+
+  private final int parsers;
+  private final int aggregators;
+  private final int blockBytes;
+  private final int blocks;
+  private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+
+  /**
+   * Constructs a FlowLogPipeline.
+   *
+   * @param parsers the number of parser threads
+   * @param aggregators the number of aggregator threads, each counting into its own copy
+   * @param blockBytes the size of the blocks the input is cut into
+   * @param blocks the number of blocks in flight, at least one per thread plus one
+   */
+  public FlowLogPipeline(int parsers, int aggregators, int blockBytes, int blocks) {
+    this.parsers = Math.max(1, parsers);
+    this.aggregators = Math.max(1, aggregators);
+    this.blockBytes = Math.max(1024, blockBytes);
+    this.blocks = Math.max(this.parsers + this.aggregators + 1, blocks);
+  }
+
+  /**
+   * Processes the files one after the other and adds their counts to the target.
+   *
+   * @param flowLogs the flow log files, plain or gzip compressed
+   * @param target the CountingOrchestrate receiving the counts
+   * @throws IOException if one of the files can not be read
+   * @throws InterruptedException if interrupted while waiting for the stages
+   */
+  public void process(List<Path> flowLogs, CountingOrchestrate target)
+      throws IOException, InterruptedException {
+    logger.info("Starting pipelined flow log processing with " + parsers + " parsers, "
+        + aggregators + " aggregators and " + blocks + " blocks of " + blockBytes + " bytes");
+    List<Field> fields = target.getRequiredFields();
+    BlockingQueue<RecordBatch> free = new ArrayBlockingQueue<>(blocks);
+    for (int i = 0; i < blocks; i++) {
+      free.add(new RecordBatch(fields, blockBytes));
+    }
+    BlockingQueue<RecordBatch> parseQueue = new ArrayBlockingQueue<>(blocks + parsers);
+    List<BlockingQueue<RecordBatch>> aggregateQueues = new ArrayList<>();
+    CountingOrchestrate[] partials = new CountingOrchestrate[aggregators];
+    for (int i = 0; i < aggregators; i++) {
+      //a queue holding every block never blocks the parsers, the free blocks bound them
+      aggregateQueues.add(new LinkedBlockingQueue<>());
+      partials[i] = aggregators == 1 ? target : target.emptyCopy();
+    }
+    metrics.setQueueDepths(() -> {
+      Map<String, Integer> depths = new LinkedHashMap<>();
+      depths.put("free", free.size());
+      depths.put("parse", parseQueue.size());
+      int aggregate = 0;
+      for (BlockingQueue<RecordBatch> queue : aggregateQueues) {
+        aggregate += queue.size();
+      }
+      depths.put("aggregate", aggregate);
+      return depths;
+    });
+
+    ExecutorService readers = VirtualThreads.newThreadPerTaskExecutor("flow-log-reader");
+    ExecutorService workers = Executors.newFixedThreadPool(parsers + aggregators);
+    BlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+    CompletionService<Void> readerTasks = new ExecutorCompletionService<>(readers, completed);
+    CompletionService<Void> workerTasks = new ExecutorCompletionService<>(workers, completed);
+    try {
+      Reader reader = new Reader(flowLogs, free, parseQueue);
+      readerTasks.submit(reader);
+      AtomicInteger parsing = new AtomicInteger(parsers);
+      for (int i = 0; i < parsers; i++) {
+        workerTasks.submit(new Parser(fields, reader, parseQueue, aggregateQueues, parsing));
+      }
+      for (int i = 0; i < aggregators; i++) {
+        workerTasks.submit(new Aggregator(i, partials[i], aggregateQueues.get(i), free));
+      }
+      for (int i = 0; i < 1 + parsers + aggregators; i++) {
+        //the first stage to fail stops the others, which would otherwise wait for it forever
+        completed.take().get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException("Flow log pipeline failed", e.getCause());
+    } finally {
+      readers.shutdownNow();
+      workers.shutdownNow();
+      metrics.setQueueDepths(Collections::emptyMap);
+    }
+    if (aggregators > 1) {
+      for (CountingOrchestrate partial : partials) {
+        target.merge(partial);
+      }
+    }
+  }
+
+  /**
+   * Reads the files into blocks ending on line boundaries, carrying the start of the last line
+   * of a block over to the next one.
+   */
+  private final class Reader implements Callable<Void> {
+    private final List<Path> flowLogs;
+    private final BlockingQueue<RecordBatch> free;
+    private final BlockingQueue<RecordBatch> parseQueue;
+    private final StageMetrics stage = metrics.stage("read");
+    private volatile long blocksRead;
+
+    private Reader(List<Path> flowLogs, BlockingQueue<RecordBatch> free,
+        BlockingQueue<RecordBatch> parseQueue) {
+      this.flowLogs = flowLogs;
+      this.free = free;
+      this.parseQueue = parseQueue;
+    }
+
+    @Override
+    public Void call() throws IOException, InterruptedException {
+      byte[] carry = new byte[blockBytes];
+      int carried = 0;
+      long sequence = 0;
+      for (Path flowLog : flowLogs) {
+        try (InputStream input = FlowLogStreamReader.open(flowLog)) {
+          boolean endOfFile = false;
+          while (!endOfFile) {
+            long waiting = System.nanoTime();
+            RecordBatch batch = free.take();
+            long started = System.nanoTime();
+            stage.addWait(started - waiting);
+            while (batch.bytes().length < carried) {
+              batch.grow(0);
+            }
+            byte[] bytes = batch.bytes();
+            System.arraycopy(carry, 0, bytes, 0, carried);
+            int filled = carried;
+            int boundary;
+            while (true) {
+              int read = input.read(bytes, filled, bytes.length - filled);
+              if (read == -1) {
+                //the last line of a file needs no terminator
+                endOfFile = true;
+                boundary = filled;
+                break;
+              }
+              filled += read;
+              if (filled < bytes.length) {
+                continue;
+              }
+              boundary = lineBoundary(bytes, filled);
+              if (boundary > 0) {
+                break;
+              }
+              if (bytes.length >= FlowLogStreamReader.MAX_LINE) {
+                errorLogger.logError(ErrorCategory.LINE_TOO_LONG, () ->
+                    "Skipping bytes because line is longer than " + FlowLogStreamReader.MAX_LINE
+                        + " bytes");
+                filled = 0;
+              } else {
+                batch.grow(filled);
+                bytes = batch.bytes();
+              }
+            }
+            carried = filled - boundary;
+            if (carry.length < carried) {
+              carry = new byte[bytes.length];
+            }
+            System.arraycopy(bytes, boundary, carry, 0, carried);
+            stage.addBatch(0, boundary, System.nanoTime() - started);
+            if (boundary == 0) {
+              free.put(batch);
+              continue;
+            }
+            batch.publish(boundary, sequence++);
+            parseQueue.put(batch);
+          }
+        }
+      }
+      blocksRead = sequence;
+      for (int i = 0; i < parsers; i++) {
+        parseQueue.put(END_OF_BLOCKS);
+      }
+      return null;
+    }
+
+    /**
+     * Returns the index after the last line terminator, keeping a CR at the very end with its
+     * line in case an LF follows in the next block.
+     */
+    private int lineBoundary(byte[] bytes, int filled) {
+      for (int i = filled - 1; i >= 0; i--) {
+        if (bytes[i] == '\n' || (bytes[i] == '\r' && i < filled - 1)) {
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Parses blocks into their batches and routes them to their aggregator. The last parser to
+   * finish tells every aggregator where the input ends.
+   */
+  private final class Parser implements Callable<Void>, RecordConsumer {
+    private final FlowLogLineParser lineParser;
+    private final Reader reader;
+    private final BlockingQueue<RecordBatch> parseQueue;
+    private final List<BlockingQueue<RecordBatch>> aggregateQueues;
+    private final AtomicInteger parsing;
+    private final StageMetrics stage = metrics.stage("parse");
+    private RecordBatch batch;
+
+    private Parser(List<Field> fields, Reader reader, BlockingQueue<RecordBatch> parseQueue,
+        List<BlockingQueue<RecordBatch>> aggregateQueues, AtomicInteger parsing) {
+      this.lineParser = new FlowLogLineParser(fields, this, FlowLogFormat.getInstance());
+      this.reader = reader;
+      this.parseQueue = parseQueue;
+      this.aggregateQueues = aggregateQueues;
+      this.parsing = parsing;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      while (true) {
+        long waiting = System.nanoTime();
+        RecordBatch block = parseQueue.take();
+        long started = System.nanoTime();
+        stage.addWait(started - waiting);
+        if (block == END_OF_BLOCKS) {
+          break;
+        }
+        batch = block;
+        lineParser.parseLines(block.buffer(), 0, block.length(), true);
+        stage.addBatch(block.size(), block.length(), System.nanoTime() - started);
+        aggregateQueues.get((int) (block.sequence() % aggregators)).put(block);
+      }
+      if (parsing.decrementAndGet() == 0) {
+        long end = reader.blocksRead;
+        for (int i = 0; i < aggregators; i++) {
+          //the first block number of aggregator i that was never read
+          long next = end + Math.floorMod(i - end, (long) aggregators);
+          aggregateQueues.get(i).put(RecordBatch.last(next));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void accept(FlowRecord record) throws InvalidProtocolNumberException {
+      long protocol = record.get(Field.PROTOCOL);
+      if (protocol < 0 || protocol > 255) {
+        throw new InvalidProtocolNumberException("Protocol numbers between 0 to 255 are valid");
+      }
+      batch.add(record);
+    }
+  }
+
+  /**
+   * Counts the batches of one aggregator in block order, holding back batches that overtook an
+   * earlier one in the parse stage.
+   */
+  private final class Aggregator implements Callable<Void> {
+    private final long first;
+    private final CountingOrchestrate partial;
+    private final BlockingQueue<RecordBatch> queue;
+    private final BlockingQueue<RecordBatch> free;
+    private final StageMetrics stage = metrics.stage("aggregate");
+
+    private Aggregator(int index, CountingOrchestrate partial, BlockingQueue<RecordBatch> queue,
+        BlockingQueue<RecordBatch> free) {
+      this.first = index;
+      this.partial = partial;
+      this.queue = queue;
+      this.free = free;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      PriorityQueue<RecordBatch> pending =
+          new PriorityQueue<>(Comparator.comparingLong(RecordBatch::sequence));
+      FlowRecord record = new FlowRecord();
+      long expected = first;
+      while (true) {
+        long waiting = System.nanoTime();
+        while (pending.isEmpty() || pending.peek().sequence() != expected) {
+          pending.add(queue.take());
+        }
+        RecordBatch batch = pending.poll();
+        long started = System.nanoTime();
+        stage.addWait(started - waiting);
+        if (batch.isLast()) {
+          return null;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          batch.load(i, record);
+          try {
+            partial.processRecord(record);
+          } catch (InvalidProtocolNumberException e) {
+            //the parsers only pack records with a valid protocol number
+          }
+        }
+        stage.addBatch(batch.size(), batch.length(), System.nanoTime() - started);
+        expected += aggregators;
+        free.put(batch);
+      }
+    }
+  }
+}
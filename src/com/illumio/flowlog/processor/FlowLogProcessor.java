@@ -1,17 +1,37 @@
 package com.illumio.flowlog.processor;
 
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.checkpoint.CheckpointStore;
+import com.illumio.flowlog.coordinator.ShardCoordinator;
 import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
 import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorCategory;
 import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
 import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.OutputFormat;
+import com.illumio.flowlog.output.OutputWriter;
+import com.illumio.flowlog.output.PartialAggregateFile;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.setup.CustomProperties;
 import com.illumio.flowlog.utilities.Constants;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -25,6 +45,9 @@ public class FlowLogProcessor {
   Logger logger = Logger.getLogger(getClass().getName());
 
   CountingOrchestrate countingOrchestrate;
+  private CheckpointStore checkpointStore;
+  private OutputFormat outputFormat = OutputFormat.CSV;
+  private RowOrder outputOrder = RowOrder.NONE;
 
   /**
    * Constructs a FlowLogProcessor instance and processes the flow log file.
@@ -39,6 +62,100 @@ public class FlowLogProcessor {
     processFlowLog(flowLogPath);
   }
 
+  /**
+   * Constructs a FlowLogProcessor instance and processes one shard of a flow log file, as done by
+   * the worker processes of a {@link ShardCoordinator}.
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param start the offset of the first byte of the shard, at the start of a line
+   * @param end the offset after the last byte of the shard, ignored for gzip files which are
+   *     always processed whole
+   * @param countingOrchestrate the CountingOrchestrate instance for processing lines
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  public FlowLogProcessor(String flowLogPath, long start, long end,
+      CountingOrchestrate countingOrchestrate) throws MissingMandatoryFileException {
+    this.countingOrchestrate = countingOrchestrate;
+    processShard(flowLogPath, start, end);
+  }
+
+  /**
+   * Constructs a FlowLogProcessor instance and processes the flow log file with the parser
+   * and thread count selected in the properties.
+   *
+   * <p>
+   * With more than one thread the file is always memory mapped, since only the byte level parser
+   * can start in the middle of a file. Gzip compressed flow logs are detected by their magic
+   * number and decompressed while parsing. The path may also be a directory, a glob pattern or a
+   * comma separated list of those, the files are then processed by a {@link FlowLogScheduler}.
+   * In follow mode the constructor only returns once following
+   * has been stopped by shutting down the JVM. With a checkpoint path a single uncompressed flow
+   * log is processed in chunks, checkpointing the counts after each one. With coordinator workers
+   * the flow logs are counted in separate worker processes, see {@link ShardCoordinator}. With
+   * time windows the flow logs are parsed in order on the calling thread, since windows need the
+   * records in order, and the windows still open are closed at the end. With pipeline parsers
+   * the flow logs are read, parsed and counted by the stages of a {@link FlowLogPipeline}
+   * instead; time windows then get a single aggregator, which sees the records in order.
+   * </p>
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param countingOrchestrate the CountingOrchestrate instance for processing lines
+   * @param properties the application properties, used to pick the parser mode and threads
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  public FlowLogProcessor(String flowLogPath, CountingOrchestrate countingOrchestrate,
+      CustomProperties properties) throws MissingMandatoryFileException {
+    this.countingOrchestrate = countingOrchestrate;
+    this.outputFormat = OutputFormat.fromProperties(properties);
+    this.outputOrder = RowOrder.fromProperties(properties);
+    String parser = properties.getProperty(Constants.FLOW_LOG_PARSER, Constants.PARSER_LINES);
+    int threads = properties.getInt(Constants.FLOW_LOG_THREADS, 1);
+    int pipelineParsers = properties.getInt(Constants.PIPELINE_PARSERS, 0);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (properties.getBoolean(Constants.FLOW_LOG_FOLLOW, false)) {
+      followFlowLog(flowLogPath, properties);
+    } else if (countingOrchestrate.getTimeWindows() != null) {
+      if (threads > 1 || properties.getInt(Constants.COORDINATOR_WORKERS, 0) > 0
+          || !properties.getProperty(Constants.CHECKPOINT_PATH, "").trim().isEmpty()) {
+        logger.warning("Time windows need the records in order, ignoring threads, workers and"
+            + " checkpoints");
+      }
+      if (pipelineParsers > 0) {
+        processInPipeline(flowLogPath, properties, 1);
+      } else {
+        processInOrder(flowLogPath);
+      }
+    } else if (properties.getInt(Constants.COORDINATOR_WORKERS, 0) > 0) {
+      processInWorkers(flowLogPath, properties);
+    } else if (pipelineParsers > 0) {
+      if (!properties.getProperty(Constants.CHECKPOINT_PATH, "").trim().isEmpty()) {
+        logger.warning("The pipeline does not checkpoint, ignoring the checkpoint path");
+      }
+      processInPipeline(flowLogPath, properties,
+          properties.getInt(Constants.PIPELINE_AGGREGATORS, 1));
+    } else if (FlowLogScheduler.isMultiFile(flowLogPath)) {
+      processFiles(flowLogPath, threads,
+          properties.getInt(Constants.FLOW_LOG_SPLIT_MB, 64) * 1024L * 1024L);
+    } else if (isGzip(flowLogPath)) {
+      processCompressedFlowLog(flowLogPath);
+    } else if (!properties.getProperty(Constants.CHECKPOINT_PATH, "").trim().isEmpty()) {
+      processWithCheckpoints(flowLogPath, threads,
+          Paths.get(properties.getProperty(Constants.CHECKPOINT_PATH).trim()),
+          Math.max(1, properties.getInt(Constants.CHECKPOINT_INTERVAL_MB, 1024)) * 1024L * 1024L);
+    } else if (threads > 1) {
+      processInParallel(flowLogPath, threads);
+    } else if (Constants.PARSER_MAPPED.equalsIgnoreCase(parser.trim())) {
+      processMappedFlowLog(flowLogPath);
+    } else {
+      processFlowLog(flowLogPath);
+    }
+    if (countingOrchestrate.getTimeWindows() != null) {
+      countingOrchestrate.getTimeWindows().close();
+    }
+  }
+
   /**
    * Processes the flow log file line by line.
    *
@@ -47,21 +164,47 @@ public class FlowLogProcessor {
    */
   private void processFlowLog(String flowLogPath) throws MissingMandatoryFileException {
     logger.info("Starting flow log file processing");
+    FlowLogFormat format = FlowLogFormat.getInstance();
+    int dstPortColumn = format.columnOf(FlowLogFormat.DST_PORT);
+    int protocolColumn = format.columnOf(FlowLogFormat.PROTOCOL);
+    List<Field> extraFields = new ArrayList<>(countingOrchestrate.getRequiredFields());
+    extraFields.remove(Field.DSTPORT);
+    extraFields.remove(Field.PROTOCOL);
+    int[] extraColumns = new int[extraFields.size()];
+    for (int i = 0; i < extraColumns.length; i++) {
+      extraColumns[i] = format.columnOf(extraFields.get(i).getFormatName());
+      if (extraColumns[i] < 0) {
+        throw new IllegalArgumentException("Flow log format has no field "
+            + extraFields.get(i).getFormatName());
+      }
+    }
+    FlowRecord record = new FlowRecord();
     try (Stream<String> stream = Files.lines(Paths.get(flowLogPath))) {
+      PipelineMetrics metrics = PipelineMetrics.getInstance();
       stream.filter(line -> !line.trim().isEmpty()).forEach(line -> {
         String[] flowLog = line.split(" ");
         try {
-          int port = Integer.parseInt(flowLog[6]);
-          int protocol = Integer.parseInt(flowLog[7]);
-          countingOrchestrate.processLine(port, protocol);
+          int port = Integer.parseInt(flowLog[dstPortColumn]);
+          int protocol = Integer.parseInt(flowLog[protocolColumn]);
+          record.clear();
+          record.set(Field.DSTPORT, port);
+          record.set(Field.PROTOCOL, protocol);
+          for (int i = 0; i < extraColumns.length; i++) {
+            parseExtra(record, extraFields.get(i), flowLog, extraColumns[i]);
+          }
+          countingOrchestrate.processRecord(record);
+          metrics.addParsed(1, line.length() + 1, 1);
         } catch (NumberFormatException ex) {
-          errorLogger.logError(
+          metrics.addParsed(1, line.length() + 1, 0);
+          errorLogger.logError(ErrorCategory.NON_INTEGER, () ->
               "Skipping Line because of port or protocol are not integer || " + line + "||");
         } catch (InvalidProtocolNumberException e) {
-          errorLogger.logError(
-              "Skipping Line because protocol number is not in range [0-255] || " + line + " || Number: "+flowLog[7]);
+          metrics.addParsed(1, line.length() + 1, 0);
+          errorLogger.logError(ErrorCategory.PROTOCOL_OUT_OF_RANGE, () ->
+              "Skipping Line because protocol number is not in range [0-255] || " + line + " || Number: "+flowLog[protocolColumn]);
         } catch (ArrayIndexOutOfBoundsException ex) {
-          errorLogger.logError(
+          metrics.addParsed(1, line.length() + 1, 0);
+          errorLogger.logError(ErrorCategory.SHORT_LINE, () ->
               "Skipping Line because flow log is not in correct format || " + line + " ||");
         }
       });
@@ -73,44 +216,403 @@ public class FlowLogProcessor {
   }
 
   /**
-   * Generates an output file containing tag counts and port-protocol counts.
+   * Parses a field needed by a declared aggregation into the record, leaving it missing if the
+   * column is absent or not valid.
+   */
+  private static void parseExtra(FlowRecord record, Field field, String[] flowLog, int column) {
+    if (column >= flowLog.length) {
+      return;
+    }
+    byte[] bytes = flowLog[column].getBytes(StandardCharsets.US_ASCII);
+    try {
+      record.set(field, field.parse(ByteBuffer.wrap(bytes), 0, bytes.length));
+    } catch (NumberFormatException e) {
+      //missing fields only exclude the record from aggregations that need them
+    }
+  }
+
+  /**
+   * Processes the flow log file by memory mapping it and parsing the raw bytes, without decoding
+   * lines into Strings.
    *
-   * @param outPutPath the path to the output file
+   * @param flowLogPath the path to the flow log file
+   * @throws MissingMandatoryFileException if the flow log file does not exist
    */
-  public void generateOutput(String outPutPath) throws MissingMandatoryFileException {
-    logger.info("Requesting output from Counting Orchestrator");
-    Map<String, List<String>> trackerCounts = countingOrchestrate.getOutput();
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(outPutPath))) {
-      // Write tag counts if available
-      if (trackerCounts.containsKey(Constants.TAGGING)) {
-        List<String> tagCounts = trackerCounts.get(Constants.TAGGING);
-        if (!tagCounts.isEmpty()) {
-          writer.write(Constants.TAG_COUNT_HEADER);
-          tagCounts.stream().forEach(line -> {
-            try {
-              writer.write(line + "\n");
-            } catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-          });
+  private void processMappedFlowLog(String flowLogPath) throws MissingMandatoryFileException {
+    logger.info("Starting memory mapped flow log file processing");
+    FlowLogLineParser lineParser = new FlowLogLineParser(countingOrchestrate);
+    try (FileChannel channel = FileChannel.open(Paths.get(flowLogPath), StandardOpenOption.READ)) {
+      MappedRangeReader.readRange(channel, 0, channel.size(), lineParser);
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    }
+  }
+
+  /**
+   * Processes every file named by the flow log path one after the other on the calling thread
+   * with the byte level parser, so records reach the time windows in flow log order.
+   *
+   * @param flowLogPath the configured flow log path, a file, directory, glob or list
+   * @throws MissingMandatoryFileException if no flow log matches or one can not be read
+   */
+  private void processInOrder(String flowLogPath) throws MissingMandatoryFileException {
+    logger.info("Starting in order flow log file processing for time windows");
+    FlowLogLineParser lineParser = new FlowLogLineParser(countingOrchestrate);
+    try {
+      List<Path> flowLogs = FlowLogScheduler.resolve(flowLogPath);
+      if (flowLogs.isEmpty()) {
+        errorLogger.logError("No flow log file matches " + flowLogPath + ". Stopping system");
+        throw new MissingMandatoryFileException("No flow log file matches flowLogPath");
+      }
+      for (Path flowLog : flowLogs) {
+        processFile(flowLog, lineParser);
+      }
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Processes every file named by the flow log path, in order, with a {@link FlowLogPipeline}
+   * sized by the pipeline properties.
+   *
+   * @param flowLogPath the configured flow log path, a file, directory, glob or list
+   * @param properties the application properties holding the pipeline settings
+   * @param aggregators the number of aggregator threads
+   * @throws MissingMandatoryFileException if no flow log matches or one can not be read
+   */
+  private void processInPipeline(String flowLogPath, CustomProperties properties,
+      int aggregators) throws MissingMandatoryFileException {
+    FlowLogPipeline pipeline = new FlowLogPipeline(
+        properties.getInt(Constants.PIPELINE_PARSERS, 0), aggregators,
+        properties.getInt(Constants.PIPELINE_BLOCK_KB, 256) * 1024,
+        properties.getInt(Constants.PIPELINE_BLOCKS, 32));
+    try {
+      List<Path> flowLogs = FlowLogScheduler.resolve(flowLogPath);
+      if (flowLogs.isEmpty()) {
+        errorLogger.logError("No flow log file matches " + flowLogPath + ". Stopping system");
+        throw new MissingMandatoryFileException("No flow log file matches flowLogPath");
+      }
+      pipeline.process(flowLogs, countingOrchestrate);
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MissingMandatoryFileException("Interrupted while reading flowLogPath");
+    }
+  }
+
+  /**
+   * Processes the flow log file on several threads. The file is split into ranges aligned to
+   * line boundaries, every range is counted by its own CountingOrchestrate and the partial counts
+   * are merged back in range order, so the result does not depend on thread scheduling.
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param threads the number of worker threads
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  private void processInParallel(String flowLogPath, int threads)
+      throws MissingMandatoryFileException {
+    logger.info("Starting parallel flow log file processing with " + threads + " threads");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (FileChannel channel = FileChannel.open(Paths.get(flowLogPath), StandardOpenOption.READ)) {
+      long[] bounds = MappedRangeReader.split(channel, threads);
+      List<Future<CountingOrchestrate>> partials = new ArrayList<>();
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        long start = bounds[i];
+        long end = bounds[i + 1];
+        partials.add(executor.submit(() -> {
+          CountingOrchestrate partial = countingOrchestrate.emptyCopy();
+          MappedRangeReader.readRange(channel, start, end, new FlowLogLineParser(partial));
+          return partial;
+        }));
+      }
+      for (Future<CountingOrchestrate> partial : partials) {
+        countingOrchestrate.merge(partial.get());
+      }
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException | ExecutionException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MissingMandatoryFileException("Interrupted while reading flowLogPath");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Processes the flow log file in chunks of about the checkpoint interval, resuming after the
+   * last checkpoint if there is one. Each chunk is memory mapped and, with more than one thread,
+   * split into ranges counted in parallel. Once a chunk is counted the counts and the offset
+   * after it are checkpointed in the background while the next chunk is processed. The
+   * checkpoint is removed when the output has been written.
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param threads the number of worker threads
+   * @param checkpointPath the checkpoint file
+   * @param intervalBytes the number of bytes between two checkpoints
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  private void processWithCheckpoints(String flowLogPath, int threads, Path checkpointPath,
+      long intervalBytes) throws MissingMandatoryFileException {
+    logger.info("Starting checkpointed flow log file processing with " + threads + " threads");
+    ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    FlowLogLineParser lineParser = new FlowLogLineParser(countingOrchestrate);
+    try (FileChannel channel = FileChannel.open(Paths.get(flowLogPath), StandardOpenOption.READ)) {
+      checkpointStore = new CheckpointStore(checkpointPath, Paths.get(flowLogPath));
+      long size = channel.size();
+      long position = checkpointStore.restore(channel, countingOrchestrate);
+      while (position < size) {
+        long next = MappedRangeReader.alignToLineStart(channel,
+            Math.min(size, position + intervalBytes), size);
+        if (executor == null) {
+          MappedRangeReader.readRange(channel, position, next, lineParser);
+        } else {
+          long[] bounds = MappedRangeReader.split(channel, position, next, threads);
+          List<Future<CountingOrchestrate>> partials = new ArrayList<>();
+          for (int i = 0; i + 1 < bounds.length; i++) {
+            long start = bounds[i];
+            long end = bounds[i + 1];
+            partials.add(executor.submit(() -> {
+              CountingOrchestrate partial = countingOrchestrate.emptyCopy();
+              MappedRangeReader.readRange(channel, start, end, new FlowLogLineParser(partial));
+              return partial;
+            }));
+          }
+          for (Future<CountingOrchestrate> partial : partials) {
+            countingOrchestrate.merge(partial.get());
+          }
+        }
+        position = next;
+        if (position < size) {
+          checkpointStore.save(position, countingOrchestrate);
         }
       }
-      // Write port-protocol counts if available
-      List<String> portProtocolCounts = trackerCounts.get(Constants.PORT_PROTOCOL_COUNT);
-      if (!portProtocolCounts.isEmpty()) {
-        writer.write(Constants.PORT_PROTOCOL_HEADER);
-        portProtocolCounts.forEach(line -> {
+      checkpointStore.finish(size, countingOrchestrate);
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException | ExecutionException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MissingMandatoryFileException("Interrupted while reading flowLogPath");
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Processes the byte range {@code [start, end)} of a plain flow log file, or the whole file if
+   * it is gzip compressed.
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param start the offset of the first byte of the range
+   * @param end the offset after the last byte of the range
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  private void processShard(String flowLogPath, long start, long end)
+      throws MissingMandatoryFileException {
+    logger.info("Starting flow log shard processing of bytes " + start + " to " + end);
+    Path flowLog = Paths.get(flowLogPath);
+    FlowLogLineParser lineParser = new FlowLogLineParser(countingOrchestrate);
+    try {
+      if (FlowLogStreamReader.isGzip(flowLog)) {
+        FlowLogStreamReader.readGzip(flowLog, lineParser);
+      } else {
+        try (FileChannel channel = FileChannel.open(flowLog, StandardOpenOption.READ)) {
+          MappedRangeReader.readRange(channel, start, Math.min(end, channel.size()), lineParser);
+        }
+      }
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    }
+  }
+
+  /**
+   * Counts the flow logs in worker processes started by a {@link ShardCoordinator} and merges
+   * their partial counts.
+   *
+   * @param flowLogPath the configured flow log path, a file, directory, glob or list
+   * @param properties the application properties holding the coordinator settings
+   * @throws MissingMandatoryFileException if no flow log matches or a shard keeps failing
+   */
+  private void processInWorkers(String flowLogPath, CustomProperties properties)
+      throws MissingMandatoryFileException {
+    String jvmOptions = properties.getProperty(Constants.COORDINATOR_JVM_OPTIONS, "").trim();
+    ShardCoordinator coordinator = new ShardCoordinator(
+        properties.getInt(Constants.COORDINATOR_WORKERS, 1),
+        properties.getInt(Constants.COORDINATOR_SHARD_MB, 256) * 1024L * 1024L,
+        properties.getInt(Constants.COORDINATOR_RETRIES, 2),
+        Paths.get(properties.getProperty(Constants.COORDINATOR_WORK_DIR, "shards").trim()),
+        jvmOptions.isEmpty() ? new ArrayList<>() : Arrays.asList(jvmOptions.split("\\s+")));
+    try {
+      List<Path> flowLogs = FlowLogScheduler.resolve(flowLogPath);
+      if (flowLogs.isEmpty()) {
+        errorLogger.logError("No flow log file matches " + flowLogPath + ". Stopping system");
+        throw new MissingMandatoryFileException("No flow log file matches flowLogPath");
+      }
+      coordinator.process(flowLogs, countingOrchestrate);
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Not able to count flow logs in worker processes: " + e.getMessage());
+      throw new MissingMandatoryFileException("Can not process flowLogPath: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MissingMandatoryFileException("Interrupted while waiting for worker processes");
+    }
+  }
+
+  /**
+   * Processes a gzip compressed flow log file by decompressing it straight into the byte level
+   * parser.
+   *
+   * @param flowLogPath the path to the compressed flow log file
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  private void processCompressedFlowLog(String flowLogPath) throws MissingMandatoryFileException {
+    logger.info("Starting compressed flow log file processing");
+    try {
+      FlowLogStreamReader.readGzip(Paths.get(flowLogPath), new FlowLogLineParser(countingOrchestrate));
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist or is not valid gzip. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    }
+  }
+
+  /**
+   * Processes every file named by a directory, glob or list of paths on a work-stealing pool and
+   * merges their counts into the CountingOrchestrate.
+   *
+   * @param flowLogPath the configured flow log path
+   * @param threads the number of worker threads
+   * @param splitBytes plain files larger than this are split into ranges
+   * @throws MissingMandatoryFileException if no flow log matches or one can not be read
+   */
+  private void processFiles(String flowLogPath, int threads, long splitBytes)
+      throws MissingMandatoryFileException {
+    try {
+      List<Path> flowLogs = FlowLogScheduler.resolve(flowLogPath);
+      if (flowLogs.isEmpty()) {
+        errorLogger.logError("No flow log file matches " + flowLogPath + ". Stopping system");
+        throw new MissingMandatoryFileException("No flow log file matches flowLogPath");
+      }
+      new FlowLogScheduler(threads, splitBytes).process(flowLogs, countingOrchestrate);
+      logger.info("Flow log parsing successfully complete");
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parses a whole flow log file with the byte level parser, decompressing it if needed.
+   *
+   * @param flowLog the flow log file, plain or gzip compressed
+   * @param lineParser the parser receiving the lines
+   * @throws IOException if the file can not be read
+   */
+  public static void processFile(Path flowLog, FlowLogLineParser lineParser) throws IOException {
+    if (FlowLogStreamReader.isGzip(flowLog)) {
+      FlowLogStreamReader.readGzip(flowLog, lineParser);
+    } else {
+      try (FileChannel channel = FileChannel.open(flowLog, StandardOpenOption.READ)) {
+        MappedRangeReader.readRange(channel, 0, channel.size(), lineParser);
+      }
+    }
+  }
+
+  private boolean isGzip(String flowLogPath) throws MissingMandatoryFileException {
+    try {
+      return FlowLogStreamReader.isGzip(Paths.get(flowLogPath));
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    }
+  }
+
+  /**
+   * Follows the flow log, counting appended records as they arrive and rewriting the output file
+   * as a snapshot at the configured interval. Following stops when the JVM shuts down, after a
+   * final snapshot has been written.
+   *
+   * @param flowLogPath the path to the flow log file
+   * @param properties the application properties holding output path and follow settings
+   * @throws MissingMandatoryFileException if the flow log file does not exist
+   */
+  private void followFlowLog(String flowLogPath, CustomProperties properties)
+      throws MissingMandatoryFileException {
+    String outputPath = properties.getProperty(Constants.OUTPUT_FILE_PATH);
+    FlowLogFollower follower = new FlowLogFollower(Paths.get(flowLogPath),
+        new FlowLogLineParser(countingOrchestrate),
+        properties.getInt(Constants.FOLLOW_POLL_INTERVAL_MS, 1000),
+        properties.getInt(Constants.FOLLOW_SNAPSHOT_INTERVAL_SECONDS, 30) * 1000L,
+        properties.getInt(Constants.FOLLOW_SNAPSHOT_RECORDS, 1000000),
+        () -> {
           try {
-            writer.write(line + "\n");
-          } catch (IOException e) {
-            throw new RuntimeException(e);
+            generateOutput(outputPath);
+          } catch (MissingMandatoryFileException e) {
+            logger.warning("Not able to write snapshot to " + outputPath);
           }
         });
+    errorLogger.closeOnlyExplicitly();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      follower.stop(10000);
+      if (countingOrchestrate.getTimeWindows() != null) {
+        //the JVM may halt before the constructor gets to close the windows
+        countingOrchestrate.getTimeWindows().close();
       }
-      logger.info("Output added successfully to output file, Check path "+outPutPath);
+      //after the last read is drained, so its errors are written before the summary
+      errorLogger.close();
+    }, "flow-log-follower-shutdown"));
+    logger.info("Following flow log file " + flowLogPath);
+    try {
+      follower.follow();
+    } catch (IOException e) {
+      errorLogger.logError("Flow Path file does not exist. Stopping system");
+      throw new MissingMandatoryFileException("Can not read flowLogPath");
+    }
+  }
+
+  /**
+   * Generates an output file containing tag counts and port-protocol counts, see
+   * {@link OutputWriter}.
+   *
+   * @param outPutPath the path to the output file
+   */
+  public void generateOutput(String outPutPath) throws MissingMandatoryFileException {
+    new OutputWriter(countingOrchestrate, outputFormat, outputOrder).write(outPutPath);
+    if (checkpointStore != null) {
+      checkpointStore.delete();
+    }
+  }
+
+  /**
+   * Writes the counts as a binary partial aggregate that the Merge command combines with the
+   * partials of other runs, see {@link PartialAggregateFile}.
+   *
+   * @param partialPath the path to the partial aggregate file
+   * @throws MissingMandatoryFileException if the file can not be written
+   */
+  public void generatePartial(String partialPath) throws MissingMandatoryFileException {
+    try {
+      PartialAggregateFile.write(Paths.get(partialPath), countingOrchestrate);
+      logger.info("Partial aggregate written to " + partialPath);
     } catch (IOException e) {
-      errorLogger.logError("Not able to add data to output file");
-      throw new MissingMandatoryFileException("Missing output file or incorrect path");
+      errorLogger.logError("Not able to write partial aggregate " + partialPath);
+      throw new MissingMandatoryFileException("Can not write partial aggregate: " + e.getMessage());
     }
   }
 }
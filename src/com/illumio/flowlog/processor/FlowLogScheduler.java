@@ -0,0 +1,303 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * FlowLogScheduler processes many flow log files, given as files, directories or glob patterns,
+ * on a work-stealing {@link ForkJoinPool}.
+ *
+ * <p>
+ * Every file becomes one or more work units: gzip files and small plain files are one unit,
+ * plain files larger than the split size are cut into line aligned byte ranges so a few huge
+ * files do not leave workers idle. The units are processed by recursively halving the list,
+ * consecutive small units are counted together, and the partial counts are merged left to right
+ * on the way back up, so the result does not depend on which worker stole which task.
+ * </p>
+ */
+public class FlowLogScheduler {
+
+  private static final Logger logger = Logger.getLogger(FlowLogScheduler.class.getName());
+  private static final double MEGABYTE = 1024 * 1024;
+
+  private final int threads;
+  private final long splitBytes;
+  private final Map<Path, FileProgress> progress = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a FlowLogScheduler.
+   *
+   * @param threads the number of worker threads
+   * @param splitBytes plain files larger than this are split into ranges of about this size
+   */
+  public FlowLogScheduler(int threads, long splitBytes) {
+    this.threads = threads;
+    this.splitBytes = Math.max(1, splitBytes);
+  }
+
+  /**
+   * Resolves a comma separated list of files, directories and glob patterns into the sorted list
+   * of flow log files, see {@link #resolve(List)}. A path holding a comma that names an existing
+   * file or directory as a whole is taken as that one path rather than split.
+   *
+   * @param flowLogPath the configured flow log path
+   * @return the matching regular files
+   * @throws IOException if a directory can not be read
+   */
+  public static List<Path> resolve(String flowLogPath) throws IOException {
+    String whole = flowLogPath.trim();
+    return resolve(whole.indexOf(',') >= 0 && exists(whole)
+        ? Collections.singletonList(whole) : Arrays.asList(flowLogPath.split(",")));
+  }
+
+  /**
+   * Resolves files, directories and glob patterns into the sorted list of flow log files.
+   * Directories are searched recursively, glob patterns are matched against paths below the
+   * directory preceding the first wildcard. Empty entries are skipped. A file named by several
+   * entries, or through different paths, is listed once.
+   *
+   * @param entries the files, directories and glob patterns, each taken as a whole
+   * @return the matching regular files
+   * @throws IOException if a directory can not be read
+   */
+  public static List<Path> resolve(List<String> entries) throws IOException {
+    List<Path> matches = new ArrayList<>();
+    for (String entry : entries) {
+      String spec = entry.trim();
+      if (spec.isEmpty()) {
+        continue;
+      }
+      if (isGlob(spec)) {
+        matches.addAll(matchGlob(spec));
+      } else if (Files.isDirectory(Paths.get(spec))) {
+        matches.addAll(walk(Paths.get(spec), null));
+      } else {
+        matches.add(Paths.get(spec));
+      }
+    }
+    Set<Path> files = new HashSet<>();
+    Set<Path> flowLogs = new TreeSet<>();
+    for (Path match : matches) {
+      //a missing file is kept, so it is reported rather than silently skipped
+      Path file = Files.exists(match) ? match.toRealPath() : match.toAbsolutePath().normalize();
+      if (files.add(file)) {
+        flowLogs.add(match);
+      }
+    }
+    return new ArrayList<>(flowLogs);
+  }
+
+  /**
+   * @param flowLogPath the configured flow log path
+   * @return whether the path names more than one file, or possibly does
+   */
+  public static boolean isMultiFile(String flowLogPath) {
+    String whole = flowLogPath.trim();
+    return (whole.indexOf(',') >= 0 && !exists(whole)) || isGlob(whole)
+        || Files.isDirectory(Paths.get(whole));
+  }
+
+  private static boolean exists(String path) {
+    try {
+      return Files.exists(Paths.get(path));
+    } catch (InvalidPathException e) {
+      return false;
+    }
+  }
+
+  private static boolean isGlob(String spec) {
+    return spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0 || spec.indexOf('[') >= 0
+        || spec.indexOf('{') >= 0;
+  }
+
+  private static List<Path> matchGlob(String spec) throws IOException {
+    int wildcard = spec.length();
+    for (char c : new char[] {'*', '?', '[', '{'}) {
+      int index = spec.indexOf(c);
+      if (index >= 0 && index < wildcard) {
+        wildcard = index;
+      }
+    }
+    int separator = Math.max(spec.lastIndexOf('/', wildcard), spec.lastIndexOf('\\', wildcard));
+    Path base = separator < 0 ? Paths.get(".") : Paths.get(spec.substring(0, separator + 1));
+    String pattern = spec.substring(separator + 1);
+    PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + pattern);
+    return walk(base, matcher);
+  }
+
+  private static List<Path> walk(Path base, PathMatcher matcher) throws IOException {
+    try (Stream<Path> paths = Files.walk(base)) {
+      return paths.filter(Files::isRegularFile)
+          .filter(path -> matcher == null || matcher.matches(base.relativize(path)))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Processes the files and merges all counts into the target.
+   *
+   * @param flowLogs the flow log files, plain or gzip compressed
+   * @param target the CountingOrchestrate receiving the merged counts
+   * @throws IOException if one of the files can not be read
+   */
+  public void process(List<Path> flowLogs, CountingOrchestrate target) throws IOException {
+    List<WorkUnit> units = plan(flowLogs);
+    logger.info("Scheduling " + flowLogs.size() + " flow log files as " + units.size()
+        + " work units on " + threads + " threads");
+    long started = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      if (!units.isEmpty()) {
+        target.merge(pool.invoke(new UnitsTask(units, 0, units.size(), target)));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdownNow();
+    }
+    long totalBytes = units.stream().mapToLong(unit -> unit.end - unit.start).sum();
+    double seconds = Math.max(1, System.nanoTime() - started) / 1e9;
+    logger.info(String.format("Processed %d files, %.1f MB in %.2f s (%.1f MB/s)",
+        flowLogs.size(), totalBytes / MEGABYTE, seconds, totalBytes / MEGABYTE / seconds));
+  }
+
+  /**
+   * Cuts the files into work units, splitting large plain files into line aligned ranges.
+   */
+  private List<WorkUnit> plan(List<Path> flowLogs) throws IOException {
+    List<WorkUnit> units = new ArrayList<>();
+    for (Path flowLog : flowLogs) {
+      long size = Files.size(flowLog);
+      if (size <= splitBytes || FlowLogStreamReader.isGzip(flowLog)) {
+        units.add(new WorkUnit(flowLog, 0, size, true));
+        progress.put(flowLog, new FileProgress(size));
+        continue;
+      }
+      try (FileChannel channel = FileChannel.open(flowLog, StandardOpenOption.READ)) {
+        long[] bounds = MappedRangeReader.split(channel, (int) Math.min(Integer.MAX_VALUE,
+            (size + splitBytes - 1) / splitBytes));
+        for (int i = 0; i + 1 < bounds.length; i++) {
+          units.add(new WorkUnit(flowLog, bounds[i], bounds[i + 1], false));
+        }
+      }
+      progress.put(flowLog, new FileProgress(size));
+    }
+    return units;
+  }
+
+  private void processUnit(WorkUnit unit, FlowLogLineParser lineParser) throws IOException {
+    FileProgress fileProgress = progress.get(unit.path);
+    fileProgress.started.compareAndSet(0, System.nanoTime());
+    if (unit.wholeFile) {
+      FlowLogProcessor.processFile(unit.path, lineParser);
+    } else {
+      try (FileChannel channel = FileChannel.open(unit.path, StandardOpenOption.READ)) {
+        MappedRangeReader.readRange(channel, unit.start, unit.end, lineParser);
+      }
+    }
+    if (fileProgress.remaining.addAndGet(-(unit.end - unit.start)) == 0) {
+      double seconds = Math.max(1, System.nanoTime() - fileProgress.started.get()) / 1e9;
+      logger.info(String.format("Processed flow log %s, %.1f MB at %.1f MB/s", unit.path,
+          fileProgress.size / MEGABYTE, fileProgress.size / MEGABYTE / seconds));
+    }
+  }
+
+  /**
+   * A file, or a byte range of a plain file, processed by one task.
+   */
+  private static final class WorkUnit {
+    private final Path path;
+    private final long start;
+    private final long end;
+    private final boolean wholeFile;
+
+    private WorkUnit(Path path, long start, long end, boolean wholeFile) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+      this.wholeFile = wholeFile;
+    }
+  }
+
+  /**
+   * Bytes of a file not processed yet, used to report a file once all its ranges are done.
+   */
+  private static final class FileProgress {
+    private final long size;
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong remaining;
+
+    private FileProgress(long size) {
+      this.size = size;
+      this.remaining = new AtomicLong(size);
+    }
+  }
+
+  /**
+   * Counts the units {@code [from, to)}, halving the list until the units fit in one split.
+   */
+  private final class UnitsTask extends RecursiveTask<CountingOrchestrate> {
+    private static final long serialVersionUID = 1L;
+    private final List<WorkUnit> units;
+    private final int from;
+    private final int to;
+    private final CountingOrchestrate template;
+
+    private UnitsTask(List<WorkUnit> units, int from, int to, CountingOrchestrate template) {
+      this.units = units;
+      this.from = from;
+      this.to = to;
+      this.template = template;
+    }
+
+    @Override
+    protected CountingOrchestrate compute() {
+      long bytes = 0;
+      for (int i = from; i < to; i++) {
+        bytes += units.get(i).end - units.get(i).start;
+      }
+      if (to - from == 1 || bytes <= splitBytes) {
+        CountingOrchestrate partial = template.emptyCopy();
+        FlowLogLineParser lineParser = new FlowLogLineParser(partial);
+        for (int i = from; i < to; i++) {
+          try {
+            processUnit(units.get(i), lineParser);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return partial;
+      }
+      int middle = (from + to) >>> 1;
+      UnitsTask right = new UnitsTask(units, middle, to, template);
+      right.fork();
+      CountingOrchestrate left = new UnitsTask(units, from, middle, template).compute();
+      left.merge(right.join());
+      return left;
+    }
+  }
+}
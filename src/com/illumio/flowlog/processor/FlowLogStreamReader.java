@@ -0,0 +1,112 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.LatencyHistogram;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FlowLogStreamReader feeds flow log bytes that can only be read sequentially, such as gzip
+ * compressed files, to a {@link FlowLogLineParser} through one large reusable buffer.
+ */
+public final class FlowLogStreamReader {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int INFLATER_BUFFER_SIZE = 1 << 16;
+  static final int MAX_LINE = 64 << 20;
+
+  private FlowLogStreamReader() {
+  }
+
+  /**
+   * Checks the gzip magic number at the start of the file.
+   *
+   * @param path the file to check
+   * @return whether the file is gzip compressed
+   * @throws IOException if the file can not be read
+   */
+  public static boolean isGzip(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(2);
+      while (magic.hasRemaining() && channel.read(magic) > 0) {
+        //read both bytes
+      }
+      return magic.position() == 2 && (magic.get(0) & 0xFF) == 0x1f
+          && (magic.get(1) & 0xFF) == 0x8b;
+    }
+  }
+
+  /**
+   * Decompresses a gzip file while parsing it, without writing the uncompressed bytes anywhere.
+   *
+   * @param path the gzip compressed flow log
+   * @param lineParser the parser receiving the lines
+   * @throws IOException if the file can not be read or is not valid gzip
+   */
+  public static void readGzip(Path path, FlowLogLineParser lineParser) throws IOException {
+    try (InputStream input = new GZIPInputStream(Files.newInputStream(path), INFLATER_BUFFER_SIZE)) {
+      readStream(input, lineParser);
+    }
+  }
+
+  /**
+   * Opens a flow log for sequential reading, decompressing it if it is gzip compressed.
+   *
+   * @param path the flow log, plain or gzip compressed
+   * @return the stream of uncompressed flow log bytes
+   * @throws IOException if the file can not be opened
+   */
+  static InputStream open(Path path) throws IOException {
+    if (isGzip(path)) {
+      return new GZIPInputStream(Files.newInputStream(path), INFLATER_BUFFER_SIZE);
+    }
+    return Files.newInputStream(path);
+  }
+
+  /**
+   * Parses every line of the stream. The last line does not need a terminator.
+   *
+   * @param input the stream of flow log bytes, not closed by this method
+   * @param lineParser the parser receiving the lines
+   * @throws IOException if the stream can not be read
+   */
+  public static void readStream(InputStream input, FlowLogLineParser lineParser)
+      throws IOException {
+    byte[] bytes = new byte[BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    LatencyHistogram readLatency = PipelineMetrics.getInstance().readLatency();
+    int filled = 0;
+    int read;
+    long started = System.nanoTime();
+    while ((read = input.read(bytes, filled, bytes.length - filled)) != -1) {
+      readLatency.record(System.nanoTime() - started);
+      filled += read;
+      int consumed = lineParser.parseLines(buffer, 0, filled, false);
+      if (consumed > 0) {
+        System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+        filled -= consumed;
+      } else if (filled == bytes.length) {
+        if (bytes.length >= MAX_LINE) {
+          ErrorLogger.getInstance().logError(ErrorCategory.LINE_TOO_LONG, () ->
+              "Skipping bytes because line is longer than " + MAX_LINE + " bytes");
+          filled = 0;
+        } else {
+          byte[] larger = new byte[bytes.length * 2];
+          System.arraycopy(bytes, 0, larger, 0, filled);
+          bytes = larger;
+          buffer = ByteBuffer.wrap(bytes);
+        }
+      }
+      started = System.nanoTime();
+    }
+    lineParser.parseLines(buffer, 0, filled, true);
+  }
+}
@@ -0,0 +1,125 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.loggers.ErrorCategory;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.metrics.PipelineMetrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * MappedRangeReader memory maps byte ranges of a flow log and hands them to a
+ * {@link FlowLogLineParser}. It also splits a file into ranges that start and end on line
+ * boundaries, so each range can be parsed independently by its own worker.
+ */
+public final class MappedRangeReader {
+
+  /** Largest region mapped at once, mappings are limited to an int sized buffer. */
+  static final int MAX_MAPPED_REGION = 1 << 30;
+
+  private MappedRangeReader() {
+  }
+
+  /**
+   * Parses every line in the range {@code [start, end)}. The range must begin at the start of a
+   * line, its end is treated as the end of the last line.
+   *
+   * @param channel the channel of the flow log file
+   * @param start the offset of the first byte of the range
+   * @param end the offset after the last byte of the range
+   * @param lineParser the parser receiving the lines
+   * @throws IOException if the file can not be mapped
+   */
+  public static void readRange(FileChannel channel, long start, long end,
+      FlowLogLineParser lineParser) throws IOException {
+    long position = start;
+    while (position < end) {
+      int regionSize = (int) Math.min(MAX_MAPPED_REGION, end - position);
+      boolean lastRegion = position + regionSize == end;
+      long started = System.nanoTime();
+      MappedByteBuffer region = channel.map(MapMode.READ_ONLY, position, regionSize);
+      PipelineMetrics.getInstance().readLatency().record(System.nanoTime() - started);
+      int consumed = lineParser.parseLines(region, 0, regionSize, lastRegion);
+      if (consumed == 0) {
+        //a single line longer than a whole region can not be a flow log record
+        long offset = position;
+        ErrorLogger.getInstance().logError(ErrorCategory.LINE_TOO_LONG, () ->
+            "Skipping bytes because line is longer than " + MAX_MAPPED_REGION + " bytes || Offset: "
+                + offset);
+        consumed = regionSize;
+      }
+      position += consumed;
+    }
+  }
+
+  /**
+   * Splits the file into at most {@code parts} ranges of similar size, moving every boundary
+   * forward to the start of the next line.
+   *
+   * @param channel the channel of the flow log file
+   * @param parts the number of ranges wanted
+   * @return the range boundaries, range {@code i} is {@code [bounds[i], bounds[i + 1])}
+   * @throws IOException if the file can not be read
+   */
+  public static long[] split(FileChannel channel, int parts) throws IOException {
+    return split(channel, 0, channel.size(), parts);
+  }
+
+  /**
+   * Splits the range {@code [start, end)}, which must begin at the start of a line, into at most
+   * {@code parts} ranges of similar size, moving every boundary forward to the start of the next
+   * line.
+   *
+   * @param channel the channel of the flow log file
+   * @param start the offset of the first byte of the range
+   * @param end the offset after the last byte of the range
+   * @param parts the number of ranges wanted
+   * @return the range boundaries, range {@code i} is {@code [bounds[i], bounds[i + 1])}
+   * @throws IOException if the file can not be read
+   */
+  public static long[] split(FileChannel channel, long start, long end, int parts)
+      throws IOException {
+    long[] bounds = new long[parts + 1];
+    bounds[0] = start;
+    int count = 1;
+    for (int i = 1; i < parts; i++) {
+      long boundary = alignToLineStart(channel, start + (end - start) * i / parts, end);
+      if (boundary > bounds[count - 1] && boundary < end) {
+        bounds[count++] = boundary;
+      }
+    }
+    bounds[count] = end;
+    long[] ranges = new long[count + 1];
+    System.arraycopy(bounds, 0, ranges, 0, count + 1);
+    return ranges;
+  }
+
+  /**
+   * Moves the offset forward to the first byte after a line terminator, unless it already sits
+   * at the start of a line.
+   */
+  static long alignToLineStart(FileChannel channel, long offset, long size) throws IOException {
+    if (offset <= 0) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    long position = offset - 1;
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n' || b == '\r') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+}
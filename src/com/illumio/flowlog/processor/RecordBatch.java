@@ -0,0 +1,167 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RecordBatch carries one block of flow log bytes through a {@link FlowLogPipeline}, together
+ * with the records parsed from it.
+ *
+ * <p>
+ * The block always ends on a line boundary. Records are packed into one primitive column per
+ * needed field plus a mask of the fields each record has, so handing thousands of records to the
+ * next stage is handing over one object. Batches are recycled, the arrays only grow the first
+ * times a block holds more bytes or records than any before it.
+ * </p>
+ */
+final class RecordBatch {
+
+  private static final int INITIAL_RECORDS = 4096;
+
+  private final Field[] fields;
+  private final long[][] columns;
+  private int[] present = new int[INITIAL_RECORDS];
+  private int size;
+
+  private byte[] bytes;
+  private ByteBuffer buffer;
+  private int length;
+  private long sequence;
+  private boolean last;
+
+  /**
+   * Constructs a RecordBatch.
+   *
+   * @param fields the fields packed besides destination port and protocol
+   * @param blockBytes the initial capacity of the block
+   */
+  RecordBatch(List<Field> fields, int blockBytes) {
+    int mask = Field.DSTPORT.bit() | Field.PROTOCOL.bit();
+    for (Field field : fields) {
+      mask |= field.bit();
+    }
+    this.fields = new Field[Integer.bitCount(mask)];
+    this.columns = new long[this.fields.length][INITIAL_RECORDS];
+    int column = 0;
+    for (Field field : Field.values()) {
+      if ((mask & field.bit()) != 0) {
+        this.fields[column++] = field;
+      }
+    }
+    this.bytes = new byte[blockBytes];
+    this.buffer = ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * Constructs the batch following the last block, which carries no bytes and only tells the
+   * stage receiving it that the input has ended.
+   *
+   * @param sequence the sequence number after the last block
+   * @return the batch
+   */
+  static RecordBatch last(long sequence) {
+    RecordBatch batch = new RecordBatch(Collections.<Field>emptyList(), 0);
+    batch.sequence = sequence;
+    batch.last = true;
+    return batch;
+  }
+
+  /** @return the array the block is read into */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  /** @return the block wrapped as a buffer for the parser */
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * Doubles the capacity of the block, keeping its first bytes.
+   *
+   * @param keep the number of bytes to keep
+   */
+  void grow(int keep) {
+    byte[] larger = new byte[bytes.length * 2];
+    System.arraycopy(bytes, 0, larger, 0, keep);
+    bytes = larger;
+    buffer = ByteBuffer.wrap(bytes);
+  }
+
+  /** @return the number of bytes of the block */
+  int length() {
+    return length;
+  }
+
+  /** @return the position of the block in the input, blocks are numbered from 0 */
+  long sequence() {
+    return sequence;
+  }
+
+  /** @return whether this batch only marks the end of the input */
+  boolean isLast() {
+    return last;
+  }
+
+  /**
+   * Hands the block on with its length and sequence number, dropping the records of its
+   * previous use.
+   *
+   * @param length the number of bytes of the block
+   * @param sequence the position of the block in the input
+   */
+  void publish(int length, long sequence) {
+    this.length = length;
+    this.sequence = sequence;
+    this.size = 0;
+  }
+
+  /** @return the number of records packed */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Packs a record behind the ones before it.
+   *
+   * @param record the record
+   */
+  void add(FlowRecord record) {
+    if (size == present.length) {
+      int capacity = size * 2;
+      present = Arrays.copyOf(present, capacity);
+      for (int column = 0; column < columns.length; column++) {
+        columns[column] = Arrays.copyOf(columns[column], capacity);
+      }
+    }
+    int mask = 0;
+    for (int column = 0; column < fields.length; column++) {
+      Field field = fields[column];
+      if (record.has(field.bit())) {
+        columns[column][size] = record.get(field);
+        mask |= field.bit();
+      }
+    }
+    present[size++] = mask;
+  }
+
+  /**
+   * Unpacks a record.
+   *
+   * @param index the index of the record in the batch
+   * @param record the record receiving the fields, cleared first
+   */
+  void load(int index, FlowRecord record) {
+    record.clear();
+    int mask = present[index];
+    for (int column = 0; column < fields.length; column++) {
+      if ((mask & fields[column].bit()) != 0) {
+        record.set(fields[column], columns[column][index]);
+      }
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package com.illumio.flowlog.processor;
+
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+
+/**
+ * RecordConsumer receives the records a {@link FlowLogLineParser} parses, either counting them
+ * straight away or keeping them for a later stage.
+ */
+public interface RecordConsumer {
+
+  /**
+   * Takes one parsed record, which the parser reuses for the next line.
+   *
+   * @param record the record, holding at least destination port and protocol
+   * @throws InvalidProtocolNumberException if the protocol number is not in range [0-255]
+   */
+  void accept(FlowRecord record) throws InvalidProtocolNumberException;
+}
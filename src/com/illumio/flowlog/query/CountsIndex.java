@@ -0,0 +1,372 @@
+package com.illumio.flowlog.query;
+
+import com.illumio.flowlog.aggregation.Aggregation;
+import com.illumio.flowlog.aggregation.AggregationSpec;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.trackers.interfaces.RecordTracker;
+import com.illumio.flowlog.utilities.IndexSort;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CountsIndex answers queries over the tag and port/protocol counts of a
+ * {@link CountingOrchestrate}, such as the count of a tag, the busiest ports of a protocol or
+ * every untagged port/protocol pair, without going through the output file.
+ *
+ * <p>
+ * An index is an immutable snapshot: it is built from a copy of the counts, so building and
+ * querying it never holds up the thread counting records. The pairs are held in primitive
+ * arrays sorted by port and protocol, which a point lookup binary searches. Besides, the pairs
+ * are ordered by count, from the largest, in three permutations: all pairs, pairs grouped by
+ * protocol and pairs grouped by tag, each group starting at a known offset. A top-N query is then
+ * a slice of a permutation, found in constant time, and a lookup takes {@code O(log n)}, well
+ * under a millisecond for millions of pairs. Building the index takes {@code O(n log n)}.
+ * </p>
+ *
+ * <p>
+ * The tag of a pair is resolved through the lookup table when the index is built, so a pair
+ * counted before a reload of the lookup table is listed under its current tag. The count of a tag
+ * is the sum of the counts of its pairs, so it always agrees with the pairs listed under it, and
+ * it may differ from the tag counts of the output, which keep the tag a record had when it was
+ * counted, until nothing is counted across a reload.
+ * </p>
+ */
+public final class CountsIndex {
+
+  private static final int PROTOCOLS = 256;
+  private static final int PROTOCOL_BITS = 8;
+
+  //the pairs, sorted by key
+  private final long[] keys;
+  private final long[] counts;
+  private final int[] tagIds;
+
+  private final int[] byCount;
+  private final int[] byProtocol;
+  private final int[] protocolStarts;
+  private final int[] byTag;
+  private final int[] tagStarts;
+
+  private final String[] tagNames;
+  private final Map<String, Integer> tagIdsByName;
+  private final long[] tagCounts;
+  private final int[] tagsByCount;
+
+  private final String[] protocolKeywords = new String[PROTOCOLS];
+  private final Map<String, Integer> protocolNumbers = new HashMap<>();
+
+  private CountsIndex(long[][] pairs, LookupTableLoader lookupTableLoader,
+      ProtocolNumberLoader protocolNumberLoader) {
+    for (int protocol = 0; protocol < PROTOCOLS; protocol++) {
+      String keyword = protocolNumberLoader.getKeyword(protocol);
+      protocolKeywords[protocol] = keyword;
+      //numbers are parsed by protocolNumber, a keyword spelling a number must not shadow them
+      if (keyword != null && !keyword.equals(String.valueOf(protocol))) {
+        protocolNumbers.putIfAbsent(keyword, protocol);
+      }
+    }
+
+    int size = pairs[0].length;
+    long[] unsortedKeys = new long[size];
+    for (int row = 0; row < size; row++) {
+      unsortedKeys[row] = pairs[0][row] << PROTOCOL_BITS | pairs[1][row];
+    }
+    int[] sorted = IndexSort.sort(unsortedKeys, false, unsortedKeys, size);
+    keys = new long[size];
+    counts = new long[size];
+    tagIds = new int[size];
+    for (int position = 0; position < size; position++) {
+      keys[position] = unsortedKeys[sorted[position]];
+      counts[position] = pairs[2][sorted[position]];
+      if (lookupTableLoader != null) {
+        tagIds[position] = lookupTableLoader.getTagId(port(position), protocol(position));
+      }
+    }
+
+    //taken after the tags of the pairs, so it names every id a reload gave them
+    int tagCount = lookupTableLoader == null ? 1 : lookupTableLoader.getTagCount();
+    tagNames = new String[tagCount];
+    tagIdsByName = new HashMap<>();
+    for (int tagId = 0; tagId < tagCount && lookupTableLoader != null; tagId++) {
+      tagNames[tagId] = lookupTableLoader.getTagName(tagId);
+      tagIdsByName.put(tagNames[tagId], tagId);
+    }
+    tagCounts = new long[tagCount];
+    for (int position = 0; position < size && lookupTableLoader != null; position++) {
+      tagCounts[tagIds[position]] += counts[position];
+    }
+    tagsByCount = orderTags(tagCounts);
+
+    byCount = IndexSort.sort(counts, true, keys, size);
+    int[] protocols = new int[size];
+    for (int position = 0; position < size; position++) {
+      protocols[position] = protocol(position);
+    }
+    protocolStarts = new int[PROTOCOLS + 1];
+    byProtocol = group(byCount, protocols, protocolStarts);
+    tagStarts = new int[tagCount + 1];
+    byTag = group(byCount, tagIds, tagStarts);
+  }
+
+  /**
+   * Builds an index of the port/protocol counts of a CountingOrchestrate and of the tags of the
+   * pairs. The counts are read as they are, so a CountingOrchestrate that is still counting must
+   * be handed over as a {@link CountingOrchestrate#copy()} taken on the thread counting.
+   *
+   * @param countingOrchestrate the counts, which are not changed
+   * @return the index
+   */
+  public static CountsIndex build(CountingOrchestrate countingOrchestrate) {
+    long[][] pairs = null;
+    for (RecordTracker aggregation : countingOrchestrate.getAggregations()) {
+      if (aggregation.getSpec().getName().equals(AggregationSpec.PORT_PROTOCOL.getName())) {
+        pairs = ((Aggregation) aggregation).toColumns();
+      }
+    }
+    return new CountsIndex(pairs, countingOrchestrate.getLookupTableLoader(),
+        countingOrchestrate.getProtocolNumberLoader());
+  }
+
+  /**
+   * @return the number of port/protocol pairs seen
+   */
+  public int getPairCount() {
+    return keys.length;
+  }
+
+  /**
+   * @return whether tags are known, which needs a lookup table
+   */
+  public boolean hasTags() {
+    return tagIdsByName.size() > 0;
+  }
+
+  /**
+   * Retrieves the number of records of a port/protocol pair.
+   *
+   * @param port the destination port
+   * @param protocol the protocol number
+   * @return the count, 0 if the pair was not seen
+   */
+  public long getCount(int port, int protocol) {
+    int position = Arrays.binarySearch(keys, (port & 0xFFFFFFFFL) << PROTOCOL_BITS | protocol);
+    return position < 0 ? 0 : counts[position];
+  }
+
+  /**
+   * Retrieves a port/protocol pair, as a selection of that pair if it was seen and an empty one
+   * otherwise.
+   *
+   * @param port the destination port
+   * @param protocol the protocol number
+   * @return the pair
+   * @throws IllegalArgumentException if the protocol number is not between 0 and 255
+   */
+  public PairSelection pair(int port, int protocol) {
+    checkProtocol(protocol);
+    int position = Arrays.binarySearch(keys, (port & 0xFFFFFFFFL) << PROTOCOL_BITS | protocol);
+    return new PairSelection(this, new int[] {position}, 0, position < 0 ? 0 : 1);
+  }
+
+  /**
+   * Retrieves the number of records of a tag.
+   *
+   * @param tag the tag name as in the lookup table, or "Untagged"
+   * @return the count, 0 if the tag was not seen
+   * @throws IllegalArgumentException if there is no lookup table or no such tag in it
+   */
+  public long getTagCount(String tag) {
+    return tagCounts[tagId(tag)];
+  }
+
+  /**
+   * Retrieves the tags seen, from the largest count, ties by tag id.
+   *
+   * @param limit the largest number of tags returned
+   * @return the tag names
+   */
+  public List<String> topTags(int limit) {
+    int length = Math.min(Math.max(0, limit), tagsByCount.length);
+    List<String> tags = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      tags.add(tagNames[tagsByCount[i]]);
+    }
+    return tags;
+  }
+
+  /**
+   * Retrieves the pairs with the largest counts, ties by port then protocol.
+   *
+   * @param limit the largest number of pairs returned
+   * @return the pairs
+   */
+  public PairSelection top(int limit) {
+    return slice(byCount, 0, keys.length, limit);
+  }
+
+  /**
+   * Retrieves the pairs of a protocol with the largest counts, ties by port.
+   *
+   * @param protocol the protocol number
+   * @param limit the largest number of pairs returned
+   * @return the pairs
+   * @throws IllegalArgumentException if the protocol number is not between 0 and 255
+   */
+  public PairSelection topOfProtocol(int protocol, int limit) {
+    checkProtocol(protocol);
+    return slice(byProtocol, protocolStarts[protocol], protocolStarts[protocol + 1], limit);
+  }
+
+  /**
+   * Retrieves the pairs tagged with a tag with the largest counts, ties by port then protocol.
+   * Passing "Untagged" with no limit lists every pair the lookup table does not tag.
+   *
+   * @param tag the tag name as in the lookup table, or "Untagged"
+   * @param limit the largest number of pairs returned
+   * @return the pairs
+   * @throws IllegalArgumentException if there is no lookup table or no such tag in it
+   */
+  public PairSelection topOfTag(String tag, int limit) {
+    int tagId = tagId(tag);
+    return slice(byTag, tagStarts[tagId], tagStarts[tagId + 1], limit);
+  }
+
+  /**
+   * Retrieves the pairs of a protocol tagged with a tag with the largest counts, ties by port.
+   * The smaller of the two groups is scanned.
+   *
+   * @param tag the tag name as in the lookup table, or "Untagged"
+   * @param protocol the protocol number
+   * @param limit the largest number of pairs returned
+   * @return the pairs
+   * @throws IllegalArgumentException if there is no such tag or protocol number
+   */
+  public PairSelection topOfTagAndProtocol(String tag, int protocol, int limit) {
+    int tagId = tagId(tag);
+    checkProtocol(protocol);
+    boolean scanTag = tagStarts[tagId + 1] - tagStarts[tagId]
+        < protocolStarts[protocol + 1] - protocolStarts[protocol];
+    int[] scanned = scanTag ? byTag : byProtocol;
+    int from = scanTag ? tagStarts[tagId] : protocolStarts[protocol];
+    int to = scanTag ? tagStarts[tagId + 1] : protocolStarts[protocol + 1];
+    int[] matches = new int[Math.min(Math.max(0, limit), to - from)];
+    int size = 0;
+    for (int i = from; i < to && size < matches.length; i++) {
+      int position = scanned[i];
+      if (tagIds[position] == tagId && protocol(position) == protocol) {
+        matches[size++] = position;
+      }
+    }
+    return new PairSelection(this, matches, 0, size);
+  }
+
+  /**
+   * Resolves a protocol given as a number or as its keyword, as written in the output. A keyword
+   * shared by several numbers, such as "reserved", resolves to the lowest of them.
+   *
+   * @param protocol the number or keyword
+   * @return the protocol number
+   * @throws IllegalArgumentException if it is neither a number between 0 and 255 nor a keyword
+   */
+  public int protocolNumber(String protocol) {
+    Integer number = protocolNumbers.get(protocol.toLowerCase());
+    if (number != null) {
+      return number;
+    }
+    try {
+      number = Integer.valueOf(protocol.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Unknown protocol " + protocol);
+    }
+    checkProtocol(number);
+    return number;
+  }
+
+  int port(int position) {
+    return (int) (keys[position] >>> PROTOCOL_BITS);
+  }
+
+  int protocol(int position) {
+    return (int) (keys[position] & (PROTOCOLS - 1));
+  }
+
+  long count(int position) {
+    return counts[position];
+  }
+
+  /** @return the keyword of the protocol of a pair, or null if it has none */
+  String protocolKeyword(int position) {
+    return protocolKeywords[protocol(position)];
+  }
+
+  /** @return the tag of a pair, or null without a lookup table */
+  String tag(int position) {
+    return tagNames[tagIds[position]];
+  }
+
+  private int tagId(String tag) {
+    if (!hasTags()) {
+      throw new IllegalArgumentException("Tags are only counted with a lookup table");
+    }
+    Integer tagId = tagIdsByName.get(tag);
+    if (tagId == null) {
+      throw new IllegalArgumentException("Unknown tag " + tag);
+    }
+    return tagId;
+  }
+
+  private PairSelection slice(int[] order, int from, int to, int limit) {
+    return new PairSelection(this, order, from, Math.min(Math.max(0, limit), to - from));
+  }
+
+  private static void checkProtocol(int protocol) {
+    if (protocol < 0 || protocol >= PROTOCOLS) {
+      throw new IllegalArgumentException("Protocol numbers between 0 to 255 are valid");
+    }
+  }
+
+  /**
+   * Orders the tags seen by their counts, from the largest, ties by tag id.
+   */
+  private static int[] orderTags(long[] tagCounts) {
+    long[] ids = new long[tagCounts.length];
+    int seen = 0;
+    for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+      ids[tagId] = tagId;
+      if (tagCounts[tagId] > 0) {
+        seen++;
+      }
+    }
+    int[] sorted = IndexSort.sort(tagCounts, true, ids, tagCounts.length);
+    return Arrays.copyOf(sorted, seen);
+  }
+
+  /**
+   * Groups an order of the positions by a group number per position with a stable counting
+   * sort, so every group keeps that order.
+   *
+   * @param order the positions in order
+   * @param groupOf the group of every position, from 0 to {@code starts.length - 2}
+   * @param starts receives the offset of every group in the result, and its end as the last
+   * @return the positions grouped
+   */
+  private static int[] group(int[] order, int[] groupOf, int[] starts) {
+    for (int position : order) {
+      starts[groupOf[position] + 1]++;
+    }
+    for (int group = 1; group < starts.length; group++) {
+      starts[group] += starts[group - 1];
+    }
+    int[] next = Arrays.copyOf(starts, starts.length - 1);
+    int[] grouped = new int[order.length];
+    for (int position : order) {
+      grouped[next[groupOf[position]]++] = position;
+    }
+    return grouped;
+  }
+}
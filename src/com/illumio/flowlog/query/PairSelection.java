@@ -0,0 +1,119 @@
+package com.illumio.flowlog.query;
+
+import com.illumio.flowlog.output.RowSink;
+import java.io.IOException;
+
+/**
+ * PairSelection is the answer of a {@link CountsIndex} query: port/protocol pairs with their tag
+ * and count, in the order of the query.
+ *
+ * <p>
+ * It is a view of a slice of an order kept by the index, so answering a query only allocates
+ * this object however many pairs it selects. Pairs are read by their index in the selection.
+ * </p>
+ */
+public final class PairSelection {
+
+  private static final String[] COLUMNS = {"port", "protocol", "count"};
+  private static final String[] TAGGED_COLUMNS = {"port", "protocol", "tag", "count"};
+
+  private final CountsIndex index;
+  private final int[] positions;
+  private final int from;
+  private final int size;
+
+  PairSelection(CountsIndex index, int[] positions, int from, int size) {
+    this.index = index;
+    this.positions = positions;
+    this.from = from;
+    this.size = size;
+  }
+
+  /**
+   * @return the number of pairs selected
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param i the index of the pair in the selection
+   * @return the destination port of the pair
+   */
+  public int getPort(int i) {
+    return index.port(position(i));
+  }
+
+  /**
+   * @param i the index of the pair in the selection
+   * @return the protocol number of the pair
+   */
+  public int getProtocol(int i) {
+    return index.protocol(position(i));
+  }
+
+  /**
+   * @param i the index of the pair in the selection
+   * @return the protocol keyword of the pair, or null if the protocol number has none
+   */
+  public String getProtocolKeyword(int i) {
+    return index.protocolKeyword(position(i));
+  }
+
+  /**
+   * @param i the index of the pair in the selection
+   * @return the tag of the pair, or null without a lookup table
+   */
+  public String getTag(int i) {
+    return index.tag(position(i));
+  }
+
+  /**
+   * @param i the index of the pair in the selection
+   * @return the number of records of the pair
+   */
+  public long getCount(int i) {
+    return index.count(position(i));
+  }
+
+  /**
+   * @return the names of the columns written by {@link #writeRows(RowSink)}
+   */
+  public String[] getColumns() {
+    return (index.hasTags() ? TAGGED_COLUMNS : COLUMNS).clone();
+  }
+
+  /**
+   * Hands every pair to a sink as port, protocol, tag if there is a lookup table, and count,
+   * protocols as in the output.
+   *
+   * @param sink the sink receiving the rows
+   * @throws IOException if the sink fails
+   */
+  public void writeRows(RowSink sink) throws IOException {
+    boolean tagged = index.hasTags();
+    for (int i = 0; i < size; i++) {
+      int position = position(i);
+      sink.beginRow();
+      sink.number(index.port(position));
+      String keyword = index.protocolKeyword(position);
+      if (keyword == null) {
+        sink.string(index.protocol(position));
+      } else {
+        sink.string(keyword);
+      }
+      if (tagged) {
+        sink.string(index.tag(position));
+      }
+      sink.number(index.count(position));
+      sink.endRow();
+    }
+  }
+
+  private int position(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Pair " + i + " of " + size);
+    }
+    return positions[from + i];
+  }
+}
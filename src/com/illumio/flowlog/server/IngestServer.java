@@ -0,0 +1,467 @@
+package com.illumio.flowlog.server;
+
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.exceptions.MissingMandatoryFileException;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.OutputEncoder;
+import com.illumio.flowlog.output.OutputFormat;
+import com.illumio.flowlog.output.OutputSink;
+import com.illumio.flowlog.output.OutputWriter;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.output.RowSink;
+import com.illumio.flowlog.processor.FlowLogLineParser;
+import com.illumio.flowlog.processor.FlowLogProcessor;
+import com.illumio.flowlog.processor.FlowLogScheduler;
+import com.illumio.flowlog.processor.FlowLogStreamReader;
+import com.illumio.flowlog.query.CountsIndex;
+import com.illumio.flowlog.query.PairSelection;
+import com.illumio.flowlog.utilities.VirtualThreads;
+import com.illumio.flowlog.window.TimeWindows;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * IngestServer keeps the loaders and a warm {@link CountingOrchestrate} resident and counts flow
+ * logs sent to it over HTTP, so many small flow logs do not each pay for a new JVM, loading the
+ * lookup table and warming up the JIT.
+ *
+ * <p>
+ * The server only listens on the loopback address and answers:
+ * </p>
+ * <ul>
+ *   <li>{@code POST /ingest/lines} counts the flow log lines of the request body. The body is
+ *   parsed while it streams in, through one buffer, so a chunked or gzip encoded body of any
+ *   size never sits in memory as a whole.</li>
+ *   <li>{@code POST /ingest/files} counts the flow logs named by the request body, one file,
+ *   directory or glob per line, reading them like the batch mode does. If one of them does not
+ *   exist nothing is counted.</li>
+ *   <li>{@code GET /output} returns the current counts as the output file would hold them, in
+ *   the configured format and order or those of the {@code format} and {@code order} query
+ *   parameters.</li>
+ *   <li>{@code GET /query/tags} returns the tag counts from the largest, or the count of the tag
+ *   of the {@code tag} query parameter.</li>
+ *   <li>{@code GET /query/pairs} returns port/protocol pairs with their tag and count from the
+ *   largest, those of the {@code protocol} (number or keyword) and {@code tag} query parameters
+ *   if given, or the single pair of {@code port} and {@code protocol}.</li>
+ * </ul>
+ *
+ * <p>
+ * Ingestion requests answer with the lines read and records counted as JSON. Requests are
+ * handled on virtual threads where the runtime has them. Each request is counted into its own
+ * empty copy of the orchestrator, without any lock, and that copy is merged into the resident
+ * counts under a lock once the whole body has been read. A request is therefore counted
+ * completely or not at all, and a slow or stalled client holds up nobody else. With time
+ * windows, the fields the windows need are kept per request and added to the windows on the
+ * merge, since the windows need the records of a request in order. The output of a request is
+ * written from a copy of the counts taken under the lock, so ingestion only waits for the
+ * copy.
+ * </p>
+ *
+ * <p>
+ * Queries are answered from a {@link CountsIndex} published through a volatile reference, so
+ * they never take the lock nor build anything. A single indexing thread keeps a second copy of
+ * the counts, merges the counts of every committed request into it as well and publishes a new
+ * index once no other request is waiting to be merged, so a burst of ingestion requests builds
+ * the index once. A query may therefore answer from the counts of a moment ago, never from part
+ * of a request. Both query endpoints take a {@code limit} and a {@code format}.
+ * </p>
+ */
+public class IngestServer {
+
+  /** First command line argument of Main that starts the server. */
+  public static final String SERVER_ARGUMENT = "--server";
+
+  private static final Logger logger = Logger.getLogger(IngestServer.class.getName());
+  private static final String JSON = "application/json";
+  private static final String TEXT = "text/plain; charset=utf-8";
+
+  private final ErrorLogger errorLogger = ErrorLogger.getInstance();
+  private final CountingOrchestrate countingOrchestrate;
+  private final OutputFormat format;
+  private final RowOrder order;
+  private final ReentrantLock counting = new ReentrantLock();
+  private final AtomicInteger unindexed = new AtomicInteger();
+  //only used on the indexing thread
+  private CountingOrchestrate indexedCounts;
+  private volatile CountsIndex countsIndex;
+  private HttpServer server;
+  private ExecutorService executor;
+  private ExecutorService indexer;
+
+  /**
+   * Constructs an IngestServer.
+   *
+   * @param countingOrchestrate the CountingOrchestrate counting every ingested record
+   * @param format the format of the output unless a request asks for another
+   * @param order the order of the output rows unless a request asks for another
+   */
+  public IngestServer(CountingOrchestrate countingOrchestrate, OutputFormat format,
+      RowOrder order) {
+    this.countingOrchestrate = countingOrchestrate;
+    this.format = format;
+    this.order = order;
+  }
+
+  /**
+   * Starts listening on the loopback address.
+   *
+   * @param port the port, 0 picks a free one
+   * @throws IOException if the port can not be bound
+   */
+  public synchronized void start(int port) throws IOException {
+    indexedCounts = snapshot();
+    countsIndex = CountsIndex.build(indexedCounts);
+    indexer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flow-log-indexer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    executor = VirtualThreads.newThreadPerTaskExecutor("flow-log-server");
+    server.setExecutor(executor);
+    server.createContext("/ingest/lines", exchange -> handle(exchange, "POST", this::ingestLines));
+    server.createContext("/ingest/files", exchange -> handle(exchange, "POST", this::ingestFiles));
+    server.createContext("/output", exchange -> handle(exchange, "GET", this::output));
+    server.createContext("/query/tags", exchange -> handle(exchange, "GET", this::queryTags));
+    server.createContext("/query/pairs", exchange -> handle(exchange, "GET", this::queryPairs));
+    server.start();
+    logger.info("Serving flow log ingestion on http://" + server.getAddress().getHostString()
+        + ":" + getPort());
+  }
+
+  /**
+   * @return the port the server listens on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops accepting requests and waits for the requests in progress.
+   *
+   * @param delaySeconds the longest time to wait for them
+   */
+  public synchronized void stop(int delaySeconds) {
+    if (server == null) {
+      return;
+    }
+    server.stop(delaySeconds);
+    executor.shutdownNow();
+    indexer.shutdownNow();
+    server = null;
+    logger.info("Stopped flow log ingestion server");
+  }
+
+  /**
+   * Writes the current counts to the output file, as the batch mode does when it is done.
+   *
+   * @param outputPath the path to the output file
+   * @throws MissingMandatoryFileException if the output file can not be written
+   */
+  public void writeOutput(String outputPath) throws MissingMandatoryFileException {
+    new OutputWriter(snapshot(), format, order).write(outputPath);
+  }
+
+  private void ingestLines(HttpExchange exchange) throws IOException {
+    InputStream body = exchange.getRequestBody();
+    if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+      body = new GZIPInputStream(body);
+    }
+    Ingestion ingestion = new Ingestion();
+    FlowLogStreamReader.readStream(body, ingestion.parser);
+    respond(exchange, 200, JSON, ingestion.commit());
+  }
+
+  private void ingestFiles(HttpExchange exchange) throws IOException {
+    BufferedReader paths = new BufferedReader(
+        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+    List<Path> flowLogs = new ArrayList<>();
+    String path;
+    while ((path = paths.readLine()) != null) {
+      if (path.trim().isEmpty()) {
+        continue;
+      }
+      for (Path flowLog : FlowLogScheduler.resolve(path)) {
+        if (!Files.isRegularFile(flowLog)) {
+          errorLogger.logError("Flow log file " + flowLog + " sent to the server does not exist");
+          respond(exchange, 404, TEXT, "No flow log file " + flowLog + ", nothing counted\n");
+          return;
+        }
+        flowLogs.add(flowLog);
+      }
+    }
+    Ingestion ingestion = new Ingestion();
+    for (Path flowLog : flowLogs) {
+      FlowLogProcessor.processFile(flowLog, ingestion.parser);
+    }
+    respond(exchange, 200, JSON, ingestion.commit());
+  }
+
+  private void output(HttpExchange exchange) throws IOException {
+    Map<String, String> query = query(exchange);
+    OutputFormat outputFormat;
+    RowOrder rowOrder;
+    try {
+      outputFormat = query.containsKey("format") ? OutputFormat.fromName(query.get("format"))
+          : format;
+      rowOrder = query.containsKey("order") ? RowOrder.fromName(query.get("order")) : order;
+    } catch (IllegalArgumentException e) {
+      respond(exchange, 400, TEXT, e.getMessage() + "\n");
+      return;
+    }
+    CountingOrchestrate counts = snapshot();
+    exchange.getResponseHeaders().set("Content-Type",
+        outputFormat == OutputFormat.JSON ? JSON : TEXT);
+    //a length of 0 streams the response in chunks
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      OutputEncoder encoder = new OutputEncoder(Channels.newChannel(responseBody));
+      OutputSink sink = outputFormat.newSink(encoder);
+      sink.beginDocument();
+      OutputWriter.writeSections(sink, counts, rowOrder);
+      sink.endDocument();
+      encoder.flush();
+    }
+  }
+
+  private void queryTags(HttpExchange exchange) throws IOException {
+    Map<String, String> query = query(exchange);
+    OutputFormat outputFormat;
+    List<String> tags;
+    CountsIndex index = countsIndex;
+    try {
+      outputFormat = query.containsKey("format") ? OutputFormat.fromName(query.get("format"))
+          : format;
+      if (query.containsKey("tag")) {
+        String tag = query.get("tag");
+        index.getTagCount(tag);
+        tags = Collections.singletonList(tag);
+      } else {
+        tags = index.topTags(limit(query));
+      }
+    } catch (IllegalArgumentException e) {
+      respond(exchange, 400, TEXT, e.getMessage() + "\n");
+      return;
+    }
+    respondRows(exchange, outputFormat, "tags", new String[] {"tag", "count"}, sink -> {
+      for (String tag : tags) {
+        sink.beginRow();
+        sink.string(tag);
+        sink.number(index.getTagCount(tag));
+        sink.endRow();
+      }
+    });
+  }
+
+  private void queryPairs(HttpExchange exchange) throws IOException {
+    Map<String, String> query = query(exchange);
+    OutputFormat outputFormat;
+    PairSelection pairs;
+    CountsIndex index = countsIndex;
+    try {
+      outputFormat = query.containsKey("format") ? OutputFormat.fromName(query.get("format"))
+          : format;
+      int limit = limit(query);
+      String tag = query.get("tag");
+      int protocol = query.containsKey("protocol")
+          ? index.protocolNumber(query.get("protocol")) : -1;
+      if (query.containsKey("port")) {
+        if (protocol < 0) {
+          throw new IllegalArgumentException("A port is looked up with its protocol");
+        }
+        pairs = index.pair(number(query, "port"), protocol);
+      } else if (tag != null && protocol >= 0) {
+        pairs = index.topOfTagAndProtocol(tag, protocol, limit);
+      } else if (tag != null) {
+        pairs = index.topOfTag(tag, limit);
+      } else if (protocol >= 0) {
+        pairs = index.topOfProtocol(protocol, limit);
+      } else {
+        pairs = index.top(limit);
+      }
+    } catch (IllegalArgumentException e) {
+      respond(exchange, 400, TEXT, e.getMessage() + "\n");
+      return;
+    }
+    respondRows(exchange, outputFormat, "pairs", pairs.getColumns(), pairs::writeRows);
+  }
+
+  /**
+   * Merges the counts of a committed request into the counts of the index, on the indexing
+   * thread, and publishes a new index unless another request is already waiting to be merged.
+   *
+   * @param counts the counts of the request, no longer changed
+   */
+  private void index(CountingOrchestrate counts) {
+    indexedCounts.merge(counts);
+    if (unindexed.decrementAndGet() == 0) {
+      countsIndex = CountsIndex.build(indexedCounts);
+    }
+  }
+
+  /**
+   * Streams the answer of a query as a document of one section.
+   */
+  private static void respondRows(HttpExchange exchange, OutputFormat outputFormat,
+      String section, String[] columns, Rows rows) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type",
+        outputFormat == OutputFormat.JSON ? JSON : TEXT);
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      OutputEncoder encoder = new OutputEncoder(Channels.newChannel(responseBody));
+      OutputSink sink = outputFormat.newSink(encoder);
+      sink.beginDocument();
+      sink.beginSection(section, columns);
+      rows.write(sink);
+      sink.endSection();
+      sink.endDocument();
+      encoder.flush();
+    }
+  }
+
+  private static int limit(Map<String, String> query) {
+    return query.containsKey("limit") ? number(query, "limit") : Integer.MAX_VALUE;
+  }
+
+  private static int number(Map<String, String> query, String parameter) {
+    try {
+      return Integer.parseInt(query.get(parameter).trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("The " + parameter + " must be a number");
+    }
+  }
+
+  /**
+   * @return a copy of the counts, which ingestion only waits for while it is taken
+   */
+  private CountingOrchestrate snapshot() {
+    counting.lock();
+    try {
+      return countingOrchestrate.copy();
+    } finally {
+      counting.unlock();
+    }
+  }
+
+  private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+    try {
+      if (!method.equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", method);
+        respond(exchange, 405, TEXT, "Use " + method + "\n");
+        return;
+      }
+      handler.handle(exchange);
+    } catch (IOException | RuntimeException e) {
+      logger.warning("Not able to serve " + exchange.getRequestURI() + ": " + e.getMessage());
+      if (exchange.getResponseCode() == -1) {
+        respond(exchange, 500, TEXT, "Not able to serve the request: " + e.getMessage() + "\n");
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  private static Map<String, String> query(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return parameters;
+    }
+    for (String parameter : query.split("&")) {
+      int equals = parameter.indexOf('=');
+      if (equals > 0) {
+        parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+      }
+    }
+    return parameters;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(bytes);
+    }
+  }
+
+  /**
+   * The counts of one ingestion request, kept apart from the resident counts until the request
+   * has been read completely.
+   */
+  private final class Ingestion {
+    private final CountingOrchestrate counts = countingOrchestrate.emptyCopy();
+    private final TimeWindows windows = countingOrchestrate.getTimeWindows();
+    private final WindowRecords windowRecords =
+        windows == null ? null : new WindowRecords(windows);
+    private final FlowLogLineParser parser = windows == null
+        ? new FlowLogLineParser(counts)
+        : new FlowLogLineParser(countingOrchestrate.getRequiredFields(), record -> {
+          counts.processRecord(record);
+          windowRecords.add(record);
+        }, FlowLogFormat.getInstance());
+
+    /**
+     * Merges the counts of the request into the resident counts and hands them to the indexing
+     * thread.
+     *
+     * @return the lines read and records counted, as JSON
+     */
+    private String commit() throws IOException {
+      counting.lock();
+      try {
+        countingOrchestrate.merge(counts);
+        if (windowRecords != null) {
+          windowRecords.addTo(windows);
+        }
+      } catch (InvalidProtocolNumberException e) {
+        //not reachable, the protocol numbers were checked when the records were counted
+        throw new IOException(e);
+      } finally {
+        counting.unlock();
+      }
+      unindexed.incrementAndGet();
+      indexer.execute(() -> index(counts));
+      return "{\"lines\":" + parser.getLinesParsed() + ",\"records\":"
+          + parser.getRecordsCounted() + "}\n";
+    }
+  }
+
+  /** Serves one request of an endpoint once its method has been checked. */
+  private interface Handler {
+    void handle(HttpExchange exchange) throws IOException;
+  }
+
+  /** Writes the rows of the answer of a query. */
+  private interface Rows {
+    void write(RowSink sink) throws IOException;
+  }
+}
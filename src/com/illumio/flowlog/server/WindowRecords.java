@@ -0,0 +1,79 @@
+package com.illumio.flowlog.server;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.window.TimeWindows;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * WindowRecords keeps the fields the time windows need of the records of one ingestion request,
+ * so they can be added to the windows in order once the request has been read completely.
+ *
+ * <p>
+ * Only destination port, protocol and the timestamp of a record are kept, in primitive arrays,
+ * which take 16 bytes per record. The global counts of a request do not go through here.
+ * </p>
+ */
+final class WindowRecords {
+
+  private static final int INITIAL_RECORDS = 4096;
+  private static final int PROTOCOL_BITS = 8;
+
+  private final Field timeField;
+  private long[] portProtocols = new long[INITIAL_RECORDS];
+  private long[] times = new long[INITIAL_RECORDS];
+  private final BitSet timed = new BitSet();
+  private int size;
+
+  /**
+   * @param windows the windows the records are for
+   */
+  WindowRecords(TimeWindows windows) {
+    Field field = null;
+    for (Field candidate : Field.values()) {
+      if (candidate.bit() == windows.fieldMask()) {
+        field = candidate;
+      }
+    }
+    this.timeField = field;
+  }
+
+  /**
+   * Keeps a record behind the ones before it.
+   *
+   * @param record the record, with a valid protocol number
+   */
+  void add(FlowRecord record) {
+    if (size == times.length) {
+      portProtocols = Arrays.copyOf(portProtocols, size * 2);
+      times = Arrays.copyOf(times, size * 2);
+    }
+    portProtocols[size] = record.get(Field.DSTPORT) << PROTOCOL_BITS | record.get(Field.PROTOCOL);
+    if (record.has(timeField.bit())) {
+      times[size] = record.get(timeField);
+      timed.set(size);
+    }
+    size++;
+  }
+
+  /**
+   * Adds the records kept to the windows, in the order they were kept.
+   *
+   * @param windows the windows
+   * @throws InvalidProtocolNumberException if a protocol number is invalid
+   */
+  void addTo(TimeWindows windows) throws InvalidProtocolNumberException {
+    FlowRecord record = new FlowRecord();
+    for (int i = 0; i < size; i++) {
+      record.clear();
+      record.set(Field.DSTPORT, portProtocols[i] >> PROTOCOL_BITS);
+      record.set(Field.PROTOCOL, portProtocols[i] & ((1 << PROTOCOL_BITS) - 1));
+      if (timed.get(i)) {
+        record.set(timeField, times[i]);
+      }
+      windows.add(record);
+    }
+  }
+}
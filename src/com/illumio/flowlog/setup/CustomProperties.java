@@ -27,4 +27,39 @@ public class CustomProperties extends Properties {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Returns the property parsed as an int, or the default if it is missing or not a number.
+   *
+   * @param key the property key
+   * @param defaultValue the value used when the property is missing or invalid
+   * @return the int value of the property
+   */
+  public int getInt(String key, int defaultValue) {
+    String value = getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      logger.warning("Property " + key + " is not a number, using " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Returns the property parsed as a boolean, or the default if it is missing.
+   *
+   * @param key the property key
+   * @param defaultValue the value used when the property is missing
+   * @return true only if the property is "true", ignoring case
+   */
+  public boolean getBoolean(String key, boolean defaultValue) {
+    String value = getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean(value.trim());
+  }
 }
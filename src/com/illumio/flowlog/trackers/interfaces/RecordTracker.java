@@ -0,0 +1,49 @@
+package com.illumio.flowlog.trackers.interfaces;
+
+import com.illumio.flowlog.aggregation.AggregationSpec;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.output.RowSink;
+import java.io.IOException;
+
+/**
+ * The RecordTracker interface is implemented by trackers that are fed whole parsed records by the
+ * {@link com.illumio.flowlog.orchestrate.CountingOrchestrate}, which hands every record to all of
+ * its trackers in a single pass.
+ *
+ * <p>
+ * Each tracker is declared by an {@link AggregationSpec}, whose name identifies it in the output
+ * and in serialized counts.
+ * </p>
+ */
+public interface RecordTracker extends Tracker<Integer, String> {
+
+  /**
+   * @return the declaration of this tracker
+   */
+  AggregationSpec getSpec();
+
+  /**
+   * @return the bits of the fields a record needs to be added, see
+   *     {@link com.illumio.flowlog.aggregation.Field#bit()}
+   */
+  int fieldMask();
+
+  /**
+   * Adds a record, unless it lacks a field this tracker needs. The protocol of the record must be
+   * between 0 and 255.
+   *
+   * @param record the parsed record
+   */
+  void add(FlowRecord record);
+
+  /**
+   * Hands every row {@link #get()} would return to a sink, in the given order, without building
+   * the lines.
+   *
+   * @param sink the sink receiving the rows, one value per column of the header of the spec
+   * @param order the order of the rows
+   * @throws IOException if the sink fails
+   */
+  void writeRows(RowSink sink, RowOrder order) throws IOException;
+}
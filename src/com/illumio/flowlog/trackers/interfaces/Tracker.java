@@ -1,6 +1,9 @@
 package com.illumio.flowlog.trackers.interfaces;
 
 import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -41,4 +44,40 @@ public interface Tracker<K, V> {
    * @throws InvalidProtocolNumberException if the key pair is invalid
    */
   void add(K a, K b) throws InvalidProtocolNumberException;
+
+  /**
+   * Adds all counts of another tracker of the same type to this tracker.
+   *
+   * <p>
+   * This is used to combine trackers that counted different parts of the input on their own.
+   * </p>
+   *
+   * @param other the tracker whose counts are added
+   * @throws IllegalArgumentException if the other tracker is of a different type
+   */
+  void merge(Tracker<K, V> other);
+
+  /**
+   * Returns the number of distinct keys counted so far.
+   *
+   * @return the number of keys with a count
+   */
+  int size();
+
+  /**
+   * Writes the counts in a compact binary form that {@link #readFrom(DataInput)} understands.
+   *
+   * @param out the output receiving the counts
+   * @throws IOException if the output can not be written
+   */
+  void writeTo(DataOutput out) throws IOException;
+
+  /**
+   * Reads counts written by {@link #writeTo(DataOutput)} and adds them to this tracker, one
+   * entry at a time.
+   *
+   * @param in the input holding the counts
+   * @throws IOException if the input can not be read or does not match this tracker
+   */
+  void readFrom(DataInput in) throws IOException;
 }
@@ -21,10 +21,65 @@ public class Constants {
   public static final String FLOW_LOG_PATH = "flowlog.path";
 
   public static final String LOOKUP_TABLE_PATH = "lookup.table.path";
+  public static final String LOOKUP_TABLE_INDEX_PATH = "lookup.table.index.path";
+  public static final String LOOKUP_TABLE_RELOAD_SECONDS = "lookup.table.reload.seconds";
 
   public static final String PROTOCOL_NUMBER_PATH= "protocol.number.path";
 
   public static final String OUTPUT_FILE_PATH = "output.file.path";
+  public static final String OUTPUT_FORMAT = "output.format";
+  public static final String OUTPUT_ORDER = "output.order";
 
   public static final String ERROR_FILE_PATH = "error.file.path";
+
+  public static final String FLOW_LOG_FORMAT = "flowlog.format";
+
+  public static final String FLOW_LOG_PARSER = "flowlog.parser";
+  public static final String PARSER_LINES = "lines";
+  public static final String PARSER_MAPPED = "mapped";
+
+  public static final String FLOW_LOG_THREADS = "flowlog.threads";
+  public static final String FLOW_LOG_SPLIT_MB = "flowlog.split.mb";
+
+  public static final String PIPELINE_PARSERS = "pipeline.parsers";
+  public static final String PIPELINE_AGGREGATORS = "pipeline.aggregators";
+  public static final String PIPELINE_BLOCK_KB = "pipeline.block.kb";
+  public static final String PIPELINE_BLOCKS = "pipeline.blocks";
+
+  public static final String FLOW_LOG_FOLLOW = "flowlog.follow";
+  public static final String FOLLOW_POLL_INTERVAL_MS = "follow.poll.interval.ms";
+  public static final String FOLLOW_SNAPSHOT_INTERVAL_SECONDS = "follow.snapshot.interval.seconds";
+  public static final String FOLLOW_SNAPSHOT_RECORDS = "follow.snapshot.records";
+
+  public static final String ERROR_LOG_QUEUE_CAPACITY = "error.log.queue.capacity";
+  public static final String ERROR_LOG_OVERFLOW = "error.log.overflow";
+  public static final String ERROR_LOG_SAMPLE_RATE = "error.log.sample.rate";
+  public static final String ERROR_LOG_CATEGORY_LIMIT = "error.log.category.limit";
+
+  public static final String CHECKPOINT_PATH = "checkpoint.path";
+  public static final String CHECKPOINT_INTERVAL_MB = "checkpoint.interval.mb";
+
+  public static final String PARTIAL_OUTPUT_PATH = "partial.output.path";
+
+  public static final String AGGREGATIONS = "aggregations";
+  public static final String AGGREGATION_PREFIX = "aggregation.";
+  public static final String AGGREGATION_GROUP_BY = ".group.by";
+  public static final String AGGREGATION_AGGREGATES = ".aggregates";
+  public static final String AGGREGATION_TOP = ".top";
+  public static final String AGGREGATION_ERROR = ".error";
+  public static final String AGGREGATION_PRECISION = ".precision";
+
+  public static final String WINDOW_SIZE_SECONDS = "window.size.seconds";
+  public static final String WINDOW_SLIDE_SECONDS = "window.slide.seconds";
+  public static final String WINDOW_LATENESS_SECONDS = "window.lateness.seconds";
+  public static final String WINDOW_TIME_FIELD = "window.time.field";
+  public static final String WINDOW_OUTPUT_PATH = "window.output.path";
+
+  public static final String COORDINATOR_WORKERS = "coordinator.workers";
+  public static final String COORDINATOR_SHARD_MB = "coordinator.shard.mb";
+  public static final String COORDINATOR_RETRIES = "coordinator.retries";
+  public static final String COORDINATOR_WORK_DIR = "coordinator.work.dir";
+  public static final String COORDINATOR_JVM_OPTIONS = "coordinator.jvm.options";
+
+  public static final String SERVER_PORT = "server.port";
 }
@@ -0,0 +1,128 @@
+package com.illumio.flowlog.utilities;
+
+/**
+ * HyperLogLog estimates the number of distinct values offered to a sketch of {@code 2^precision}
+ * registers, with a relative standard error of about {@code 1.04 / sqrt(2^precision)}.
+ *
+ * <p>
+ * The registers are stored as bytes packed eight to a long, inside a long array owned by the
+ * caller, so a sketch can live next to the other values of a group in a
+ * {@link LongAggregateMap}. Values are hashed with the 64 bit finalizer of MurmurHash3: the top
+ * {@code precision} bits of the hash select the register and the leading zeros of the remaining
+ * bits give the rank that register keeps the maximum of. Adding a value neither allocates nor
+ * depends on the number of registers. Sketches of the same precision merge by taking the larger
+ * register, so sketches of different parts of the flow logs combine into the sketch of all.
+ * </p>
+ */
+public final class HyperLogLog {
+
+  /** Smallest precision supported. */
+  public static final int MIN_PRECISION = 4;
+
+  /** Largest precision supported. */
+  public static final int MAX_PRECISION = 16;
+
+  private HyperLogLog() {
+  }
+
+  /**
+   * @param precision the number of bits selecting a register
+   * @return the number of longs holding the registers of one sketch
+   */
+  public static int words(int precision) {
+    return (1 << precision) / 8;
+  }
+
+  /**
+   * Adds a value to a sketch.
+   *
+   * @param words the array holding the sketch
+   * @param offset the index of the first long of the sketch
+   * @param precision the number of bits selecting a register
+   * @param value the value to add
+   */
+  public static void add(long[] words, int offset, int precision, long value) {
+    long hash = mix(value);
+    int register = (int) (hash >>> (64 - precision));
+    //the guard bit bounds the rank when every remaining bit is zero
+    long rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    int index = offset + (register >>> 3);
+    int shift = (register & 7) << 3;
+    long word = words[index];
+    if (rank > ((word >>> shift) & 0xFF)) {
+      words[index] = (word & ~(0xFFL << shift)) | (rank << shift);
+    }
+  }
+
+  /**
+   * Merges one long of registers into another.
+   *
+   * @param left eight registers of a sketch
+   * @param right the same eight registers of another sketch
+   * @return the eight registers of the merged sketch, each the larger of both
+   */
+  public static long combine(long left, long right) {
+    long merged = 0;
+    for (int shift = 0; shift < 64; shift += 8) {
+      merged |= Math.max((left >>> shift) & 0xFF, (right >>> shift) & 0xFF) << shift;
+    }
+    return merged;
+  }
+
+  /**
+   * Estimates the number of distinct values added to a sketch. Small cardinalities, where some
+   * registers are still empty, are estimated by linear counting.
+   *
+   * @param words the array holding the sketch
+   * @param offset the index of the first long of the sketch
+   * @param precision the number of bits selecting a register
+   * @return the estimated number of distinct values
+   */
+  public static long estimate(long[] words, int offset, int precision) {
+    int registers = 1 << precision;
+    double sum = 0;
+    int zeros = 0;
+    for (int index = offset; index < offset + words(precision); index++) {
+      long word = words[index];
+      for (int shift = 0; shift < 64; shift += 8) {
+        int rank = (int) ((word >>> shift) & 0xFF);
+        sum += Double.longBitsToDouble((1023L - rank) << 52);
+        if (rank == 0) {
+          zeros++;
+        }
+      }
+    }
+    double estimate = alpha(registers) * registers * registers / sum;
+    if (estimate <= 2.5 * registers && zeros > 0) {
+      estimate = registers * Math.log((double) registers / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * @return the bias correction of the raw estimate, the asymptotic one from 128 registers on and
+   *     the constants of the HyperLogLog paper below
+   */
+  private static double alpha(int registers) {
+    switch (registers) {
+      case 16:
+        return 0.673;
+      case 32:
+        return 0.697;
+      case 64:
+        return 0.709;
+      default:
+        return 0.7213 / (1 + 1.079 / registers);
+    }
+  }
+
+  /** 64 bit finalizer of MurmurHash3. */
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
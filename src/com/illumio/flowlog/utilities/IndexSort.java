@@ -0,0 +1,64 @@
+package com.illumio.flowlog.utilities;
+
+/**
+ * IndexSort orders the positions of parallel primitive arrays by their values, so rows held in
+ * primitive tables can be written in order without boxing them into objects.
+ *
+ * <p>
+ * It is a stable bottom-up merge sort of an int array of positions, taking {@code O(n log n)}
+ * time and one extra int array. Values are compared as unsigned longs, which orders counts,
+ * packed keys of up to 64 bits and addresses alike.
+ * </p>
+ */
+public final class IndexSort {
+
+  private IndexSort() {
+  }
+
+  /**
+   * Sorts the positions {@code [0, length)} by the primary values, then by the secondary values
+   * from the smallest up.
+   *
+   * @param primary the values sorted on first, indexed by position
+   * @param descending whether the largest primary value comes first
+   * @param secondary the values breaking ties, indexed by position
+   * @param length the number of positions
+   * @return the positions in order
+   */
+  public static int[] sort(long[] primary, boolean descending, long[] secondary, int length) {
+    int[] order = new int[length];
+    for (int position = 0; position < length; position++) {
+      order[position] = position;
+    }
+    int[] merged = new int[length];
+    for (int width = 1; width < length; width <<= 1) {
+      for (int low = 0; low < length; low += width << 1) {
+        int middle = Math.min(low + width, length);
+        int high = Math.min(low + (width << 1), length);
+        int left = low;
+        int right = middle;
+        for (int out = low; out < high; out++) {
+          if (left < middle && (right >= high
+              || compare(primary, descending, secondary, order[left], order[right]) <= 0)) {
+            merged[out] = order[left++];
+          } else {
+            merged[out] = order[right++];
+          }
+        }
+      }
+      int[] swap = order;
+      order = merged;
+      merged = swap;
+    }
+    return order;
+  }
+
+  private static int compare(long[] primary, boolean descending, long[] secondary, int left,
+      int right) {
+    int result = Long.compareUnsigned(primary[left], primary[right]);
+    if (result != 0) {
+      return descending ? -result : result;
+    }
+    return Long.compareUnsigned(secondary[left], secondary[right]);
+  }
+}
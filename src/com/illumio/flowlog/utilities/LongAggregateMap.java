@@ -0,0 +1,228 @@
+package com.illumio.flowlog.utilities;
+
+import java.util.Arrays;
+
+/**
+ * LongAggregateMap is a table from primitive long keys to a fixed number of long values per key,
+ * used to hold several aggregates of one group in one entry.
+ *
+ * <p>
+ * A hashed table resolves collisions by linear probing and doubles once it is half full. A dense
+ * table is used when every key is a small non negative number: the key is its own slot, so no
+ * hashing or probing happens, and the table doubles until it covers the largest key inserted.
+ * Values of a slot are stored next to each other in one array, starting at
+ * {@code slot * width}. The key {@link Long#MIN_VALUE} marks
+ * empty slots and can not be stored. Instances are not thread-safe.
+ * </p>
+ *
+ * <p>
+ * Entries are visited by slot: iterate {@code slot} from 0 to {@link #capacity()} and read
+ * {@link #keyAt(int)} and {@link #valueAt(int, int)} wherever {@link #isUsed(int)} is true.
+ * </p>
+ */
+public class LongAggregateMap {
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final long[] initialValues;
+  private final int width;
+  private final boolean dense;
+  private long[] keys;
+  private long[] values;
+  private int mask;
+  private int size;
+
+  private LongAggregateMap(long[] initialValues, int capacity, boolean dense) {
+    this.initialValues = initialValues.clone();
+    this.width = initialValues.length;
+    this.dense = dense;
+    allocate(capacity);
+  }
+
+  /**
+   * Creates a hashed LongAggregateMap sized for the expected number of keys.
+   *
+   * @param expectedKeys the number of keys expected, the table grows past it when needed
+   * @param initialValues the values of a key when it is inserted, one per aggregate
+   * @return a new hashed table
+   */
+  public static LongAggregateMap hashed(int expectedKeys, long[] initialValues) {
+    return new LongAggregateMap(initialValues,
+        Integer.highestOneBit(Math.max(16, expectedKeys * 2 - 1)) << 1, false);
+  }
+
+  /**
+   * Creates a dense LongAggregateMap for non negative int keys, with slots for the keys
+   * {@code [0, keyRange)} until a larger key is inserted.
+   *
+   * @param keyRange the initial exclusive upper bound of the keys, a power of two
+   * @param initialValues the values of a key when it is inserted, one per aggregate
+   * @return a new dense table
+   */
+  public static LongAggregateMap dense(int keyRange, long[] initialValues) {
+    return new LongAggregateMap(initialValues, keyRange, true);
+  }
+
+  /**
+   * Finds the slot of the key, inserting the key with the initial values if it is absent.
+   *
+   * @param key the key, must not be {@link Long#MIN_VALUE} and must be a non negative int for a
+   *     dense table
+   * @return the index of the first value of the key in {@link #values()}, valid until the next
+   *     call of this method
+   */
+  public int slot(long key) {
+    if (dense) {
+      int slot = (int) key;
+      if (slot >= keys.length) {
+        grow(slot);
+      }
+      if (keys[slot] == EMPTY) {
+        keys[slot] = key;
+        size++;
+      }
+      return slot * width;
+    }
+    if (key == EMPTY) {
+      throw new IllegalArgumentException("Long.MIN_VALUE is reserved as the empty key");
+    }
+    int slot = mix(key) & mask;
+    while (true) {
+      long current = keys[slot];
+      if (current == key) {
+        return slot * width;
+      }
+      if (current == EMPTY) {
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+          rehash();
+          return slot(key);
+        }
+        return slot * width;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Adds one to the first value of the key, inserting the key with the initial values if it is
+   * absent. It does what {@code values()[slot(key)]++} does in a single probe, for tables counting
+   * keys on the hot path.
+   *
+   * @param key the key, must not be {@link Long#MIN_VALUE} and must be a non negative int for a
+   *     dense table
+   */
+  public void increment(long key) {
+    if (dense) {
+      int slot = (int) key;
+      if (slot >= keys.length) {
+        grow(slot);
+      }
+      if (keys[slot] == EMPTY) {
+        keys[slot] = key;
+        size++;
+      }
+      values[slot * width]++;
+      return;
+    }
+    if (key == EMPTY) {
+      throw new IllegalArgumentException("Long.MIN_VALUE is reserved as the empty key");
+    }
+    int slot = mix(key) & mask;
+    while (true) {
+      long current = keys[slot];
+      if (current == key) {
+        values[slot * width]++;
+        return;
+      }
+      if (current == EMPTY) {
+        keys[slot] = key;
+        values[slot * width]++;
+        if (++size * 2 > keys.length) {
+          rehash();
+        }
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * @return the value array, the values of a key start at the index returned by
+   *     {@link #slot(long)}. The array is replaced when the table grows.
+   */
+  public long[] values() {
+    return values;
+  }
+
+  /** @return the number of distinct keys */
+  public int size() {
+    return size;
+  }
+
+  /** @return the number of values stored per key */
+  public int width() {
+    return width;
+  }
+
+  /** @return the number of slots, the exclusive upper bound for slot iteration */
+  public int capacity() {
+    return keys.length;
+  }
+
+  /** @return whether the slot holds a key */
+  public boolean isUsed(int slot) {
+    return keys[slot] != EMPTY;
+  }
+
+  /** @return the key stored in the slot */
+  public long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /** @return the value with the given index stored in the slot */
+  public long valueAt(int slot, int index) {
+    return values[slot * width + index];
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity * width];
+    Arrays.fill(keys, EMPTY);
+    for (int slot = 0; slot < capacity; slot++) {
+      System.arraycopy(initialValues, 0, values, slot * width, width);
+    }
+    mask = capacity - 1;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(oldKeys.length << 1);
+    size = 0;
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != EMPTY) {
+        System.arraycopy(oldValues, slot * width, values, slot(oldKeys[slot]), width);
+      }
+    }
+  }
+
+  /** Doubles a dense table until the slot fits, keys stay in their slots. */
+  private void grow(int slot) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(Integer.highestOneBit(slot) << 1);
+    System.arraycopy(oldKeys, 0, keys, 0, oldKeys.length);
+    System.arraycopy(oldValues, 0, values, 0, oldValues.length);
+  }
+
+  /** Finalizer of MurmurHash3, spreads packed keys that differ only in low bits. */
+  private static int mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
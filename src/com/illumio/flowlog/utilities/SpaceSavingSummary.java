@@ -0,0 +1,377 @@
+package com.illumio.flowlog.utilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SpaceSavingSummary keeps approximate counts of the most frequent primitive long keys of a
+ * stream in a fixed number of counters, following the Space-Saving algorithm of Metwally et al.
+ *
+ * <p>
+ * A key that has a counter is incremented. A new key takes a free counter, or once all counters
+ * are used, takes over the counter with the smallest count, inheriting that count as its error.
+ * With {@code m} counters over {@code n} keys every count overestimates the true count by at most
+ * its error, which is at most {@code n / m}, and every key occurring more than {@code n / m}
+ * times holds a counter. Memory is fixed by the number of counters, whatever the input.
+ * </p>
+ *
+ * <p>
+ * Counters with the same count are linked into one bucket and buckets are linked in ascending
+ * order of count (the stream-summary structure), so both the increment and finding the smallest
+ * counter take constant time. Keys are found through an open addressing index like
+ * {@link LongAggregateMap}. Every structure is a primitive array allocated once, so offering a
+ * key never allocates. Instances are not thread-safe.
+ * </p>
+ */
+public class SpaceSavingSummary {
+
+  private static final int NONE = -1;
+
+  private final int capacity;
+  private long total;
+  private int size;
+
+  private final long[] keys;
+  private final long[] errors;
+  private final int[] bucketOf;
+  private final int[] next;
+  private final int[] previous;
+
+  private final long[] bucketCount;
+  private final int[] bucketHead;
+  private final int[] bucketNext;
+  private final int[] bucketPrevious;
+  private final int[] freeBuckets;
+  private int freeBucketCount;
+  private int minBucket;
+
+  private final long[] indexKeys;
+  private final int[] indexCounters;
+  private final int indexMask;
+
+  /**
+   * Constructs an empty SpaceSavingSummary.
+   *
+   * @param capacity the number of counters, at least 1
+   */
+  public SpaceSavingSummary(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A summary needs at least one counter");
+    }
+    this.capacity = capacity;
+    keys = new long[capacity];
+    errors = new long[capacity];
+    bucketOf = new int[capacity];
+    next = new int[capacity];
+    previous = new int[capacity];
+    //an increment creates its new bucket before the old one may become empty
+    bucketCount = new long[capacity + 1];
+    bucketHead = new int[capacity + 1];
+    bucketNext = new int[capacity + 1];
+    bucketPrevious = new int[capacity + 1];
+    freeBuckets = new int[capacity + 1];
+    int indexSize = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+    indexKeys = new long[indexSize];
+    indexCounters = new int[indexSize];
+    indexMask = indexSize - 1;
+    clear();
+  }
+
+  /**
+   * Counts one occurrence of the key.
+   *
+   * @param key the key
+   */
+  public void offer(long key) {
+    total++;
+    int counter = find(key);
+    if (counter != NONE) {
+      increment(counter);
+    } else if (size < capacity) {
+      counter = size++;
+      keys[counter] = key;
+      errors[counter] = 0;
+      int bucket = minBucket != NONE && bucketCount[minBucket] == 1 ? minBucket
+          : newBucket(1, NONE);
+      attach(counter, bucket);
+      index(key, counter);
+    } else {
+      counter = bucketHead[minBucket];
+      unindex(keys[counter]);
+      errors[counter] = bucketCount[minBucket];
+      keys[counter] = key;
+      index(key, counter);
+      increment(counter);
+    }
+  }
+
+  /** @return the number of keys offered so far */
+  public long total() {
+    return total;
+  }
+
+  /** @return the number of counters in use */
+  public int size() {
+    return size;
+  }
+
+  /** @return the number of counters */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the largest amount by which any count can exceed the true count of its key, the
+   *     smallest count once every counter is used and 0 before
+   */
+  public long maxError() {
+    return size < capacity ? 0 : bucketCount[minBucket];
+  }
+
+  /** @return the key of a counter in use */
+  public long keyAt(int counter) {
+    return keys[counter];
+  }
+
+  /** @return the count of a counter in use, at least the true count of its key */
+  public long countAt(int counter) {
+    return bucketCount[bucketOf[counter]];
+  }
+
+  /** @return the amount by which the count of a counter in use can exceed the true count */
+  public long errorAt(int counter) {
+    return errors[counter];
+  }
+
+  /**
+   * @return the counters in use, ordered from the largest count to the smallest
+   */
+  public int[] byCountDescending() {
+    int[] counters = new int[size];
+    int position = size;
+    for (int bucket = minBucket; bucket != NONE; bucket = bucketNext[bucket]) {
+      for (int counter = bucketHead[bucket]; counter != NONE; counter = next[counter]) {
+        counters[--position] = counter;
+      }
+    }
+    return counters;
+  }
+
+  /**
+   * Adds another summary to this one, as if this summary had seen the keys of both. The error
+   * bound of the result is the sum of both error bounds.
+   *
+   * @param other the summary to add
+   */
+  public void merge(SpaceSavingSummary other) {
+    long[] otherKeys = new long[other.size];
+    long[] otherCounts = new long[other.size];
+    long[] otherErrors = new long[other.size];
+    for (int counter = 0; counter < other.size; counter++) {
+      otherKeys[counter] = other.keys[counter];
+      otherCounts[counter] = other.countAt(counter);
+      otherErrors[counter] = other.errors[counter];
+    }
+    merge(other.total, other.maxError(), otherKeys, otherCounts, otherErrors, other.size);
+  }
+
+  /**
+   * Adds the counters of another summary to this one. A key missing from one summary is assumed
+   * to have occurred as often as the smallest count of that summary, which is added to both its
+   * count and its error; afterwards only the largest counts are kept.
+   *
+   * @param otherTotal the number of keys the other summary has seen
+   * @param otherMaxError the {@link #maxError()} of the other summary
+   * @param otherKeys the keys of the counters of the other summary
+   * @param otherCounts the counts of the counters of the other summary
+   * @param otherErrors the errors of the counters of the other summary
+   * @param otherSize the number of counters of the other summary
+   */
+  public void merge(long otherTotal, long otherMaxError, long[] otherKeys, long[] otherCounts,
+      long[] otherErrors, int otherSize) {
+    long maxError = maxError();
+    int entries = size;
+    long[] mergedKeys = new long[size + otherSize];
+    long[] mergedCounts = new long[size + otherSize];
+    long[] mergedErrors = new long[size + otherSize];
+    Map<Long, Integer> entryOfKey = new HashMap<>();
+    for (int counter = 0; counter < size; counter++) {
+      mergedKeys[counter] = keys[counter];
+      mergedCounts[counter] = countAt(counter) + otherMaxError;
+      mergedErrors[counter] = errors[counter] + otherMaxError;
+      entryOfKey.put(keys[counter], counter);
+    }
+    for (int counter = 0; counter < otherSize; counter++) {
+      Integer entry = entryOfKey.get(otherKeys[counter]);
+      if (entry != null) {
+        //the key is in both summaries, replace the assumed count by the real one
+        mergedCounts[entry] += otherCounts[counter] - otherMaxError;
+        mergedErrors[entry] += otherErrors[counter] - otherMaxError;
+      } else {
+        mergedKeys[entries] = otherKeys[counter];
+        mergedCounts[entries] = otherCounts[counter] + maxError;
+        mergedErrors[entries++] = otherErrors[counter] + maxError;
+      }
+    }
+    long mergedTotal = total + otherTotal;
+    rebuild(mergedKeys, mergedCounts, mergedErrors, entries);
+    total = mergedTotal;
+  }
+
+  /**
+   * Replaces the counters by the entries with the largest counts.
+   */
+  private void rebuild(long[] entryKeys, long[] entryCounts, long[] entryErrors, int entries) {
+    Integer[] order = new Integer[entries];
+    for (int i = 0; i < entries; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(entryCounts[a], entryCounts[b]));
+    clear();
+    int bucket = NONE;
+    for (int i = Math.max(0, entries - capacity); i < entries; i++) {
+      int entry = order[i];
+      if (entryCounts[entry] <= 0) {
+        continue;
+      }
+      int counter = size++;
+      keys[counter] = entryKeys[entry];
+      errors[counter] = entryErrors[entry];
+      if (bucket == NONE || bucketCount[bucket] != entryCounts[entry]) {
+        bucket = newBucket(entryCounts[entry], bucket);
+      }
+      attach(counter, bucket);
+      index(entryKeys[entry], counter);
+    }
+  }
+
+  private void clear() {
+    total = 0;
+    size = 0;
+    minBucket = NONE;
+    freeBucketCount = freeBuckets.length;
+    for (int bucket = 0; bucket < freeBuckets.length; bucket++) {
+      freeBuckets[bucket] = bucket;
+    }
+    Arrays.fill(indexCounters, NONE);
+  }
+
+  private void increment(int counter) {
+    int bucket = bucketOf[counter];
+    long count = bucketCount[bucket] + 1;
+    int target = bucketNext[bucket];
+    if (target == NONE || bucketCount[target] != count) {
+      target = newBucket(count, bucket);
+    }
+    detach(counter);
+    attach(counter, target);
+  }
+
+  /** Takes a free bucket and links it after the given bucket, or first for {@link #NONE}. */
+  private int newBucket(long count, int after) {
+    int bucket = freeBuckets[--freeBucketCount];
+    bucketCount[bucket] = count;
+    bucketHead[bucket] = NONE;
+    bucketPrevious[bucket] = after;
+    bucketNext[bucket] = after == NONE ? minBucket : bucketNext[after];
+    if (bucketNext[bucket] != NONE) {
+      bucketPrevious[bucketNext[bucket]] = bucket;
+    }
+    if (after == NONE) {
+      minBucket = bucket;
+    } else {
+      bucketNext[after] = bucket;
+    }
+    return bucket;
+  }
+
+  private void attach(int counter, int bucket) {
+    bucketOf[counter] = bucket;
+    previous[counter] = NONE;
+    next[counter] = bucketHead[bucket];
+    if (next[counter] != NONE) {
+      previous[next[counter]] = counter;
+    }
+    bucketHead[bucket] = counter;
+  }
+
+  /** Unlinks a counter from its bucket and frees the bucket once it is empty. */
+  private void detach(int counter) {
+    int bucket = bucketOf[counter];
+    if (previous[counter] != NONE) {
+      next[previous[counter]] = next[counter];
+    } else {
+      bucketHead[bucket] = next[counter];
+    }
+    if (next[counter] != NONE) {
+      previous[next[counter]] = previous[counter];
+    }
+    if (bucketHead[bucket] == NONE) {
+      if (bucketPrevious[bucket] != NONE) {
+        bucketNext[bucketPrevious[bucket]] = bucketNext[bucket];
+      } else {
+        minBucket = bucketNext[bucket];
+      }
+      if (bucketNext[bucket] != NONE) {
+        bucketPrevious[bucketNext[bucket]] = bucketPrevious[bucket];
+      }
+      freeBuckets[freeBucketCount++] = bucket;
+    }
+  }
+
+  private int find(long key) {
+    int slot = mix(key) & indexMask;
+    while (indexCounters[slot] != NONE) {
+      if (indexKeys[slot] == key) {
+        return indexCounters[slot];
+      }
+      slot = (slot + 1) & indexMask;
+    }
+    return NONE;
+  }
+
+  private void index(long key, int counter) {
+    int slot = mix(key) & indexMask;
+    while (indexCounters[slot] != NONE) {
+      slot = (slot + 1) & indexMask;
+    }
+    indexKeys[slot] = key;
+    indexCounters[slot] = counter;
+  }
+
+  /** Removes a key from the index, shifting back the keys probed past it. */
+  private void unindex(long key) {
+    int slot = mix(key) & indexMask;
+    while (indexKeys[slot] != key || indexCounters[slot] == NONE) {
+      slot = (slot + 1) & indexMask;
+    }
+    int candidate = slot;
+    while (true) {
+      candidate = (candidate + 1) & indexMask;
+      if (indexCounters[candidate] == NONE) {
+        break;
+      }
+      int home = mix(indexKeys[candidate]) & indexMask;
+      //keep the candidate where it is if its home lies cyclically in (slot, candidate]
+      boolean stays = slot <= candidate ? slot < home && home <= candidate
+          : slot < home || home <= candidate;
+      if (!stays) {
+        indexKeys[slot] = indexKeys[candidate];
+        indexCounters[slot] = indexCounters[candidate];
+        slot = candidate;
+      }
+    }
+    indexCounters[slot] = NONE;
+  }
+
+  /** Finalizer of MurmurHash3, spreads packed keys that differ only in low bits. */
+  private static int mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
@@ -0,0 +1,52 @@
+package com.illumio.flowlog.utilities;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * VirtualThreads creates executors for tasks that spend their time blocked on I/O.
+ *
+ * <p>
+ * On Java 21 and later every task runs on its own virtual thread, which parks without holding a
+ * platform thread while it waits. The sources are built for Java 8, so the virtual thread API is
+ * looked up by reflection; on older runtimes the tasks run on daemon platform threads instead.
+ * </p>
+ */
+public final class VirtualThreads {
+
+  private static final Logger logger = Logger.getLogger(VirtualThreads.class.getName());
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Creates an executor starting a new thread per task, virtual if the runtime has them.
+   *
+   * @param name the name of the threads, numbered from 0
+   * @return the executor
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String name) {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, name + "-", 0L);
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+          ThreadFactory.class);
+      return (ExecutorService) newExecutor.invoke(null, factory);
+    } catch (ReflectiveOperationException e) {
+      logger.fine("Virtual threads are not available, using platform threads for " + name);
+      AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.illumio.flowlog.window;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.fileloaders.LookupTableLoader;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import com.illumio.flowlog.output.OutputFormat;
+import com.illumio.flowlog.output.RowOrder;
+import com.illumio.flowlog.output.WindowOutputWriter;
+import com.illumio.flowlog.setup.CustomProperties;
+import com.illumio.flowlog.utilities.Constants;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * TimeWindows counts records per time window of their start or end timestamp, next to the global
+ * counts, so spikes of a tag or port show up without reprocessing parts of the flow logs.
+ *
+ * <p>
+ * Windows are {@code size} seconds long and start every {@code slide} seconds at multiples of
+ * the slide since the epoch: tumbling windows when slide equals size, overlapping sliding windows
+ * when it is smaller. Every window has its own tag and port/protocol trackers. Records may arrive
+ * out of order by up to the lateness: the watermark trails the latest timestamp seen by the
+ * lateness, and a window closes once the watermark passes its end. A closed window is written to
+ * the window output and its trackers are dropped, so memory grows with the open windows, at most
+ * {@code (lateness + size) / slide + 2}, not with the flow logs. Records falling only into closed
+ * windows are counted as late and left out of the windows, they still count globally.
+ * </p>
+ *
+ * <p>
+ * Open windows are kept in a ring indexed by window number, so finding the windows of a record
+ * neither searches nor allocates. Windows need the records in flow log order and are therefore
+ * fed by a single thread.
+ * </p>
+ */
+public class TimeWindows {
+
+  private static final Logger logger = Logger.getLogger(TimeWindows.class.getName());
+  private static final int MAX_OPEN_WINDOWS = 1 << 16;
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  private final long size;
+  private final long slide;
+  private final long lateness;
+  private final Field timeField;
+  private final LookupTableLoader lookupTableLoader;
+  private final ProtocolNumberLoader protocolNumberLoader;
+  private final WindowOutputWriter writer;
+  private final CountingOrchestrate[] ring;
+  private final int mask;
+  private long firstOpen = NOT_STARTED;
+  private long maxTime = NOT_STARTED;
+  private long lateRecords;
+  private long untimedRecords;
+  private long closedWindows;
+  private boolean closed;
+
+  /**
+   * Constructs TimeWindows.
+   *
+   * @param size the length of a window in seconds
+   * @param slide the seconds between the starts of two windows, at most the size
+   * @param lateness the seconds a record may arrive after a later record
+   * @param timeField the timestamp windows are based on, {@link Field#START} or {@link Field#END}
+   * @param lookupTableLoader the lookup table of the tag counts, null without tags
+   * @param protocolNumberLoader the protocol names
+   * @param writer the writer receiving closed windows
+   * @throws IllegalArgumentException if the windows are not valid or too many would be open
+   */
+  public TimeWindows(long size, long slide, long lateness, Field timeField,
+      LookupTableLoader lookupTableLoader, ProtocolNumberLoader protocolNumberLoader,
+      WindowOutputWriter writer) {
+    if (size <= 0 || slide <= 0 || slide > size || lateness < 0) {
+      throw new IllegalArgumentException("Windows need a positive size, a slide between 1 and"
+          + " the size and a lateness of at least 0");
+    }
+    if (timeField != Field.START && timeField != Field.END) {
+      throw new IllegalArgumentException("Windows are based on start or end, not " + timeField);
+    }
+    long openWindows = (lateness + size) / slide + 2;
+    if (openWindows > MAX_OPEN_WINDOWS) {
+      throw new IllegalArgumentException("Windows would keep " + openWindows
+          + " windows open, at most " + MAX_OPEN_WINDOWS + " are allowed");
+    }
+    this.size = size;
+    this.slide = slide;
+    this.lateness = lateness;
+    this.timeField = timeField;
+    this.lookupTableLoader = lookupTableLoader;
+    this.protocolNumberLoader = protocolNumberLoader;
+    this.writer = writer;
+    this.ring = new CountingOrchestrate[Integer.highestOneBit((int) openWindows * 2 - 1)];
+    this.mask = ring.length - 1;
+  }
+
+  /**
+   * Creates the TimeWindows configured in the properties.
+   *
+   * @param properties the application properties
+   * @param lookupTableLoader the lookup table of the tag counts, null without tags
+   * @param protocolNumberLoader the protocol names
+   * @return the windows, or null if windows are disabled
+   * @throws IllegalArgumentException if the windows are not valid
+   */
+  public static TimeWindows fromProperties(CustomProperties properties,
+      LookupTableLoader lookupTableLoader, ProtocolNumberLoader protocolNumberLoader) {
+    int size = properties.getInt(Constants.WINDOW_SIZE_SECONDS, 0);
+    if (size <= 0) {
+      return null;
+    }
+    int slide = properties.getInt(Constants.WINDOW_SLIDE_SECONDS, 0);
+    String timeField = properties.getProperty(Constants.WINDOW_TIME_FIELD, "start").trim();
+    Field field = timeField.equalsIgnoreCase(Field.END.getFormatName()) ? Field.END : Field.START;
+    if (!timeField.equalsIgnoreCase(field.getFormatName())) {
+      throw new IllegalArgumentException("Windows are based on start or end, not " + timeField);
+    }
+    return new TimeWindows(size, slide <= 0 ? size : slide,
+        properties.getInt(Constants.WINDOW_LATENESS_SECONDS, 60), field, lookupTableLoader,
+        protocolNumberLoader, new WindowOutputWriter(Paths.get(
+            properties.getProperty(Constants.WINDOW_OUTPUT_PATH, "windows.txt").trim()),
+            OutputFormat.fromProperties(properties), RowOrder.fromProperties(properties)));
+  }
+
+  /**
+   * @return the bit of the timestamp field the windows need, see {@link Field#bit()}
+   */
+  public int fieldMask() {
+    return timeField.bit();
+  }
+
+  /**
+   * Adds a record to every open window containing its timestamp, after closing the windows its
+   * timestamp moves the watermark past.
+   *
+   * @param record the parsed record, with a valid protocol number
+   * @throws InvalidProtocolNumberException if the protocol number is invalid
+   */
+  public void add(FlowRecord record) throws InvalidProtocolNumberException {
+    if (!record.has(timeField.bit())) {
+      untimedRecords++;
+      return;
+    }
+    long time = record.get(timeField);
+    if (time > maxTime) {
+      maxTime = time;
+      advance(time - lateness);
+    }
+    long last = Math.floorDiv(time, slide);
+    if (last < firstOpen) {
+      lateRecords++;
+      return;
+    }
+    for (long window = Math.max(firstOpen, Math.floorDiv(time - size, slide) + 1);
+        window <= last; window++) {
+      int slot = (int) (window & mask);
+      if (ring[slot] == null) {
+        ring[slot] = new CountingOrchestrate(lookupTableLoader, protocolNumberLoader);
+      }
+      ring[slot].processRecord(record);
+    }
+  }
+
+  /**
+   * Closes every window still open, writes them and closes the window output. Only the first
+   * call has an effect, records must not be added afterwards.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (firstOpen != NOT_STARTED) {
+      advance(maxTime + size);
+    }
+    writer.close();
+    logger.info("Closed " + closedWindows + " windows, left out " + lateRecords
+        + " late records and " + untimedRecords + " records without " + timeField.getFormatName());
+  }
+
+  /**
+   * @return the number of records that only fell into closed windows
+   */
+  public long getLateRecords() {
+    return lateRecords;
+  }
+
+  /**
+   * Closes the windows ending at or before the watermark, in window order.
+   */
+  private void advance(long watermark) {
+    long newFirst = Math.floorDiv(watermark - size, slide) + 1;
+    if (firstOpen == NOT_STARTED) {
+      firstOpen = newFirst;
+      return;
+    }
+    //windows past the ring are empty, a large jump only closes the ones in the ring
+    long last = Math.min(newFirst, firstOpen + ring.length);
+    for (long window = firstOpen; window < last; window++) {
+      int slot = (int) (window & mask);
+      if (ring[slot] != null) {
+        long start = window * slide;
+        writer.write(start, start + size, ring[slot]);
+        ring[slot] = null;
+        closedWindows++;
+      }
+    }
+    firstOpen = Math.max(firstOpen, newFirst);
+  }
+}
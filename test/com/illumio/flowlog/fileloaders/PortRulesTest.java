@@ -0,0 +1,115 @@
+package com.illumio.flowlog.fileloaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Pins the precedence {@link PortRules} paints overlapping rules in: a rule naming its protocol
+ * before a rule for every protocol, then fewer ports, then the earlier row.
+ */
+public class PortRulesTest {
+
+  private static final int TCP = 6;
+  private static final int UDP = 17;
+
+  @Test
+  public void protocolRuleBeatsRuleForEveryProtocol() {
+    PortRules rules = new PortRules();
+    rules.add(80, 80, null, 1);
+    rules.add(0, 65535, Collections.singletonList(TCP), 2);
+    CharBuffer[] tagIds = rules.compile();
+    assertEquals(2, tagIds[TCP].get(80));
+    assertEquals(1, tagIds[UDP].get(80));
+    assertEquals(LookupTableLoader.UNTAGGED_ID, tagIds[UDP].get(81));
+  }
+
+  @Test
+  public void fewerPortsWin() {
+    PortRules rules = new PortRules();
+    rules.add(0, 1000, Collections.singletonList(TCP), 1);
+    rules.add(400, 500, Collections.singletonList(TCP), 2);
+    rules.add(443, 443, Collections.singletonList(TCP), 3);
+    CharBuffer tcp = rules.compile()[TCP];
+    assertEquals(3, tcp.get(443));
+    assertEquals(2, tcp.get(400));
+    assertEquals(2, tcp.get(500));
+    assertEquals(1, tcp.get(0));
+    assertEquals(1, tcp.get(501));
+    assertEquals(LookupTableLoader.UNTAGGED_ID, tcp.get(1001));
+  }
+
+  @Test
+  public void earlierRowWinsOverTheSameNumberOfPorts() {
+    PortRules rules = new PortRules();
+    rules.add(10, 20, Collections.singletonList(TCP), 1);
+    rules.add(15, 25, Collections.singletonList(TCP), 2);
+    rules.add(0, 65535, null, 3);
+    rules.add(0, 65535, null, 4);
+    CharBuffer tcp = rules.compile()[TCP];
+    assertEquals(1, tcp.get(15));
+    assertEquals(1, tcp.get(20));
+    assertEquals(2, tcp.get(21));
+    assertEquals(3, tcp.get(9));
+  }
+
+  @Test
+  public void protocolsWithoutRulesShareTheTableForEveryProtocol() {
+    PortRules rules = new PortRules();
+    rules.add(22, 22, Collections.singletonList(TCP), 1);
+    assertNull(rules.compile()[UDP]);
+
+    rules.add(53, 53, null, 2);
+    CharBuffer[] tagIds = rules.compile();
+    assertSame(tagIds[UDP], tagIds[1]);
+    assertEquals(2, tagIds[UDP].get(53));
+    assertEquals(2, tagIds[TCP].get(53));
+    assertEquals(LookupTableLoader.UNTAGGED_ID, tagIds[UDP].get(22));
+  }
+
+  @Test
+  public void matchesTheFirstRuleInPrecedenceOrder() {
+    Random random = new Random(5);
+    List<int[]> added = new ArrayList<>();
+    PortRules rules = new PortRules();
+    for (int row = 0; row < 300; row++) {
+      int low = random.nextInt(PortRules.PORTS);
+      int ports = random.nextInt(random.nextBoolean() ? 16 : 4096);
+      int high = Math.min(PortRules.PORTS - 1, low + ports);
+      int protocol = random.nextInt(4) == 0 ? -1 : random.nextInt(3) * 11;
+      int tagId = 1 + random.nextInt(50);
+      added.add(new int[] {low, high, protocol, tagId, row});
+      rules.add(low, high, protocol < 0 ? null : Arrays.asList(protocol, protocol + 1), tagId);
+    }
+    CharBuffer[] tagIds = rules.compile();
+    List<int[]> byPrecedence = new ArrayList<>(added);
+    byPrecedence.sort((left, right) -> left[2] < 0 != right[2] < 0
+        ? (left[2] < 0 ? 1 : -1)
+        : left[1] - left[0] != right[1] - right[0]
+            ? Integer.compare(left[1] - left[0], right[1] - right[0])
+            : Integer.compare(left[4], right[4]));
+    for (int protocol : new int[] {0, 1, 11, 12, 22, 23, 99}) {
+      for (int port = 0; port < PortRules.PORTS; port += 7) {
+        int expected = LookupTableLoader.UNTAGGED_ID;
+        for (int[] rule : byPrecedence) {
+          if (port >= rule[0] && port <= rule[1]
+              && (rule[2] < 0 || rule[2] == protocol || rule[2] + 1 == protocol)) {
+            expected = rule[3];
+            break;
+          }
+        }
+        int actual = tagIds[protocol] == null
+            ? LookupTableLoader.UNTAGGED_ID : tagIds[protocol].get(port);
+        assertEquals("protocol " + protocol + " port " + port, expected, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.illumio.flowlog.format;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Pins {@link FieldExtractor} to {@code line.split(" ")}: the same columns exist, holding the same
+ * text, including empty columns between two spaces and the trailing empty columns split drops.
+ */
+public class FieldExtractorTest {
+
+  private static final FlowLogFormat FORMAT = FlowLogFormat.compile(FlowLogFormat.DEFAULT_FORMAT);
+
+  @Test
+  public void locatesTheColumnsSplitProduces() {
+    String[] wanted = {"protocol", "srcaddr", "dstport", "bytes", "log-status"};
+    FieldExtractor extractor = FORMAT.extractor(wanted);
+    for (String line : Arrays.asList(
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153 6 25 20000 1620140761 1620140821 ACCEPT OK",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153 6 25 20000 1 2 ACCEPT OK extra columns",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153 6",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153 6 ",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153 6   ",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153  6",
+        "2 123 eni-1  198.51.100.2 443 49153 6 25",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 49153",
+        "2 123 eni-1 10.0.1.201 198.51.100.2 443 ",
+        "2 123 eni-1",
+        " ",
+        "")) {
+      String[] split = line.split(" ");
+      byte[] bytes = ("#" + line + "#").getBytes(StandardCharsets.US_ASCII);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      //the line sits inside a larger buffer, as it does in a block
+      int start = 1;
+      int end = bytes.length - 1;
+      extractor.locate(buffer, start, end);
+      for (int slot = 0; slot < wanted.length; slot++) {
+        int column = FORMAT.columnOf(wanted[slot]);
+        String message = "'" + line + "' column " + wanted[slot];
+        boolean exists = column < split.length;
+        assertEquals(message, exists, extractor.exists(buffer, slot, end));
+        if (exists) {
+          assertEquals(message, split[column], new String(bytes, extractor.start(slot),
+              extractor.end(slot) - extractor.start(slot), StandardCharsets.US_ASCII));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsFieldsOutsideTheFormat() {
+    FORMAT.extractor("dstport", "tcp-flags");
+  }
+}
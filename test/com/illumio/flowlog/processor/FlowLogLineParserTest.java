@@ -0,0 +1,185 @@
+package com.illumio.flowlog.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Pins {@link FlowLogLineParser} to the behaviour it replaced: every line terminated by LF, CR or
+ * CRLF, blank lines skipped, then {@code line.split(" ")} and {@code Integer.parseInt} of the
+ * destination port and protocol.
+ */
+public class FlowLogLineParserTest {
+
+  private static final String PREFIX = "2 123456789012 eni-0a1b2c3d 10.0.1.201 198.51.100.2 443 ";
+
+  private static final List<String> LINES = Arrays.asList(
+      PREFIX + "49153 6 25 20000 1620140761 1620140821 ACCEPT OK",
+      PREFIX + "80 17",
+      PREFIX + "80 17 ",
+      PREFIX + "80 17   ",
+      PREFIX + "23 300 25 20000 1620140761 1620140821 ACCEPT OK",
+      PREFIX + "+22 +6 25",
+      PREFIX + "-1 -0 25",
+      PREFIX + "2147483647 6",
+      PREFIX + "2147483648 6",
+      PREFIX + "-2147483648 6",
+      PREFIX + "abc 6",
+      PREFIX + "80 tcp",
+      PREFIX + "80\t6",
+      PREFIX + "80  6",
+      PREFIX + " 80 6",
+      PREFIX + "80",
+      PREFIX + "80 ",
+      PREFIX + "+ 6",
+      PREFIX + "",
+      "2 123456789012 eni-0a1b2c3d",
+      "",
+      "   ",
+      "\t",
+      PREFIX + "0 0",
+      PREFIX + "65535 255 25 20000");
+
+  @BeforeClass
+  public static void initializeErrorLog() throws IOException {
+    ErrorLogger.getInstance(Files.createTempFile("flowlog-errors", ".txt").toString());
+  }
+
+  @Test
+  public void parsesIntegersLikeIntegerParseInt() {
+    for (String text : Arrays.asList("0", "7", "-7", "+7", "007", "-0", "2147483647",
+        "-2147483648", "2147483648", "-2147483649", "99999999999", "", "+", "-", "1a", " 1",
+        "1 ", "--1", "+-1")) {
+      ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+      assertEquals(text, parseIntOrNull(text), parseIntOrNull(buffer));
+    }
+  }
+
+  @Test
+  public void matchesSplitForEveryTerminator() {
+    List<String> expected = expected(LINES);
+    for (String terminator : Arrays.asList("\n", "\r", "\r\n")) {
+      String text = String.join(terminator, LINES);
+      assertEquals(printable(terminator), expected, parse(text));
+      assertEquals(printable(terminator) + " terminated", expected, parse(text + terminator));
+    }
+  }
+
+  @Test
+  public void matchesSplitForMixedTerminators() {
+    StringBuilder text = new StringBuilder();
+    String[] terminators = {"\n", "\r\n", "\r", "\r\n", "\n"};
+    for (int i = 0; i < LINES.size(); i++) {
+      text.append(LINES.get(i)).append(terminators[i % terminators.length]);
+    }
+    assertEquals(expected(LINES), parse(text.toString()));
+  }
+
+  @Test
+  public void countsEveryTerminatedLine() {
+    List<String> lines = Arrays.asList(PREFIX + "80 6", "", PREFIX + "81 6", "abc");
+    FlowLogLineParser parser = parser(new ArrayList<>());
+    byte[] bytes = (String.join("\r\n", lines) + "\r\n").getBytes(StandardCharsets.UTF_8);
+    parser.parseLines(ByteBuffer.wrap(bytes), 0, bytes.length, true);
+    assertEquals(lines.size(), parser.getLinesParsed());
+    assertEquals(2, parser.getRecordsCounted());
+  }
+
+  @Test
+  public void leavesTheUnterminatedLineUntilTheEndOfInput() {
+    List<String> records = new ArrayList<>();
+    FlowLogLineParser parser = parser(records);
+    byte[] bytes = (PREFIX + "80 6\n" + PREFIX + "81 17").getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int consumed = parser.parseLines(buffer, 0, bytes.length, false);
+    assertEquals(PREFIX.length() + 5, consumed);
+    assertEquals(Collections.singletonList("80,6"), records);
+    assertEquals(bytes.length - consumed,
+        parser.parseLines(buffer, consumed, bytes.length, true));
+    assertEquals(Arrays.asList("80,6", "81,17"), records);
+  }
+
+  @Test
+  public void matchesSplitWhenFedInPieces() {
+    String text = String.join("\r\n", LINES) + "\r\n";
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    for (int piece : new int[] {1, 2, 7, 64}) {
+      List<String> records = new ArrayList<>();
+      FlowLogLineParser parser = parser(records);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int start = 0;
+      for (int end = Math.min(piece, bytes.length); start < bytes.length;
+          end = Math.min(end + piece, bytes.length)) {
+        start += parser.parseLines(buffer, start, end, end == bytes.length);
+      }
+      assertEquals("pieces of " + piece, expected(LINES), records);
+    }
+  }
+
+  /**
+   * The records the replaced parser produced: blank lines skipped, then split and parseInt.
+   */
+  private static List<String> expected(List<String> lines) {
+    List<String> records = new ArrayList<>();
+    for (String line : lines) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split(" ");
+      if (fields.length <= 7) {
+        continue;
+      }
+      Integer port = parseIntOrNull(fields[6]);
+      Integer protocol = parseIntOrNull(fields[7]);
+      if (port != null && protocol != null) {
+        records.add(port + "," + protocol);
+      }
+    }
+    return records;
+  }
+
+  private static List<String> parse(String text) {
+    List<String> records = new ArrayList<>();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    parser(records).parseLines(ByteBuffer.wrap(bytes), 0, bytes.length, true);
+    return records;
+  }
+
+  private static FlowLogLineParser parser(List<String> records) {
+    return new FlowLogLineParser(Collections.<Field>emptyList(),
+        record -> records.add(record.get(Field.DSTPORT) + "," + record.get(Field.PROTOCOL)),
+        FlowLogFormat.compile(FlowLogFormat.DEFAULT_FORMAT));
+  }
+
+  private static Integer parseIntOrNull(String text) {
+    try {
+      return Integer.parseInt(text);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Integer parseIntOrNull(ByteBuffer buffer) {
+    try {
+      return FlowLogLineParser.parseInt(buffer, 0, buffer.limit());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static String printable(String terminator) {
+    return terminator.replace("\r", "CR").replace("\n", "LF");
+  }
+}
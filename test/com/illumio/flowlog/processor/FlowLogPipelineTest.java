@@ -0,0 +1,122 @@
+package com.illumio.flowlog.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.illumio.flowlog.aggregation.Field;
+import com.illumio.flowlog.aggregation.FlowRecord;
+import com.illumio.flowlog.exceptions.InvalidProtocolNumberException;
+import com.illumio.flowlog.fileloaders.ProtocolNumberLoader;
+import com.illumio.flowlog.format.FlowLogFormat;
+import com.illumio.flowlog.loggers.ErrorLogger;
+import com.illumio.flowlog.orchestrate.CountingOrchestrate;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Pins the ordering of {@link FlowLogPipeline}: a single aggregator counts the records in flow
+ * log order however the parsers overtake each other, and several aggregators add up to the
+ * counts of a sequential run.
+ */
+public class FlowLogPipelineTest {
+
+  private static final int BLOCK_BYTES = 1024;
+
+  private static ProtocolNumberLoader protocolNumberLoader;
+  private static Path flowLog;
+  private static byte[] bytes;
+
+  @BeforeClass
+  public static void writeFlowLog() throws Throwable {
+    ErrorLogger.getInstance(Files.createTempFile("flowlog-errors", ".txt").toString());
+    protocolNumberLoader = ProtocolNumberLoader.getInstance("Resources/protocol-numbers-1.csv");
+    Random random = new Random(9);
+    StringBuilder text = new StringBuilder();
+    for (int line = 0; line < 20_000; line++) {
+      switch (random.nextInt(50)) {
+        case 0:
+          text.append("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 abc 6\n");
+          break;
+        case 1:
+          text.append("2 123456789012 eni-1\r\n");
+          break;
+        case 2:
+          text.append("\n");
+          break;
+        default:
+          //the destination port numbers the lines, so the order can be checked
+          text.append("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 ").append(line)
+              .append(' ').append(random.nextInt(3) == 0 ? 17 : 6)
+              .append(" 25 20000 1620140761 1620140821 ACCEPT OK")
+              .append(random.nextBoolean() ? "\n" : "\r\n");
+      }
+    }
+    bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+    flowLog = Files.createTempFile("flowlog", ".log");
+    Files.write(flowLog, bytes);
+  }
+
+  @AfterClass
+  public static void deleteFlowLog() throws Exception {
+    Files.deleteIfExists(flowLog);
+  }
+
+  @Test
+  public void singleAggregatorCountsInFlowLogOrder() throws Exception {
+    List<Long> expected = new ArrayList<>();
+    new FlowLogLineParser(Collections.<Field>emptyList(),
+        record -> expected.add(record.get(Field.DSTPORT)), FlowLogFormat.getInstance())
+        .parseLines(ByteBuffer.wrap(bytes), 0, bytes.length, true);
+    assertTrue("the flow log spans many blocks", bytes.length > 50 * BLOCK_BYTES);
+
+    for (int parsers : new int[] {1, 2, 4}) {
+      List<Long> ports = new ArrayList<>();
+      CountingOrchestrate target = new CountingOrchestrate(null, protocolNumberLoader) {
+        @Override
+        public void processRecord(FlowRecord record) throws InvalidProtocolNumberException {
+          ports.add(record.get(Field.DSTPORT));
+          super.processRecord(record);
+        }
+      };
+      new FlowLogPipeline(parsers, 1, BLOCK_BYTES, 0)
+          .process(Collections.singletonList(flowLog), target);
+      assertEquals(parsers + " parsers", expected, ports);
+    }
+  }
+
+  @Test
+  public void aggregatorsAddUpToTheSequentialCounts() throws Exception {
+    CountingOrchestrate sequential = new CountingOrchestrate(null, protocolNumberLoader);
+    new FlowLogLineParser(sequential, FlowLogFormat.getInstance())
+        .parseLines(ByteBuffer.wrap(bytes), 0, bytes.length, true);
+    Map<String, List<String>> expected = sorted(sequential.getOutput());
+
+    for (int aggregators : new int[] {1, 2, 3}) {
+      CountingOrchestrate target = new CountingOrchestrate(null, protocolNumberLoader);
+      new FlowLogPipeline(3, aggregators, BLOCK_BYTES, 0)
+          .process(Collections.singletonList(flowLog), target);
+      assertEquals(aggregators + " aggregators", expected, sorted(target.getOutput()));
+    }
+  }
+
+  private static Map<String, List<String>> sorted(Map<String, List<String>> output) {
+    Map<String, List<String>> sorted = new TreeMap<>();
+    for (Map.Entry<String, List<String>> section : output.entrySet()) {
+      List<String> lines = new ArrayList<>(section.getValue());
+      Collections.sort(lines);
+      sorted.put(section.getKey(), lines);
+    }
+    return sorted;
+  }
+}
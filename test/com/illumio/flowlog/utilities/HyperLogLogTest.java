@@ -0,0 +1,96 @@
+package com.illumio.flowlog.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Pins the estimates of {@link HyperLogLog} against its standard error and checks that merged
+ * sketches equal the sketch of the union.
+ */
+public class HyperLogLogTest {
+
+  @Test
+  public void estimatesWithinTheStandardError() {
+    for (int precision = 6; precision <= HyperLogLog.MAX_PRECISION; precision += 2) {
+      long[] sketch = sketch(precision, 0, 200_000);
+      double error = 1.04 / Math.sqrt(1 << precision);
+      assertWithin("precision " + precision, 200_000, HyperLogLog.estimate(sketch, 0, precision),
+          4 * error);
+    }
+  }
+
+  @Test
+  public void countsSmallCardinalitiesAlmostExactly() {
+    int precision = 12;
+    long[] words = new long[HyperLogLog.words(precision)];
+    assertEquals(0, HyperLogLog.estimate(words, 0, precision));
+    for (long value = 0; value < 100; value++) {
+      HyperLogLog.add(words, 0, precision, value);
+      //adding a value again changes nothing
+      HyperLogLog.add(words, 0, precision, value);
+    }
+    assertEquals(100, HyperLogLog.estimate(words, 0, precision), 3);
+  }
+
+  @Test
+  public void smallSketchesAreUnbiased() {
+    //the bias constants of 16, 32 and 64 registers, averaged over many sketches
+    for (int precision = HyperLogLog.MIN_PRECISION; precision <= 6; precision++) {
+      int distinct = 10 << precision;
+      double sum = 0;
+      int sketches = 400;
+      for (int i = 0; i < sketches; i++) {
+        sum += HyperLogLog.estimate(sketch(precision, (long) i * distinct, distinct), 0,
+            precision);
+      }
+      assertWithin("precision " + precision, distinct, sum / sketches, 0.03);
+    }
+  }
+
+  @Test
+  public void mergedSketchEqualsSketchOfTheUnion() {
+    int precision = 10;
+    long[] left = sketch(precision, 0, 60_000);
+    long[] right = sketch(precision, 40_000, 60_000);
+    long[] merged = new long[left.length];
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] = HyperLogLog.combine(left[i], right[i]);
+    }
+    assertArrayEquals(sketch(precision, 0, 100_000), merged);
+    assertWithin("merged", 100_000, HyperLogLog.estimate(merged, 0, precision),
+        4 * 1.04 / Math.sqrt(1 << precision));
+  }
+
+  @Test
+  public void keepsSketchesAtTheirOffset() {
+    int precision = 8;
+    int words = HyperLogLog.words(precision);
+    long[] shared = new long[3 * words];
+    for (long value = 0; value < 5_000; value++) {
+      HyperLogLog.add(shared, words, precision, value);
+    }
+    for (int i = 0; i < words; i++) {
+      assertEquals(0, shared[i]);
+      assertEquals(0, shared[2 * words + i]);
+    }
+    assertEquals(HyperLogLog.estimate(sketch(precision, 0, 5_000), 0, precision),
+        HyperLogLog.estimate(shared, words, precision));
+  }
+
+  private static long[] sketch(int precision, long first, int distinct) {
+    long[] words = new long[HyperLogLog.words(precision)];
+    for (long value = first; value < first + distinct; value++) {
+      HyperLogLog.add(words, 0, precision, value);
+    }
+    return words;
+  }
+
+  private static void assertWithin(String message, double expected, double actual,
+      double relativeError) {
+    assertTrue(message + ": estimated " + actual + " for " + expected,
+        Math.abs(actual - expected) <= expected * relativeError);
+  }
+}
@@ -0,0 +1,78 @@
+package com.illumio.flowlog.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Pins the order of {@link IndexSort}: primary values in either direction, ties broken by the
+ * secondary values from the smallest up, and positions kept in place when both tie.
+ */
+public class IndexSortTest {
+
+  @Test
+  public void keepsPositionsThatTieCompletely() {
+    long[] same = new long[37];
+    int[] identity = new int[same.length];
+    for (int position = 0; position < identity.length; position++) {
+      identity[position] = position;
+    }
+    assertArrayEquals(identity, IndexSort.sort(same, true, same, same.length));
+    assertArrayEquals(identity, IndexSort.sort(same, false, same, same.length));
+  }
+
+  @Test
+  public void breaksTiesBySecondaryAscendingInBothDirections() {
+    long[] primary = {5, 7, 5, 7, 5};
+    long[] secondary = {30, 20, 10, 20, 20};
+    assertArrayEquals(new int[] {1, 3, 2, 4, 0}, IndexSort.sort(primary, true, secondary, 5));
+    assertArrayEquals(new int[] {2, 4, 0, 1, 3}, IndexSort.sort(primary, false, secondary, 5));
+  }
+
+  @Test
+  public void comparesValuesUnsigned() {
+    long[] primary = {-1L, 0, Long.MIN_VALUE, Long.MAX_VALUE, 1};
+    long[] secondary = {-1L, 0, 0, 0, 0};
+    assertArrayEquals(new int[] {1, 4, 3, 2, 0}, IndexSort.sort(primary, false, secondary, 5));
+    assertArrayEquals(new int[] {0, 2, 3, 4, 1}, IndexSort.sort(primary, true, secondary, 5));
+  }
+
+  @Test
+  public void sortsOnlyTheGivenLength() {
+    long[] primary = {3, 1, 2, 0};
+    assertArrayEquals(new int[] {1, 2, 0}, IndexSort.sort(primary, false, primary, 3));
+    assertArrayEquals(new int[0], IndexSort.sort(primary, false, primary, 0));
+  }
+
+  @Test
+  public void matchesAStableSortOfRandomValues() {
+    Random random = new Random(42);
+    for (int length : new int[] {1, 2, 3, 17, 64, 1000, 4097}) {
+      long[] primary = new long[length];
+      long[] secondary = new long[length];
+      for (int i = 0; i < length; i++) {
+        //few distinct values, so both ties and full ties are common
+        primary[i] = random.nextInt(8) - 4;
+        secondary[i] = random.nextInt(4);
+      }
+      for (boolean descending : new boolean[] {false, true}) {
+        Comparator<Integer> byPrimary =
+            (left, right) -> Long.compareUnsigned(primary[left], primary[right]);
+        Integer[] expected = new Integer[length];
+        for (int i = 0; i < length; i++) {
+          expected[i] = i;
+        }
+        //Arrays.sort of objects is stable, so full ties keep their positions
+        Arrays.sort(expected, (descending ? byPrimary.reversed() : byPrimary)
+            .thenComparing((left, right) -> Long.compareUnsigned(secondary[left],
+                secondary[right])));
+        assertArrayEquals("length " + length + (descending ? " descending" : " ascending"),
+            Arrays.stream(expected).mapToInt(Integer::intValue).toArray(),
+            IndexSort.sort(primary, descending, secondary, length));
+      }
+    }
+  }
+}
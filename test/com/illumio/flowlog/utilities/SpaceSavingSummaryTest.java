@@ -0,0 +1,138 @@
+package com.illumio.flowlog.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Pins the guarantees of {@link SpaceSavingSummary}: exact counts while there are free counters,
+ * counts overestimating by at most {@code n / m} once there are not, and merging.
+ */
+public class SpaceSavingSummaryTest {
+
+  @Test
+  public void countsExactlyBelowCapacity() {
+    SpaceSavingSummary summary = new SpaceSavingSummary(16);
+    Map<Long, Long> expected = new HashMap<>();
+    //key k is offered k + 1 times, interleaved
+    for (int round = 0; round < 10; round++) {
+      for (long key = round; key < 10; key++) {
+        summary.offer(key * 1_000_003L);
+        expected.merge(key * 1_000_003L, 1L, Long::sum);
+      }
+    }
+    assertEquals(10, summary.size());
+    assertEquals(55, summary.total());
+    assertEquals(0, summary.maxError());
+    assertEquals(expected, counts(summary));
+    for (int counter = 0; counter < summary.size(); counter++) {
+      assertEquals(0, summary.errorAt(counter));
+    }
+  }
+
+  @Test
+  public void overestimatesByAtMostTotalOverCapacity() {
+    int capacity = 32;
+    SpaceSavingSummary summary = new SpaceSavingSummary(capacity);
+    Map<Long, Long> expected = skewedStream(summary, new Random(7), 20_000, 500);
+    assertEquals(capacity, summary.size());
+    assertBounded(summary, expected, summary.total() / capacity);
+    //every key more frequent than the bound holds a counter
+    Map<Long, Long> held = counts(summary);
+    for (Map.Entry<Long, Long> key : expected.entrySet()) {
+      if (key.getValue() > summary.total() / capacity) {
+        assertTrue("key " + key.getKey() + " lost its counter", held.containsKey(key.getKey()));
+      }
+    }
+  }
+
+  @Test
+  public void ordersCountersByDescendingCount() {
+    SpaceSavingSummary summary = new SpaceSavingSummary(8);
+    skewedStream(summary, new Random(3), 5_000, 100);
+    int[] order = summary.byCountDescending();
+    assertEquals(summary.size(), order.length);
+    for (int i = 1; i < order.length; i++) {
+      assertTrue(summary.countAt(order[i - 1]) >= summary.countAt(order[i]));
+    }
+  }
+
+  @Test
+  public void mergesExactlyBelowCapacity() {
+    SpaceSavingSummary left = new SpaceSavingSummary(64);
+    SpaceSavingSummary right = new SpaceSavingSummary(64);
+    Map<Long, Long> expected = new HashMap<>();
+    for (long key = 0; key < 40; key++) {
+      for (int i = 0; i <= key % 5; i++) {
+        (key % 2 == 0 ? left : right).offer(key);
+        expected.merge(key, 1L, Long::sum);
+      }
+      if (key % 3 == 0) {
+        right.offer(key);
+        expected.merge(key, 1L, Long::sum);
+      }
+    }
+    left.merge(right);
+    assertEquals(40, left.size());
+    assertEquals(0, left.maxError());
+    assertEquals(expected, counts(left));
+  }
+
+  @Test
+  public void mergeKeepsTheSumOfBothBounds() {
+    int capacity = 24;
+    SpaceSavingSummary left = new SpaceSavingSummary(capacity);
+    SpaceSavingSummary right = new SpaceSavingSummary(capacity);
+    Map<Long, Long> expected = skewedStream(left, new Random(11), 10_000, 300);
+    skewedStream(right, new Random(12), 15_000, 300)
+        .forEach((key, count) -> expected.merge(key, count, Long::sum));
+    long bound = left.total() / capacity + right.total() / capacity;
+    left.merge(right);
+    assertEquals(25_000, left.total());
+    assertTrue(left.size() <= capacity);
+    assertBounded(left, expected, bound);
+  }
+
+  /**
+   * Offers keys drawn with a geometric skew, so a few keys are frequent and most are rare.
+   *
+   * @return the true count of every key offered
+   */
+  private static Map<Long, Long> skewedStream(SpaceSavingSummary summary, Random random,
+      int length, int keys) {
+    Map<Long, Long> counts = new HashMap<>();
+    for (int i = 0; i < length; i++) {
+      long key = (long) (keys * Math.pow(random.nextDouble(), 3)) * 7919L;
+      summary.offer(key);
+      counts.merge(key, 1L, Long::sum);
+    }
+    return counts;
+  }
+
+  private static void assertBounded(SpaceSavingSummary summary, Map<Long, Long> expected,
+      long bound) {
+    assertTrue("max error " + summary.maxError() + " above " + bound,
+        summary.maxError() <= bound);
+    for (int counter = 0; counter < summary.size(); counter++) {
+      long key = summary.keyAt(counter);
+      long actual = expected.getOrDefault(key, 0L);
+      long count = summary.countAt(counter);
+      long error = summary.errorAt(counter);
+      assertTrue("count of " + key + " below its true count", count >= actual);
+      assertTrue("error of " + key + " does not cover the overestimate", count - error <= actual);
+      assertTrue("error of " + key + " above " + bound, error <= bound);
+    }
+  }
+
+  private static Map<Long, Long> counts(SpaceSavingSummary summary) {
+    Map<Long, Long> counts = new HashMap<>();
+    for (int counter = 0; counter < summary.size(); counter++) {
+      counts.put(summary.keyAt(counter), summary.countAt(counter));
+    }
+    return counts;
+  }
+}